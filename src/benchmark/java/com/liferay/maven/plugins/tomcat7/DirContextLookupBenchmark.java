@@ -0,0 +1,106 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The lookups Tomcat makes on the resources of a plugin context, a {@link MyDirContext} over a docBase and a build
+ * output directory, without and with the lookup cache. Runs on several threads like concurrent requests do.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+@Threads( 4 )
+public class DirContextLookupBenchmark
+{
+
+    private static final int JSP_FILES = 2000;
+
+    @Param( { "0", "2000" } )
+    private int cacheSize;
+
+    private File workDir;
+
+    private MyDirContext dirContext;
+
+    @Setup( Level.Trial )
+    public void createContext() throws IOException
+    {
+        workDir = SyntheticTrees.newWorkDir( "dir-context" );
+
+        File docBase = new File( workDir, "docroot" );
+        SyntheticTrees.createWebapp( docBase, JSP_FILES );
+
+        File classes = new File( workDir, "classes" );
+        SyntheticTrees.createClasses( classes, 500 );
+
+        dirContext = new MyDirContext( classes.getAbsolutePath(), cacheSize, null, new SystemStreamLog() );
+        dirContext.setDocBase( docBase.getAbsolutePath() );
+    }
+
+    @TearDown( Level.Trial )
+    public void release() throws IOException
+    {
+        dirContext.release();
+        FileUtils.deleteDirectory( workDir );
+    }
+
+    @Benchmark
+    public Attributes getAttributes() throws NamingException
+    {
+        return dirContext.getAttributes( "/html/portlet/p7/view1207.jsp" );
+    }
+
+    @Benchmark
+    public Object lookupMissing()
+    {
+        // the class loader and the JSP servlet ask for lots of resources a plugin does not have
+        try
+        {
+            return dirContext.lookup( "/WEB-INF/classes/com/liferay/portal/Missing.class" );
+        }
+        catch( NamingException e )
+        {
+            return e;
+        }
+    }
+
+    @Benchmark
+    public int listClasses() throws NamingException
+    {
+        NamingEnumeration<?> bindings = dirContext.listBindings( "/WEB-INF/classes" );
+        int count = 0;
+
+        while( bindings.hasMore() )
+        {
+            bindings.next();
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,82 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.loader.WebappLoader;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Creating and starting a context with {@link LiferayExtendedTomcat#hotDeployWebapp(String, String,
+ * org.apache.catalina.Loader)} on a started server, the way the webapps directory is deployed, then undeploying it
+ * again so every invocation deploys the same webapp.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class HotDeployBenchmark
+{
+
+    private File workDir;
+
+    private File webappDir;
+
+    private LiferayExtendedTomcat tomcat;
+
+    @Setup( Level.Trial )
+    public void startTomcat() throws IOException, LifecycleException
+    {
+        workDir = SyntheticTrees.newWorkDir( "hot-deploy" );
+
+        File configurationDir = new File( workDir, "tomcat" );
+        URL webXml = getClass().getResource( "/conf/web.xml" );
+        FileUtils.copyURLToFile( webXml, new File( configurationDir, "conf/web.xml" ) );
+        new File( configurationDir, "webapps" ).mkdirs();
+
+        webappDir = new File( workDir, "benchmark-portlet" );
+        SyntheticTrees.createWebapp( webappDir, 200 );
+
+        tomcat = new LiferayExtendedTomcat( configurationDir );
+        tomcat.setBaseDir( configurationDir.getAbsolutePath() );
+        tomcat.setPort( 0 );
+        tomcat.getHost().setAppBase( new File( configurationDir, "webapps" ).getAbsolutePath() );
+        tomcat.start();
+    }
+
+    @TearDown( Level.Trial )
+    public void stopTomcat() throws IOException, LifecycleException
+    {
+        tomcat.stop();
+        tomcat.destroy();
+        FileUtils.deleteDirectory( workDir );
+    }
+
+    @Benchmark
+    public Context deployAndUndeploy()
+    {
+        Context context = tomcat.hotDeployWebapp( "/benchmark-portlet", webappDir.getAbsolutePath(),
+                                                  new WebappLoader( getClass().getClassLoader() ) );
+        tomcat.undeployWebapp( "/benchmark-portlet" );
+
+        return context;
+    }
+}
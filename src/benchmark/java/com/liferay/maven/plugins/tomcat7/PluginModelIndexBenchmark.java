@@ -0,0 +1,118 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The plugin model building of <code>createPluginContexts</code> on a generated plugins tree. Models missing from
+ * the {@link PluginModelIndex} come from the Maven project builder, which needs a running build, so this measures
+ * what a run with unchanged poms does, reading every model from the index, and what indexing all models costs.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class PluginModelIndexBenchmark
+{
+
+    private static final Set<String> ACTIVE_PROFILES = Collections.singleton( "development" );
+
+    @Param( { "50", "200" } )
+    private int modules;
+
+    private File workDir;
+
+    private File parentPom;
+
+    private File pluginsPom;
+
+    private File indexFile;
+
+    private List<String> moduleNames;
+
+    @Setup( Level.Trial )
+    public void createPluginsTree() throws IOException
+    {
+        workDir = SyntheticTrees.newWorkDir( "plugin-models" );
+        parentPom = new File( workDir, "pom.xml" );
+        pluginsPom = SyntheticTrees.createPluginsTree( workDir, modules );
+        indexFile = new File( workDir, "tomcat/plugin-models.properties" );
+
+        moduleNames = new ArrayList<String>();
+
+        for( int i = 0; i < modules; i++ )
+        {
+            moduleNames.add( "plugin-" + i + "-portlet" );
+        }
+
+        index( indexFile );
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteWorkDir() throws IOException
+    {
+        FileUtils.deleteDirectory( workDir );
+    }
+
+    @Benchmark
+    public void readIndexedModels( Blackhole blackhole ) throws IOException
+    {
+        PluginModelIndex index =
+            new PluginModelIndex( indexFile, ACTIVE_PROFILES, System.getProperties(), parentPom, pluginsPom );
+
+        for( String module : index.getModules( pluginsPom ) )
+        {
+            blackhole.consume( index.get( new File( pluginsPom.getParentFile(), module + "/pom.xml" ) ) );
+        }
+    }
+
+    @Benchmark
+    public void indexModels() throws IOException
+    {
+        File coldIndexFile = new File( workDir, "tomcat/cold-plugin-models.properties" );
+        coldIndexFile.delete();
+
+        index( coldIndexFile );
+    }
+
+    private void index( File file ) throws IOException
+    {
+        PluginModelIndex index =
+            new PluginModelIndex( file, ACTIVE_PROFILES, System.getProperties(), parentPom, pluginsPom );
+        index.putModules( pluginsPom, moduleNames );
+
+        for( String module : moduleNames )
+        {
+            File moduleDir = new File( pluginsPom.getParentFile(), module );
+
+            index.put( new File( moduleDir, "pom.xml" ), new PluginModel(
+                module, new File( moduleDir, "target" ).getAbsolutePath(), module + "-1.0.0-SNAPSHOT",
+                new File( moduleDir, "target/classes" ).getAbsolutePath() ) );
+        }
+
+        index.store();
+    }
+}
@@ -0,0 +1,157 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * The generated wars, webapps and plugin trees the benchmarks run on, shaped like the Liferay ones but small enough
+ * to set up for every trial.
+ */
+final class SyntheticTrees
+{
+
+    private static final String JSP = "<%@ include file=\"/html/portlet/init.jsp\" %> "
+        + "<liferay-ui:message key=\"name\" /> ";
+
+    private SyntheticTrees()
+    {
+    }
+
+    static File newWorkDir( String name ) throws IOException
+    {
+        File workDir = new File( System.getProperty( "java.io.tmpdir" ), "liferay-jmh-" + name );
+        FileUtils.deleteDirectory( workDir );
+        workDir.mkdirs();
+
+        return workDir;
+    }
+
+    /**
+     * A war of small jsp entries in a few hundred directories and a WEB-INF/lib of larger jars.
+     */
+    static void createWar( File war, int jspEntries, int jars ) throws IOException
+    {
+        Random random = new Random( 42 );
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( war ) );
+
+        try
+        {
+            for( int i = 0; i < jspEntries; i++ )
+            {
+                out.putNextEntry( new ZipEntry( "html/portlet/p" + ( i % 300 ) + "/view" + i + ".jsp" ) );
+                out.write( text( random, 1024 + random.nextInt( 4096 ) ) );
+                out.closeEntry();
+            }
+
+            for( int i = 0; i < jars; i++ )
+            {
+                byte[] content = new byte[64 * 1024 + random.nextInt( 256 * 1024 )];
+                random.nextBytes( content );
+
+                out.putNextEntry( new ZipEntry( "WEB-INF/lib/lib" + i + ".jar" ) );
+                out.write( content );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * An exploded webapp with a web.xml and jsp files in a few directories.
+     */
+    static void createWebapp( File dir, int jspFiles ) throws IOException
+    {
+        Random random = new Random( 42 );
+
+        write( new File( dir, "WEB-INF/web.xml" ), ( "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+            + "<web-app xmlns=\"http://java.sun.com/xml/ns/javaee\" version=\"2.5\">\n"
+            + "  <display-name>benchmark</display-name>\n" + "</web-app>\n" ).getBytes( "UTF-8" ) );
+
+        for( int i = 0; i < jspFiles; i++ )
+        {
+            write( new File( dir, "html/portlet/p" + ( i % 20 ) + "/view" + i + ".jsp" ), text( random, 512 ) );
+        }
+    }
+
+    /**
+     * Class files in a few packages, as a build output directory.
+     */
+    static void createClasses( File dir, int classes ) throws IOException
+    {
+        for( int i = 0; i < classes; i++ )
+        {
+            write( new File( dir, "com/liferay/benchmark/p" + ( i % 10 ) + "/Class" + i + ".class" ), new byte[256] );
+        }
+    }
+
+    /**
+     * A parent pom, a plugins aggregator and its plugin modules.
+     *
+     * @return the plugins aggregator pom, next to the parent pom
+     */
+    static File createPluginsTree( File root, int modules ) throws IOException
+    {
+        StringBuilder moduleElements = new StringBuilder();
+
+        for( int i = 0; i < modules; i++ )
+        {
+            moduleElements.append( "    <module>plugin-" ).append( i ).append( "-portlet</module>\n" );
+
+            write( new File( root, "plugins/plugin-" + i + "-portlet/pom.xml" ), pom(
+                "plugin-" + i + "-portlet", "war", "" ) );
+        }
+
+        write( new File( root, "pom.xml" ), pom( "parent", "pom", "    <module>plugins</module>\n" ) );
+
+        File pluginsPom = new File( root, "plugins/pom.xml" );
+        write( pluginsPom, pom( "plugins", "pom", moduleElements.toString() ) );
+
+        return pluginsPom;
+    }
+
+    private static byte[] pom( String artifactId, String packaging, String modules ) throws IOException
+    {
+        return ( "<project>\n  <modelVersion>4.0.0</modelVersion>\n  <groupId>com.liferay.benchmark</groupId>\n"
+            + "  <artifactId>" + artifactId + "</artifactId>\n  <version>1.0.0-SNAPSHOT</version>\n"
+            + "  <packaging>" + packaging + "</packaging>\n  <modules>\n" + modules + "  </modules>\n</project>\n" )
+            .getBytes( "UTF-8" );
+    }
+
+    private static void write( File file, byte[] content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream( file );
+
+        try
+        {
+            out.write( content );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static byte[] text( Random random, int length )
+    {
+        byte[] content = new byte[length];
+
+        for( int i = 0; i < length; i++ )
+        {
+            content[i] = (byte) JSP.charAt( ( i + random.nextInt( 3 ) ) % JSP.length() );
+        }
+
+        return content;
+    }
+}
@@ -0,0 +1,120 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.archiver.ArchiverException;
+import org.codehaus.plexus.archiver.zip.ZipUnArchiver;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The extraction of a dependency war by {@link IncrementalWarExtractor}, as <code>addContextFromArtifact</code> does
+ * it: into an empty directory, and again over an unchanged extraction, on the calling thread or a pool of all cores.
+ * The plexus zip UnArchiver that extracted the wars before is the baseline, it does not use the pool.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MILLISECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class WarExtractionJmhBenchmark
+{
+
+    @Param( { "false", "true" } )
+    private boolean parallel;
+
+    private File workDir;
+
+    private File war;
+
+    private File extractedDir;
+
+    private File unchangedDir;
+
+    private ExecutorService executor;
+
+    @Setup( Level.Trial )
+    public void createWar() throws IOException
+    {
+        workDir = SyntheticTrees.newWorkDir( "war-extraction" );
+        war = new File( workDir, "portal-web.war" );
+        SyntheticTrees.createWar( war, 3000, 20 );
+
+        if( parallel )
+        {
+            executor = Executors.newFixedThreadPool( Runtime.getRuntime().availableProcessors() );
+        }
+
+        extractedDir = new File( workDir, "extracted" );
+        unchangedDir = new File( workDir, "unchanged" );
+        newExtractor().extract( war, unchangedDir, new File( workDir, "unchanged.properties" ) );
+    }
+
+    @Setup( Level.Invocation )
+    public void deleteExtraction() throws IOException
+    {
+        // milliseconds per invocation, long enough for an invocation level setup
+        FileUtils.deleteDirectory( extractedDir );
+        new File( workDir, "extracted.properties" ).delete();
+    }
+
+    @TearDown( Level.Trial )
+    public void deleteWorkDir() throws IOException
+    {
+        if( executor != null )
+        {
+            executor.shutdown();
+        }
+
+        FileUtils.deleteDirectory( workDir );
+    }
+
+    @Benchmark
+    public IncrementalWarExtractor.Result extract() throws IOException
+    {
+        return newExtractor().extract( war, extractedDir, new File( workDir, "extracted.properties" ) );
+    }
+
+    @Benchmark
+    public File unArchive() throws ArchiverException
+    {
+        ZipUnArchiver unArchiver = new ZipUnArchiver();
+        unArchiver.enableLogging( new ConsoleLogger( Logger.LEVEL_WARN, "benchmark" ) );
+        unArchiver.setSourceFile( war );
+        unArchiver.setDestDirectory( extractedDir );
+        extractedDir.mkdirs();
+        unArchiver.extract();
+
+        return extractedDir;
+    }
+
+    @Benchmark
+    public IncrementalWarExtractor.Result extractUnchanged() throws IOException
+    {
+        return newExtractor().extract( war, unchangedDir, new File( workDir, "unchanged.properties" ) );
+    }
+
+    private IncrementalWarExtractor newExtractor()
+    {
+        return executor != null ? new IncrementalWarExtractor( executor ) : new IncrementalWarExtractor();
+    }
+}
@@ -0,0 +1,108 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.apache.naming.resources.BaseDirContext;
+import org.apache.naming.resources.FileDirContext;
+import org.apache.naming.resources.WARDirContext;
+import org.codehaus.plexus.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serving a dependency war extracted to the webapps directory compared with serving it straight from the war
+ * (<code>unpackWar</code> false): opening the resources up to the first lookup, and a lookup once they are open. The
+ * extraction itself is measured by {@link WarExtractionJmhBenchmark}.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.AverageTime )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Warmup( iterations = 3 )
+@Measurement( iterations = 5 )
+@Fork( 1 )
+public class WarResourcesBenchmark
+{
+
+    private static final String ENTRY = "/html/portlet/p7/view1207.jsp";
+
+    @Param( { "extracted", "war" } )
+    private String source;
+
+    private File workDir;
+
+    private File docBase;
+
+    private BaseDirContext dirContext;
+
+    @Setup( Level.Trial )
+    public void createWar() throws IOException
+    {
+        workDir = SyntheticTrees.newWorkDir( "war-resources" );
+
+        File war = new File( workDir, "portal-web.war" );
+        SyntheticTrees.createWar( war, 3000, 20 );
+
+        if( "war".equals( source ) )
+        {
+            docBase = war;
+        }
+        else
+        {
+            docBase = new File( workDir, "portal-web" );
+            new IncrementalWarExtractor().extract( war, docBase, new File( workDir, "portal-web.properties" ) );
+        }
+
+        dirContext = open();
+    }
+
+    @TearDown( Level.Trial )
+    public void release() throws IOException
+    {
+        dirContext.release();
+        FileUtils.deleteDirectory( workDir );
+    }
+
+    @Benchmark
+    public Attributes openAndLookup() throws NamingException
+    {
+        BaseDirContext opened = open();
+
+        try
+        {
+            return opened.getAttributes( ENTRY );
+        }
+        finally
+        {
+            opened.release();
+        }
+    }
+
+    @Benchmark
+    public Attributes getAttributes() throws NamingException
+    {
+        return dirContext.getAttributes( ENTRY );
+    }
+
+    private BaseDirContext open()
+    {
+        BaseDirContext opened = "war".equals( source ) ? new WARDirContext() : new FileDirContext();
+        opened.setDocBase( docBase.getAbsolutePath() );
+
+        return opened;
+    }
+}
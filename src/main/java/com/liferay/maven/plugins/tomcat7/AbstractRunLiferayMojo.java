@@ -0,0 +1,2155 @@
+
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardContext;
+import org.apache.catalina.loader.WebappLoader;
+import org.apache.catalina.realm.MemoryRealm;
+import org.apache.catalina.startup.Catalina;
+import org.apache.catalina.startup.CatalinaProperties;
+import org.apache.catalina.startup.Tomcat;
+import org.apache.catalina.valves.AccessLogValve;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.resolver.filter.ScopeArtifactFilter;
+import org.apache.maven.model.Profile;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Component;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.project.DefaultProjectBuilderConfiguration;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectBuilder;
+import org.apache.maven.project.ProjectBuildingException;
+import org.apache.maven.shared.filtering.MavenFileFilterRequest;
+import org.apache.maven.shared.filtering.MavenFilteringException;
+import org.apache.tomcat.maven.common.config.AbstractWebapp;
+import org.apache.tomcat.maven.common.run.EmbeddedRegistry;
+import org.apache.tomcat.maven.plugin.tomcat7.run.AbstractRunWarMojo;
+import org.codehaus.plexus.util.DirectoryScanner;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Starts the portal, its plugins and the dependency webapps in an embedded Tomcat. The goals extending it decide
+ * whether the package phase runs first.
+ */
+public abstract class AbstractRunLiferayMojo extends AbstractRunWarMojo
+{
+
+    private static final String PORTAL_WEB = "portal-web";
+
+    private static final String CLASS_RELOAD_WATCH = "watch";
+
+    private static final String CLASS_RELOAD_NONE = "none";
+
+    /**
+     * @see {@link LiferayWebapp}
+     * @since 1.0
+     */
+    @Parameter
+    private List<LiferayWebapp> webapps;
+
+    /**
+     * @see {@link LiferayWebapp}
+     * @since 1.0
+     */
+    @Parameter
+    private List<LiferayWebapp> liferayPlugins;
+
+    /**
+     * The directory to create the Tomcat server configuration under.
+     */
+    @Parameter( defaultValue = "${project.build.directory}/tomcat" )
+    private File configurationDir;
+
+    /**
+     * The path of the Tomcat logging configuration.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.tomcatLogging.file" )
+    private File tomcatLoggingFile;
+
+    /**
+     * overriding the providing web.xml to run tomcat
+     * <b>This override the global Tomcat web.xml located in $CATALINA_HOME/conf/</b>
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.webXml" )
+    private File tomcatWebXml;
+
+    /**
+     * The directory contains additional configuration Files that copied in the Tomcat conf Directory.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.additionalConfigFilesDir", defaultValue = "${basedir}/src/main/tomcatconf" )
+    private File additionalConfigFilesDir;
+
+    /**
+     * Set this to true to allow Maven to continue to execute after invoking
+     * the run goal.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.fork", defaultValue = "false" )
+    private boolean fork;
+
+    /**
+     * List of System properties to pass to the Tomcat Server.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private Map<String, String> systemProperties;
+
+    /**
+     * <p>
+     * Enables or disables naming support for the embedded Tomcat server.
+     * </p>
+     * <p>
+     * <strong>Note:</strong> This setting is ignored if you provide a <code>server.xml</code> for your
+     * Tomcat. Instead please configure naming in the <code>server.xml</code>.
+     * </p>
+     *
+     * @see <a href="http://tomcat.apache.org/tomcat-6.0-doc/api/org/apache/catalina/startup/Embedded.html">org.apache.catalina.startup.Embedded</a>
+     * @see <a href="http://tomcat.apache.org/tomcat-7.0-doc/api/org/apache/catalina/startup/Tomcat.html">org.apache.catalina.startup.Tomcat</a>
+     * @since 2.0
+     */
+    @Parameter( property = "maven.tomcat.useNaming", defaultValue = "true" )
+    private boolean useNaming;
+
+    /**
+     * The protocol to run the Tomcat server on.
+     * By default it's HTTP/1.1.
+     * See possible values <a href="http://tomcat.apache.org/tomcat-7.0-doc/config/http.html">HTTP Connector</a>
+     * protocol attribute, or one of the short names <code>bio</code>, <code>nio</code>, <code>nio2</code> and
+     * <code>apr</code>
+     *
+     * @since 2.0
+     */
+    @Parameter( property = "maven.tomcat.protocol", defaultValue = "HTTP/1.1" )
+    private String protocol;
+
+    /**
+     * The port to run the Tomcat server on.
+     * Will be exposed as System props and session.executionProperties with key tomcat.maven.http.port
+     */
+    @Parameter( property = "maven.tomcat.port", defaultValue = "8080" )
+    private int port;
+
+    /**
+     * The AJP port to run the Tomcat server on.
+     * By default it's 0 this means won't be started.
+     * The ajp connector will be started only for value > 0.
+     * Will be exposed as System props and session.executionProperties with key tomcat.maven.ajp.port
+     *
+     * @since 2.0
+     */
+    @Parameter( property = "maven.tomcat.ajp.port", defaultValue = "8005" )
+    private int ajpPort;
+
+    /**
+     * The https port to run the Tomcat server on.
+     * By default it's 0 this means won't be started.
+     * The https connector will be started only for value > 0.
+     * Will be exposed as System props and session.executionProperties with key tomcat.maven.https.port
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.httpsPort", defaultValue = "0" )
+    private int httpsPort;
+
+    /**
+     * The character encoding to use for decoding URIs.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.uriEncoding", defaultValue = "ISO-8859-1" )
+    private String uriEncoding;
+
+    /**
+     * Override the default keystoreFile for the HTTPS connector (if enabled)
+     *
+     * @since 1.1
+     */
+    @Parameter
+    private String keystoreFile;
+
+    /**
+     * Override the default keystorePass for the HTTPS connector (if enabled)
+     *
+     * @since 1.1
+     */
+    @Parameter
+    private String keystorePass;
+
+    /**
+     * Override the type of keystore file to be used for the server certificate. If not specified, the default value is "JKS".
+     *
+     * @since 2.0
+     */
+    @Parameter( defaultValue = "JKS" )
+    private String keystoreType;
+
+    /**
+     * Number of threads used to start the plugin, dependency and already deployed webapp contexts.
+     * With a value greater than 1 portal-web is started first, the other contexts are then started
+     * concurrently and the start time of each context is reported.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.deployThreads", defaultValue = "1" )
+    private int deployThreads;
+
+    /**
+     * The context of the portal-web dependency, started before all others.
+     */
+    private Context portalWebContext;
+
+    /**
+     * Number of threads used to write the entries of the dependency wars, several wars are extracted at the same
+     * time. A value of 0 uses one thread per available processor.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.extractThreads", defaultValue = "0" )
+    private int extractThreads;
+
+    /**
+     * Set this to true to keep the extracted dependency wars in {@link #sharedWarCacheDir} and fill the webapps
+     * directory with hard links into it, so projects using the same wars extract them only once.
+     * Files are copied when they can't be linked. Linked files must not be edited in the webapps directory.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.sharedWarCache", defaultValue = "false" )
+    private boolean sharedWarCache;
+
+    /**
+     * The directory of the shared extracted war cache, see {@link #sharedWarCache}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.sharedWarCacheDir", defaultValue = "${user.home}/.m2/liferay-tomcat7/extracted" )
+    private File sharedWarCacheDir;
+
+    /**
+     * After how many days without a build installing them the extracted wars of the {@link #sharedWarCacheDir} are
+     * deleted, the directory is checked at most once a day. Webapps directories linked to a deleted war keep working.
+     * 0 keeps them forever.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.sharedWarCacheMaxAge", defaultValue = "30" )
+    private int sharedWarCacheMaxAge;
+
+    /**
+     * Whether the dependency wars are extracted to the webapps directory. When false their contexts run straight
+     * from the war files. Can be overridden for each <code>webapps</code> entry with <code>unpackWar</code>.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.unpackWars", defaultValue = "true" )
+    private boolean unpackWars;
+
+    /**
+     * How long, in milliseconds, the webapps directory must be free of changes before they are deployed, so a
+     * webapp being copied is deployed once.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotDeployQuietPeriod", defaultValue = "1000" )
+    private long hotDeployQuietPeriod;
+
+    /**
+     * Set this to true to poll the webapps directory instead of relying on file system events, for file systems
+     * that don't report them such as some network shares. Polling is also used when no watch service is available.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotDeployPolling", defaultValue = "false" )
+    private boolean hotDeployPolling;
+
+    /**
+     * The interval, in milliseconds, at which the webapps directory is polled, see {@link #hotDeployPolling}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotDeployPollInterval", defaultValue = "2000" )
+    private long hotDeployPollInterval;
+
+    /**
+     * How long, in milliseconds, a changed webapp must stay unchanged before its context is reloaded. Every change
+     * within this delay postpones the reload, so a series of edits costs one context restart.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotRedeployDelay", defaultValue = "2000" )
+    private long hotRedeployDelay;
+
+    /**
+     * How long, in milliseconds, a new webapp must stay unchanged before it is deployed. Ignored when
+     * {@link #hotDeployMarkerFile} is set.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotDeployStableTime", defaultValue = "1000" )
+    private long hotDeployStableTime;
+
+    /**
+     * The name of a file that marks a new webapp as completely written, for deployers that create it last. When set,
+     * a new webapp is deployed as soon as this file exists inside it, instead of after {@link #hotDeployStableTime}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.hotDeployMarkerFile" )
+    private String hotDeployMarkerFile;
+
+    /**
+     * How the direct deployed plugin contexts pick up changed classes in their build output directory:
+     * <ul>
+     * <li><code>watch</code> - the output directories are watched for changes, an affected context is reloaded
+     * once its directory was unchanged for {@link #hotRedeployDelay}</li>
+     * <li><code>poll</code> - every context is reloadable and checks its classes on each background tick</li>
+     * <li><code>none</code> - changed classes are not reloaded</li>
+     * </ul>
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.classReload", defaultValue = CLASS_RELOAD_WATCH )
+    private String classReload;
+
+    /**
+     * The maximum number of resource lookups cached per direct deployed plugin context. Cached lookups are dropped
+     * whenever the docBase or the build output directory of the plugin change, so the cache needs a file system
+     * watch service. <code>0</code> disables the cache.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.resourceCacheSize", defaultValue = "2000" )
+    private int resourceCacheSize;
+
+    /**
+     * Whether <code>WEB-INF/lib</code> jars that are identical in several plugins and dependency webapps are loaded
+     * once, by a class loader shared as the parent of their web application class loaders, instead of once per
+     * context. Shared classes can't see the classes of the webapp using them and share their static state between
+     * webapps, jars that rely on either have to be listed in {@link #sharedLibExcludes}. portal-web never uses
+     * shared jars.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.shareCommonLibs", defaultValue = "false" )
+    private boolean shareCommonLibs;
+
+    /**
+     * In how many webapps a jar has to be to be shared, see {@link #shareCommonLibs}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.sharedLibMinContexts", defaultValue = "2" )
+    private int sharedLibMinContexts;
+
+    /**
+     * File name patterns, like <code>spring-*.jar</code>, of jars that are never shared, see
+     * {@link #shareCommonLibs}.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> sharedLibExcludes;
+
+    private SharedLibs sharedLibs;
+
+    /**
+     * Whether the web application class loaders index the packages of their <code>WEB-INF/lib</code> jars, so
+     * looking up a class or resource that none of the jars contains, such as one loaded by the parent class loader,
+     * doesn't search every jar. The index is kept in <code>jar-packages.properties</code> of the configuration
+     * directory, keyed on the jar checksums.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.indexedClassLoading", defaultValue = "false" )
+    private boolean indexedClassLoading;
+
+    private JarPackageIndex jarPackageIndex;
+
+    /**
+     * Whether request latencies are recorded in histograms per context and status class. They can be read through
+     * JMX while the server runs and their percentiles are written to <code>logs/latency-*.txt</code> of the
+     * configuration directory on shutdown. They are reset once the {@link #warmupUrls warmup} is over.
+     * <p>
+     * Off by default: it adds a valve to every request, an MBean to the platform MBean server and a shutdown hook
+     * writing the report. Cheap enough to keep on during load tests.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.latencyHistograms", defaultValue = "false" )
+    private boolean latencyHistograms;
+
+    /**
+     * Whether the access log is written by a background thread instead of the request threads. Entries are handed
+     * over through a buffer of {@link #accessLogBufferSize} entries and written in batches.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.asyncAccessLog", defaultValue = "false" )
+    private boolean asyncAccessLog;
+
+    /**
+     * How many access log entries wait for the background writer at most, see {@link #asyncAccessLog}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.accessLogBufferSize", defaultValue = "8192" )
+    private int accessLogBufferSize;
+
+    /**
+     * What a request does when the access log buffer is full, see {@link #asyncAccessLog}:
+     * <ul>
+     * <li><code>drop</code> - the entry is dropped and counted, the number of dropped entries is logged</li>
+     * <li><code>block</code> - the request waits until the writer made room</li>
+     * <li><code>write</code> - the request writes the entry itself</li>
+     * </ul>
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.accessLogOverflow", defaultValue = AsyncAccessLogValve.OVERFLOW_DROP )
+    private String accessLogOverflow;
+
+    /**
+     * The threads that process the requests of the HTTP and HTTPS connectors:
+     * <ul>
+     * <li><code>none</code> - each connector has its own pool of {@link #maxThreads} threads</li>
+     * <li><code>shared</code> - the connectors share one bounded executor of {@link #maxThreads} threads and a
+     * queue of {@link #maxQueueSize} requests</li>
+     * <li><code>virtual</code> - each request runs on a new virtual thread, on JDKs without virtual threads this
+     * falls back to <code>shared</code></li>
+     * </ul>
+     * The usage of the threads is logged on shutdown, to size load tests.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.connectorExecutor", defaultValue = ConnectorExecutors.PROFILE_NONE )
+    private String connectorExecutor;
+
+    /**
+     * The maximum number of request processing threads, see {@link #connectorExecutor}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.maxThreads", defaultValue = "200" )
+    private int maxThreads;
+
+    /**
+     * The number of request processing threads kept alive when idle, see {@link #connectorExecutor}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.minSpareThreads", defaultValue = "10" )
+    private int minSpareThreads;
+
+    /**
+     * How many requests wait for a thread of the <code>shared</code> executor at most before they are rejected, see
+     * {@link #connectorExecutor}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.maxQueueSize", defaultValue = "1000" )
+    private int maxQueueSize;
+
+    /**
+     * URLs or paths requested after the server started, before it is reported ready and the
+     * {@link #propertiesPortFilePath} file is written. They are requested concurrently in rounds until the median
+     * latency levels off, see {@link #warmupTolerance}. Without URLs and {@link #warmupCrawlDepth} there is no
+     * warmup.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> warmupUrls;
+
+    /**
+     * How many links away from the {@link #warmupUrls}, or from <code>/</code> without them, pages of the server are
+     * requested during the warmup as well.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupCrawlDepth", defaultValue = "0" )
+    private int warmupCrawlDepth;
+
+    /**
+     * Regular expressions of links the warmup crawl does not follow, matched against their path and query. Portlet
+     * action and resource URLs, URLs with a <code>p_auth</code> token and <code>/c/portal/logout</code> are never
+     * followed.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> warmupCrawlExcludes;
+
+    /**
+     * At most how many URLs the warmup crawl collects.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupMaxUrls", defaultValue = "500" )
+    private int warmupMaxUrls;
+
+    /**
+     * How many warmup requests run concurrently.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupThreads", defaultValue = "4" )
+    private int warmupThreads;
+
+    /**
+     * The warmup ends once the median latency of a round is within this many percent of the previous round.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupTolerance", defaultValue = "10" )
+    private int warmupTolerance;
+
+    /**
+     * At most how many rounds the warmup requests the URLs.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupMaxRounds", defaultValue = "10" )
+    private int warmupMaxRounds;
+
+    /**
+     * No warmup round starts after this many seconds.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.warmupTimeout", defaultValue = "600" )
+    private int warmupTimeout;
+
+    /**
+     * Whether the JSPs of every context are compiled once the contexts started, before the server is reported
+     * ready, instead of on their first request. The compile time of each context and the JSPs that failed to
+     * compile are logged.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.precompileJsps", defaultValue = "false" )
+    private boolean precompileJsps;
+
+    /**
+     * The number of threads compiling JSPs, <code>0</code> for one per core, see {@link #precompileJsps}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.jspCompileThreads", defaultValue = "0" )
+    private int jspCompileThreads;
+
+    /**
+     * Path patterns, like <code>/html/portlet/journal/**</code>, of JSPs that are not precompiled, such as JSPs
+     * only meant to be included, see {@link #precompileJsps}.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> jspPrecompileExcludes;
+
+    /**
+     * A directory to cache compiled JSP classes in, shared by all runs and projects using it, like
+     * <code>${user.home}/.liferay/jsp-classes</code>. Before a context starts, the classes of JSPs that did not
+     * change since they were cached are copied to its work directory, so they are not compiled again. No cache when
+     * not set.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.jspClassCacheDir" )
+    private File jspClassCacheDir;
+
+    /**
+     * After how many days without a run restoring them the compiled JSPs of the {@link #jspClassCacheDir} are
+     * deleted, the directory is checked at most once a day. 0 keeps them forever.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.jspClassCacheMaxAge", defaultValue = "30" )
+    private int jspClassCacheMaxAge;
+
+    /**
+     * File name patterns, like <code>portal-*.jar</code>, of the jars scanned for web fragments, annotations and
+     * TLDs when a context starts, in <code>WEB-INF/lib</code> and on the class path. All jars are scanned when empty.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> jarScanIncludes;
+
+    /**
+     * File name patterns of jars that are not scanned for web fragments, annotations and TLDs, in addition to the
+     * <code>jarsToSkip</code> of <code>catalina.properties</code>.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> jarScanExcludes;
+
+    /**
+     * Whether to remember which jars contain web fragments, servlet annotations or TLDs, so jars that contain none
+     * are not scanned again when a context starts. Kept in <code>jar-scan.properties</code> of the configuration
+     * directory, keyed on the jar checksums.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.jarScanCache", defaultValue = "false" )
+    private boolean jarScanCache;
+
+    private StartupTimer startupTimer;
+
+    private OutputDirectoryWatcher classesWatcher;
+
+    private boolean classesWatcherUnavailable;
+
+    private WebappsWatcher webappsWatcher;
+
+    private HotDeployStager hotDeployStager;
+
+    private StaleModuleBuilder staleModuleBuilder;
+
+    @Component
+    protected MavenProjectBuilder projectBuilder;
+
+    /**
+     * By default the build outputs are deployed as they are, <code>run-liferay</code> packages them first.
+     *
+     * @param stampsFile where to keep what the builder needs across runs
+     * @return the builder of the modules whose build outputs are out of date, <code>null</code> for none
+     */
+    protected StaleModuleBuilder createStaleModuleBuilder( File stampsFile ) throws IOException
+    {
+        return null;
+    }
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        if( skip )
+        {
+            getLog().info( "Skip execution" );
+            return;
+        }
+
+        if( !isWar() && getAdditionalWebapps().isEmpty() && getLiferayPlugins().isEmpty() )
+        {
+            getLog().info( "Skipping non liferay server project" );
+            return;
+        }
+
+        ClassLoader originalClassLoader = null;
+
+        if ( useSeparateTomcatClassLoader )
+        {
+            originalClassLoader = Thread.currentThread().getContextClassLoader();
+        }
+
+        try
+        {
+            getLog().info( "Starting liferay" );
+
+            startupTimer = new StartupTimer();
+
+            StartupTimer.Timing phase = startupTimer.phase( "initConfiguration" );
+
+            try
+            {
+                initConfiguration();
+            }
+            finally
+            {
+                phase.end();
+            }
+
+            staleModuleBuilder = createStaleModuleBuilder( new File( configurationDir, "module-stamps.properties" ) );
+
+            if( staleModuleBuilder != null && isWar() )
+            {
+                phase = startupTimer.phase( "packageStaleModules" );
+
+                try
+                {
+                    staleModuleBuilder.add( project.getBasedir(), new File( project.getBuild().getDirectory(),
+                                                                            project.getBuild().getFinalName() ) );
+                    staleModuleBuilder.buildStale();
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            final Tomcat tomcat = startContainer();
+
+            if( !fork )
+            {
+                Catalina catalina = new Catalina();
+                final Server server = tomcat.getServer();
+                server.setPort( this.ajpPort );
+                catalina.setServer( server );
+                catalina.await();
+            }
+        }
+        catch ( LifecycleException exception )
+        {
+            throw new MojoExecutionException( messagesProvider.getMessage( "AbstractRunMojo.cannotStart" ), exception );
+        }
+        catch ( IOException exception )
+        {
+            throw new MojoExecutionException(
+                messagesProvider.getMessage( "AbstractRunMojo.cannotCreateConfiguration" ), exception );
+        }
+        catch ( ServletException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+        catch ( MavenFilteringException e )
+        {
+            throw new MojoExecutionException( "filtering issue: " + e.getMessage(), e );
+        }
+        catch( ProjectBuildingException e )
+        {
+            throw new MojoExecutionException( "project build issue: " + e.getMessage(), e );
+        }
+
+        finally
+        {
+            if ( useSeparateTomcatClassLoader )
+            {
+                Thread.currentThread().setContextClassLoader( originalClassLoader );
+            }
+        }
+    }
+
+    @SuppressWarnings( "deprecation" )
+    private Tomcat startContainer() throws IOException, LifecycleException, MojoExecutionException, ServletException, ProjectBuildingException
+    {
+        String previousCatalinaBase = System.getProperty( "catalina.base" );
+
+        try
+        {
+         // Set the system properties
+            setupSystemProperties();
+
+            System.setProperty( "catalina.base", configurationDir.getAbsolutePath() );
+
+            System.setProperty( "java.util.logging.manager", "org.apache.juli.ClassLoaderLogManager" );
+            System.setProperty( "java.util.logging.config.file",
+                                new File( configurationDir, "conf/logging.properties" ).toString() );
+
+            // Trigger loading of catalina.properties
+            CatalinaProperties.getProperty( "foo" );
+
+            final LiferayExtendedTomcat embeddedTomcat = new LiferayExtendedTomcat( configurationDir );
+
+            // nothing is deployed or reloaded into a stopping server
+            embeddedTomcat.getServer().addLifecycleListener( new LifecycleListener()
+            {
+                public void lifecycleEvent( LifecycleEvent event )
+                {
+                    if( Lifecycle.BEFORE_STOP_EVENT.equals( event.getType() ) )
+                    {
+                        stopWatching( embeddedTomcat );
+                    }
+                }
+            } );
+
+            embeddedTomcat.setDeferContextStart( deployThreads > 1 );
+
+            if( jarScanCache || ( jarScanIncludes != null && !jarScanIncludes.isEmpty() ) ||
+                ( jarScanExcludes != null && !jarScanExcludes.isEmpty() ) )
+            {
+                JarScanCache scanCache =
+                    jarScanCache ? new JarScanCache( new File( configurationDir, "jar-scan.properties" ) ) : null;
+
+                embeddedTomcat.setJarScanner( new FilteringJarScanner( jarScanIncludes, jarScanExcludes, scanCache ) );
+            }
+
+            embeddedTomcat.addContextLifecycleListener( startupTimer.getContextListener() );
+
+            final JspClassCache jspClassCache = jspClassCacheDir != null ? new JspClassCache(
+                jspClassCacheDir, new File( configurationDir, "jsp-jar-checksums.properties" ), getLog() ) : null;
+
+            if( jspClassCache != null )
+            {
+                jspClassCache.evictUnused( jspClassCacheMaxAge );
+
+                embeddedTomcat.addContextLifecycleListener( jspClassCache.getContextListener() );
+
+                // the contexts are not stopped when the build is interrupted
+                Runtime.getRuntime().addShutdownHook( new Thread( "liferay-jsp-cache" )
+                {
+                    @Override
+                    public void run()
+                    {
+                        jspClassCache.storeAll();
+                    }
+                } );
+            }
+
+            embeddedTomcat.setBaseDir( configurationDir.getAbsolutePath() );
+            MemoryRealm memoryRealm = new MemoryRealm();
+
+            embeddedTomcat.setDefaultRealm( memoryRealm );
+
+            if( shareCommonLibs )
+            {
+                sharedLibs = new SharedLibs( new File( configurationDir, "shared-lib" ), getWebappParentClassLoader(),
+                                             sharedLibMinContexts, sharedLibExcludes, getLog() );
+            }
+
+            if( indexedClassLoading )
+            {
+                jarPackageIndex = new JarPackageIndex( new File( configurationDir, "jar-packages.properties" ) );
+            }
+
+            StartupTimer.Timing phase = startupTimer.phase( "createPluginContexts" );
+
+            try
+            {
+                createPluginContexts( embeddedTomcat );
+            }
+            finally
+            {
+                phase.end();
+            }
+
+            if( useNaming )
+            {
+                embeddedTomcat.enableNaming();
+            }
+
+            final File webappsDir = getWebappsDir();
+
+            embeddedTomcat.getHost().setAppBase( webappsDir.getAbsolutePath() );
+
+            if( hostName != null )
+            {
+                embeddedTomcat.getHost().setName( hostName );
+            }
+
+            if( aliases != null )
+            {
+                for( String alias : aliases )
+                {
+                    embeddedTomcat.getHost().addAlias( alias );
+                }
+            }
+
+            ConnectorExecutors connectorExecutors =
+                new ConnectorExecutors( connectorExecutor, maxThreads, minSpareThreads, maxQueueSize, getLog() );
+            connectorExecutors.install( embeddedTomcat.getServer(), embeddedTomcat.getService() );
+
+            String protocolHandler = ConnectorExecutors.resolveProtocol( protocol );
+
+            Connector connector = new Connector( protocolHandler );
+            connector.setPort( port );
+
+            if ( httpsPort > 0 )
+            {
+                connector.setRedirectPort( httpsPort );
+            }
+
+            connector.setURIEncoding( uriEncoding );
+            connectorExecutors.configure( connector );
+
+            embeddedTomcat.getService().addConnector( connector );
+
+            embeddedTomcat.setConnector( connector );
+
+            AccessLogValve alv;
+
+            if( asyncAccessLog )
+            {
+                AsyncAccessLogValve asyncAlv = new AsyncAccessLogValve();
+                asyncAlv.setBufferSize( accessLogBufferSize );
+
+                try
+                {
+                    asyncAlv.setOverflowPolicy( accessLogOverflow );
+                }
+                catch( IllegalArgumentException e )
+                {
+                    throw new MojoExecutionException( e.getMessage(), e );
+                }
+
+                alv = asyncAlv;
+            }
+            else
+            {
+                alv = new AccessLogValve();
+            }
+
+            alv.setDirectory( new File( configurationDir, "logs" ).getAbsolutePath() );
+            alv.setPattern( "%h %l %u %t \"%r\" %s %b %I %D" );
+            embeddedTomcat.getHost().getPipeline().addValve( alv );
+
+            LatencyValve latencyValve = null;
+
+            if( latencyHistograms )
+            {
+                latencyValve = new LatencyValve();
+                latencyValve.setReportDir( new File( configurationDir, "logs" ) );
+                embeddedTomcat.getHost().getPipeline().addValve( latencyValve );
+            }
+
+            // create https connector
+            Connector httpsConnector = null;
+            if ( httpsPort > 0 )
+            {
+                httpsConnector = new Connector( protocolHandler );
+                httpsConnector.setPort( httpsPort );
+                httpsConnector.setSecure( true );
+                httpsConnector.setProperty( "SSLEnabled", "true" );
+                // should be default but configure it anyway
+                httpsConnector.setProperty( "sslProtocol", "TLS" );
+
+                if ( keystoreFile != null )
+                {
+                    httpsConnector.setAttribute( "keystoreFile", keystoreFile );
+                }
+
+                if ( keystorePass != null )
+                {
+                    httpsConnector.setAttribute( "keystorePass", keystorePass );
+                }
+
+                if ( keystoreType != null )
+                {
+                    httpsConnector.setAttribute( "keystoreType", keystoreType );
+                }
+
+                httpsConnector.setAttribute( "clientAuth", clientAuth );
+                connectorExecutors.configure( httpsConnector );
+
+                embeddedTomcat.getEngine().getService().addConnector( httpsConnector );
+            }
+
+            if ( ! getAdditionalWebapps().isEmpty() )
+            {
+                phase = startupTimer.phase( "createDependencyContexts" );
+
+                try
+                {
+                    createDependencyContexts( embeddedTomcat );
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            if( useSeparateTomcatClassLoader )
+            {
+                Thread.currentThread().setContextClassLoader( getTomcatClassLoader() );
+                embeddedTomcat.getEngine().setParentClassLoader( getTomcatClassLoader() );
+            }
+
+            // add webapp directories already deployed to /target/tomcat/webapps other than portal
+            final File[] existingWebapps = webappsDir.listFiles
+            (
+                new FilenameFilter()
+                {
+                    public boolean accept( File dir, String name )
+                    {
+                        return ! PORTAL_WEB.equals( name );
+                    }
+                }
+            );
+
+            if( sharedLibs != null )
+            {
+                if( existingWebapps != null )
+                {
+                    for( File existingWebapp : existingWebapps )
+                    {
+                        sharedLibs.scan( existingWebapp );
+                    }
+                }
+
+                // before any context starts and creates its class loader
+                phase = startupTimer.phase( "shareCommonLibs" );
+
+                try
+                {
+                    sharedLibs.share();
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            phase = startupTimer.phase( "embeddedTomcat.start" );
+
+            try
+            {
+                embeddedTomcat.start();
+            }
+            finally
+            {
+                phase.end();
+            }
+
+            if( classesWatcher != null )
+            {
+                classesWatcher.start();
+            }
+
+            if( deployThreads > 1 )
+            {
+                phase = startupTimer.phase( "startContextsInParallel" );
+
+                try
+                {
+                    startContextsInParallel( embeddedTomcat, existingWebapps );
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            Properties portProperties = new Properties();
+            portProperties.put( "tomcat.maven.http.port", Integer.toString( connector.getLocalPort() ) );
+
+            session.getExecutionProperties().put( "tomcat.maven.http.port", Integer.toString( connector.getLocalPort() ) );
+            System.setProperty( "tomcat.maven.http.port", Integer.toString( connector.getLocalPort() ) );
+
+            if( httpsConnector != null )
+            {
+                session.getExecutionProperties().put(
+                    "tomcat.maven.https.port", Integer.toString( httpsConnector.getLocalPort() ) );
+                portProperties.put( "tomcat.maven.https.port", Integer.toString( httpsConnector.getLocalPort() ) );
+                System.setProperty( "tomcat.maven.https.port", Integer.toString( httpsConnector.getLocalPort() ) );
+            }
+
+            EmbeddedRegistry.getInstance().register( embeddedTomcat );
+
+            if( deployThreads <= 1 )
+            {
+                phase = startupTimer.phase( "hotDeployExistingWebapps" );
+
+                try
+                {
+                    for( File existingWebapp : existingWebapps )
+                    {
+                        hotDeployDirectory( embeddedTomcat, existingWebapp );
+                    }
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            if( sharedLibs != null )
+            {
+                sharedLibs.report();
+            }
+
+            if( precompileJsps )
+            {
+                phase = startupTimer.phase( "precompileJsps" );
+
+                try
+                {
+                    int threads = jspCompileThreads > 0 ? jspCompileThreads : Runtime.getRuntime().availableProcessors();
+
+                    new JspPrecompiler( threads, jspPrecompileExcludes, getLog() )
+                        .precompile( embeddedTomcat.getHost().findChildren() );
+
+                    if( jspClassCache != null )
+                    {
+                        jspClassCache.storeAll();
+                    }
+                }
+                finally
+                {
+                    phase.end();
+                }
+            }
+
+            phase = startupTimer.phase( "watchWebappsDirectory" );
+
+            try
+            {
+                watchWebappsDirectory( embeddedTomcat, webappsDir, existingWebapps );
+            }
+            finally
+            {
+                phase.end();
+            }
+
+            if( ( warmupUrls != null && !warmupUrls.isEmpty() ) || warmupCrawlDepth > 0 )
+            {
+                phase = startupTimer.phase( "warmup" );
+
+                try
+                {
+                    new Warmup( new URL( "http", "localhost", connector.getLocalPort(), "/" ), warmupUrls,
+                                warmupCrawlDepth, warmupCrawlExcludes, warmupMaxUrls, warmupThreads, getLog() )
+                        .run( warmupMaxRounds, warmupTolerance, TimeUnit.SECONDS.toMillis( warmupTimeout ) );
+                }
+                finally
+                {
+                    phase.end();
+                }
+
+                if( latencyValve != null )
+                {
+                    // the latencies of the warmup are those of a cold server
+                    latencyValve.reset();
+                }
+            }
+
+            // written once the server is ready, after the webapps were deployed and warmed up
+            if( propertiesPortFilePath != null )
+            {
+                File propertiesPortsFile = new File( propertiesPortFilePath );
+
+                if( propertiesPortsFile.exists() )
+                {
+                    propertiesPortsFile.delete();
+                }
+                FileOutputStream fileOutputStream = new FileOutputStream( propertiesPortsFile );
+
+                try
+                {
+                    portProperties.store( fileOutputStream, "Apache Tomcat Maven plugin port used" );
+                }
+                finally
+                {
+                    IOUtils.closeQuietly( fileOutputStream );
+                }
+            }
+
+            File startupReport = startupTimer.report( getLog(), new File( configurationDir, "logs" ) );
+            getLog().info( "Startup report written to " + startupReport );
+
+            return embeddedTomcat;
+        }
+        finally
+        {
+            if ( previousCatalinaBase != null )
+            {
+                System.setProperty( "catalina.base", previousCatalinaBase );
+            }
+        }
+    }
+
+    /**
+     * Starts the contexts held back while the container started, portal-web first on the current thread, then
+     * all other contexts and the already deployed webapps on {@link #deployThreads} threads.
+     */
+    private void startContextsInParallel( final LiferayExtendedTomcat container, File[] existingWebapps )
+        throws MojoExecutionException
+    {
+        getLog().info( "Starting contexts with " + deployThreads + " threads" );
+
+        List<Context> contexts = container.takeDeferredContexts();
+        container.setDeferContextStart( false );
+
+        ParallelContextStarter contextStarter = new ParallelContextStarter( deployThreads, getLog() );
+        Host host = container.getHost();
+
+        // plugins register themselves with the portal, so it has to be up before anything else
+        for( Iterator<Context> iterator = contexts.iterator(); iterator.hasNext(); )
+        {
+            Context context = iterator.next();
+
+            if( context == portalWebContext )
+            {
+                contextStarter.start( host, context );
+                iterator.remove();
+            }
+        }
+
+        for( Context context : contexts )
+        {
+            contextStarter.submit( host, context );
+        }
+
+        if( existingWebapps != null )
+        {
+            for( final File existingWebapp : existingWebapps )
+            {
+                contextStarter.submit( "/" + existingWebapp.getName(), new Callable<Void>()
+                {
+                    public Void call() throws Exception
+                    {
+                        hotDeployDirectory( container, existingWebapp );
+                        return null;
+                    }
+                } );
+            }
+        }
+
+        contextStarter.await();
+    }
+
+    private File getWebappsDir()
+    {
+        return new File( configurationDir, "webapps" );
+    }
+
+    /**
+     * Deploys what is added to the webapps directory while the server runs, undeploys what is removed and reloads
+     * the contexts of changed webapps after {@link #hotRedeployDelay}. Changes are reported by a
+     * {@link WebappsWatcher}, in batches once the directory was quiet for {@link #hotDeployQuietPeriod}.
+     * New webapps go through a {@link HotDeployStager} so they are deployed once, when completely written.
+     *
+     * @param existingWebapps the webapps deployed at startup
+     */
+    private void watchWebappsDirectory( final Tomcat container, File webappsDir, File[] existingWebapps )
+    {
+        Set<String> deployedNames = new HashSet<String>();
+
+        if( existingWebapps != null )
+        {
+            for( File existingWebapp : existingWebapps )
+            {
+                deployedNames.add( existingWebapp.getName() );
+            }
+        }
+
+        final HotDeployStager stager = new HotDeployStager
+        (
+            deployedNames, hotDeployStableTime, hotDeployMarkerFile,
+            new HotDeployStager.Deployer()
+            {
+                public void deploy( File dirToDeploy, long firstEventNanos ) throws Exception
+                {
+                    hotDeployDirectory( container, dirToDeploy );
+
+                    getLog().info( "Deployed /" + dirToDeploy.getName() + " " +
+                        TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - firstEventNanos ) + " ms after the change" );
+                }
+            },
+            getLog()
+        );
+
+        hotDeployStager = stager;
+
+        webappsWatcher = new WebappsWatcher
+        (
+            webappsDir, Collections.singleton( PORTAL_WEB ), hotDeployQuietPeriod, hotDeployPollInterval,
+            new WebappsWatcher.Listener()
+            {
+                public void webappsChanged( WebappsWatcher.Changes changes ) throws Exception
+                {
+                    LiferayExtendedTomcat xTomcat = (LiferayExtendedTomcat) container;
+
+                    for( File deleted : changes.deleted )
+                    {
+                        if( stager.deleted( deleted ) && xTomcat.undeployWebapp( "/" + deleted.getName() ) )
+                        {
+                            getLog().info( "Undeployed /" + deleted.getName() );
+                        }
+                    }
+
+                    for( final File modified : changes.modified )
+                    {
+                        final long firstEventNanos = changes.firstEventNanos;
+
+                        if( stager.modified( modified, firstEventNanos ) )
+                        {
+                            // still being written, not deployed yet
+                            continue;
+                        }
+
+                        Runnable reported = new Runnable()
+                        {
+                            public void run()
+                            {
+                                getLog().info( "Redeployed /" + modified.getName() + " " +
+                                    TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - firstEventNanos ) +
+                                    " ms after the change" );
+                            }
+                        };
+
+                        boolean scheduled =
+                            xTomcat.scheduleReload( "/" + modified.getName(), hotRedeployDelay, reported );
+
+                        if( !scheduled )
+                        {
+                            getLog().debug( "No context for changed " + modified );
+                        }
+                    }
+
+                    for( File created : changes.created )
+                    {
+                        stager.created( created, changes.firstEventNanos );
+                    }
+                }
+            },
+            getLog()
+        );
+
+        webappsWatcher.start( hotDeployPolling );
+    }
+
+    /**
+     * Stops the watchers of the webapps and output directories and drops the pending deploys and reloads.
+     */
+    private void stopWatching( LiferayExtendedTomcat container )
+    {
+        if( webappsWatcher != null )
+        {
+            webappsWatcher.stop();
+        }
+
+        if( hotDeployStager != null )
+        {
+            hotDeployStager.stop();
+        }
+
+        if( classesWatcher != null )
+        {
+            classesWatcher.stop();
+        }
+
+        container.stopReloads();
+    }
+
+    protected void hotDeployDirectory( final Tomcat container, File dirToDeploy ) throws MojoExecutionException, IOException, ServletException
+    {
+        LiferayExtendedTomcat xTomcat = (LiferayExtendedTomcat) container;
+
+        if( sharedLibs != null )
+        {
+            xTomcat.hotDeployWebapp( "/" + dirToDeploy.getName(), dirToDeploy.getAbsolutePath(),
+                                     createWebappLoader( dirToDeploy ), new SharedLibDirContext( sharedLibs ) );
+        }
+        else
+        {
+            xTomcat.hotDeployWebapp( "/" + dirToDeploy.getName(), dirToDeploy.getAbsolutePath(),
+                                     createWebappLoader( null ) );
+        }
+    }
+
+    /**
+     * @param sharingDocBase the docBase of a context using the {@link #sharedLibs}, whose resources hide the shared
+     *                       jars, <code>null</code> for a context that does not
+     */
+    private WebappLoader createWebappLoader( File sharingDocBase ) throws IOException, MojoExecutionException
+    {
+        ClassLoader parent;
+
+        if( sharingDocBase != null && sharedLibs != null )
+        {
+            parent = sharedLibs.getClassLoader( sharingDocBase );
+        }
+        else if( jarPackageIndex != null )
+        {
+            parent = getWebappParentClassLoader();
+        }
+        else
+        {
+            return createWebappLoader();
+        }
+
+        // the context decides whether the loader is reloadable when it starts
+        if( jarPackageIndex != null )
+        {
+            return new IndexedWebappLoader( parent, jarPackageIndex );
+        }
+
+        return new WebappLoader( parent );
+    }
+
+    /**
+     * @return the parent class loader {@link #createWebappLoader()} gives the web application class loaders
+     */
+    private ClassLoader getWebappParentClassLoader() throws MojoExecutionException
+    {
+        return useSeparateTomcatClassLoader ? getTomcatClassLoader() : Thread.currentThread().getContextClassLoader();
+    }
+
+    private List<LiferayWebapp> getAdditionalWebapps()
+    {
+        if ( webapps == null )
+        {
+            return Collections.emptyList();
+        }
+        return webapps;
+    }
+
+    private Collection<Context> createDependencyContexts( Tomcat container ) throws MojoExecutionException,
+        MalformedURLException, ServletException, IOException
+    {
+        getLog().info( "Deploying dependency wars" );
+        // Let's add other modules
+        List<Context> contexts = new ArrayList<Context>();
+
+        List<Artifact> warArtifacts = new ArrayList<Artifact>();
+
+        ScopeArtifactFilter filter = new ScopeArtifactFilter( "tomcat" );
+        @SuppressWarnings( "unchecked" )
+        Set<Artifact> artifacts = project.getArtifacts();
+        for( Artifact artifact : artifacts )
+        {
+
+            // Artifact is not yet registered and it has neither test, nor a
+            // provided scope, not is it optional
+            if( "war".equals( artifact.getType() ) && !artifact.isOptional() && filter.include( artifact ) )
+            {
+                warArtifacts.add( artifact );
+            }
+        }
+
+        List<Artifact> additionalArtifacts = new ArrayList<Artifact>();
+
+        for( AbstractWebapp additionalWebapp : getAdditionalWebapps() )
+        {
+            additionalArtifacts.add( getArtifact( additionalWebapp ) );
+        }
+
+        List<Artifact> unpackedArtifacts = new ArrayList<Artifact>();
+
+        if( unpackWars )
+        {
+            unpackedArtifacts.addAll( warArtifacts );
+        }
+
+        for( int i = 0; i < additionalArtifacts.size(); i++ )
+        {
+            if( isUnpackWar( getAdditionalWebapps().get( i ) ) )
+            {
+                unpackedArtifacts.add( additionalArtifacts.get( i ) );
+            }
+        }
+
+        Set<String> failedArtifactIds;
+        StartupTimer.Timing phase = startupTimer.phase( "extractWars" );
+
+        try
+        {
+            failedArtifactIds = extractWars( unpackedArtifacts );
+        }
+        finally
+        {
+            phase.end();
+        }
+
+        for( Artifact artifact : warArtifacts )
+        {
+            if( !failedArtifactIds.contains( artifact.getArtifactId() ) )
+            {
+                addContextFromArtifact(
+                    container, contexts, artifact, "/" + artifact.getArtifactId(), null, false, unpackWars );
+            }
+        }
+
+        for( int i = 0; i < additionalArtifacts.size(); i++ )
+        {
+            LiferayWebapp additionalWebapp = getAdditionalWebapps().get( i );
+            Artifact artifact = additionalArtifacts.get( i );
+
+            if( failedArtifactIds.contains( artifact.getArtifactId() ) )
+            {
+                continue;
+            }
+
+            String contextPath = additionalWebapp.getContextPath();
+            if( !contextPath.startsWith( "/" ) )
+            {
+                contextPath = "/" + contextPath;
+            }
+            addContextFromArtifact(
+                container, contexts, artifact, contextPath, additionalWebapp.getContextFile(),
+                additionalWebapp.isAsWebapp(), isUnpackWar( additionalWebapp ) );
+        }
+        return contexts;
+    }
+
+    private boolean isUnpackWar( LiferayWebapp webapp )
+    {
+        return webapp.getUnpackWar() != null ? webapp.getUnpackWar().booleanValue() : unpackWars;
+    }
+
+    /**
+     * Brings the webapps directory of every war up to date, several wars at a time while the entries of each
+     * war are written on a shared pool of {@link #extractThreads} threads.
+     *
+     * @return the artifactIds of the wars that could not be extracted
+     */
+    private Set<String> extractWars( List<Artifact> artifacts ) throws MojoExecutionException
+    {
+        // wars are extracted to webapps/<artifactId>, extracting the same one twice at once would clash
+        final Map<String, Artifact> wars = new LinkedHashMap<String, Artifact>();
+
+        for( Artifact artifact : artifacts )
+        {
+            wars.put( artifact.getArtifactId(), artifact );
+        }
+
+        Set<String> failedArtifactIds = new HashSet<String>();
+
+        if( wars.isEmpty() )
+        {
+            return failedArtifactIds;
+        }
+
+        int threads = extractThreads > 0 ? extractThreads : Runtime.getRuntime().availableProcessors();
+
+        ExecutorService entryExecutor = Executors.newFixedThreadPool( threads );
+        ExecutorService warExecutor = Executors.newFixedThreadPool( Math.min( threads, wars.size() ) );
+
+        final IncrementalWarExtractor extractor = new IncrementalWarExtractor( entryExecutor );
+        final SharedWarCache cache = sharedWarCache ? new SharedWarCache( sharedWarCacheDir, entryExecutor ) : null;
+
+        if( cache != null )
+        {
+            try
+            {
+                int evicted = cache.evictUnused( sharedWarCacheMaxAge );
+
+                if( evicted > 0 )
+                {
+                    getLog().info( "Deleted " + evicted + " extracted wars not used for " + sharedWarCacheMaxAge +
+                        " days from " + sharedWarCacheDir );
+                }
+            }
+            catch( IOException e )
+            {
+                getLog().warn( "Could not clean up " + sharedWarCacheDir + ": " + e.getMessage() );
+            }
+        }
+
+        Map<String, Future<Object>> extractions = new LinkedHashMap<String, Future<Object>>();
+
+        try
+        {
+            for( final Artifact artifact : wars.values() )
+            {
+                extractions.put( artifact.getArtifactId(), warExecutor.submit( new Callable<Object>()
+                {
+                    public Object call() throws IOException
+                    {
+                        File artifactWarDir = new File( getWebappsDir(), artifact.getArtifactId() );
+                        File manifestFile = getExtractManifestFile( artifact );
+                        File linkManifestFile = getLinkManifestFile( artifact );
+
+                        if( cache != null )
+                        {
+                            manifestFile.delete();
+
+                            return cache.install(
+                                artifact.getGroupId(), artifact.getArtifactId(), artifact.getBaseVersion(),
+                                artifact.getFile(), artifactWarDir, linkManifestFile );
+                        }
+
+                        if( linkManifestFile.exists() )
+                        {
+                            // the files are links into the shared cache, writing them would change the cache
+                            FileUtils.deleteDirectory( artifactWarDir );
+                            linkManifestFile.delete();
+                        }
+
+                        // only entries that changed since the last extraction are written
+                        return extractor.extract( artifact.getFile(), artifactWarDir, manifestFile );
+                    }
+                } ) );
+            }
+
+            for( Map.Entry<String, Future<Object>> extraction : extractions.entrySet() )
+            {
+                try
+                {
+                    getLog().info( "Extracted " + extraction.getKey() + ": " + extraction.getValue().get() );
+                }
+                catch( ExecutionException e )
+                {
+                    getLog().error( e.getCause() );
+                    failedArtifactIds.add( extraction.getKey() );
+                }
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "interrupted while extracting wars", e );
+        }
+        finally
+        {
+            warExecutor.shutdownNow();
+            entryExecutor.shutdownNow();
+        }
+
+        return failedArtifactIds;
+    }
+
+    /**
+     * Allows the startup of additional webapps in the tomcat container by declaration with scope
+     * "tomcat".
+     *
+     * @param container tomcat
+     * @return dependency tomcat contexts of warfiles in scope "tomcat"
+     * @throws ProjectBuildingException
+     */
+    @SuppressWarnings( "rawtypes" )
+    private Collection<Context> createPluginContexts( Tomcat container ) throws MojoExecutionException,
+        MalformedURLException, ServletException, IOException, ProjectBuildingException
+    {
+        getLog().info( "Deploying plugins" );
+
+        // Let's add other modules
+        List<Context> contexts = new ArrayList<Context>();
+
+        // check to see if we can deploy context from source
+        final MavenProject parent = this.project.getParent();
+        final List parentModules = parent.getModules();
+
+        // add direct deployed plugin modules
+        if( parentModules != null && ! parentModules.isEmpty() )
+        {
+            for( Object module : parentModules )
+            {
+                if( "plugins".equals( module ) )
+                {
+                    File pluginsPom = new File( this.project.getBasedir().getParentFile(), module.toString() + "/pom.xml" );
+
+                    List<PluginModel> plugins = buildPluginModels( parent.getFile(), pluginsPom );
+
+                    if( staleModuleBuilder != null )
+                    {
+                        for( PluginModel plugin : plugins )
+                        {
+                            // the build directory of a plugin is under its basedir
+                            File buildDirectory = new File( plugin.getBuildDirectory() );
+
+                            staleModuleBuilder.add( buildDirectory.getParentFile(), new File(
+                                buildDirectory, "direct-deployed/" + plugin.getFinalName() ) );
+                        }
+
+                        StartupTimer.Timing phase = startupTimer.phase( "packageStalePlugins" );
+
+                        try
+                        {
+                            staleModuleBuilder.buildStale();
+                        }
+                        finally
+                        {
+                            phase.end();
+                        }
+                    }
+
+                    for( PluginModel plugin : plugins )
+                    {
+                        String artifactId = plugin.getArtifactId();
+                        String buildDirectory = plugin.getBuildDirectory();
+                        String finalName = plugin.getFinalName();
+
+                        // need to look int a 'direct-deployed' folder.
+                        String baseDir = new File( buildDirectory + "/direct-deployed/" + finalName ).getAbsolutePath();
+
+                        if( new File( baseDir ).exists() )
+                        {
+                            final String contextPath = "/" + artifactId;
+
+                            final String buildPath = plugin.getOutputDirectory();
+//                            final String buildPath = new File( plugin.getOutputDirectory() ).getAbsolutePath();
+
+                            final Context context = createContext( container, contextPath, baseDir, buildPath );
+
+                            contexts.add( context );
+                        }
+                    }
+                }
+            }
+        }
+
+        return contexts;
+    }
+
+    /**
+     * Reads the plugin models of the modules of the plugins aggregator. Modules whose poms did not change since the
+     * last run are read from the index under {@link #configurationDir}, the others go through the project builder.
+     * <p>
+     * The builds run one after the other, the legacy {@link MavenProjectBuilder} keeps its caches in plain maps and
+     * is not safe to call from several threads.
+     *
+     * @param parentPom   the pom the plugins aggregator inherits from
+     * @param pluginsPom  the plugins aggregator pom
+     * @return the plugin models in module order
+     */
+    private List<PluginModel> buildPluginModels( File parentPom, File pluginsPom )
+        throws IOException, ProjectBuildingException
+    {
+        PluginModelIndex index = new PluginModelIndex(
+            getPluginModelIndexFile(), getActiveProfileIds(), session.getExecutionProperties(), parentPom, pluginsPom );
+
+        List<String> pluginModules = index.getModules( pluginsPom );
+
+        if( pluginModules == null )
+        {
+            MavenProject pluginsModule = projectBuilder.build( pluginsPom, new DefaultProjectBuilderConfiguration() );
+
+            pluginModules = new ArrayList<String>();
+
+            if( pluginsModule.getModules() != null )
+            {
+                for( Object pluginModule : pluginsModule.getModules() )
+                {
+                    pluginModules.add( pluginModule.toString() );
+                }
+            }
+
+            index.putModules( pluginsPom, pluginModules );
+        }
+
+        List<PluginModel> models = new ArrayList<PluginModel>();
+
+        int cached = 0;
+
+        for( String pluginModule : pluginModules )
+        {
+            File pluginPom = new File( pluginsPom.getParentFile(), pluginModule + "/pom.xml" );
+
+            PluginModel model = index.get( pluginPom );
+
+            if( model != null )
+            {
+                cached++;
+            }
+            else
+            {
+                MavenProject plugin = projectBuilder.build( pluginPom, new DefaultProjectBuilderConfiguration() );
+
+                model = new PluginModel(
+                    plugin.getArtifactId(), plugin.getBuild().getDirectory(), plugin.getBuild().getFinalName(),
+                    plugin.getBuild().getOutputDirectory() );
+
+                index.put( pluginPom, model );
+            }
+
+            models.add( model );
+        }
+
+        index.store();
+
+        getLog().info( "Read " + models.size() + " plugin models, " + cached + " from index" );
+
+        return models;
+    }
+
+    /**
+     * @return the ids of the profiles active in this build, from the project and the settings
+     */
+    private Set<String> getActiveProfileIds()
+    {
+        Set<String> ids = new HashSet<String>();
+
+        if( project.getActiveProfiles() != null )
+        {
+            for( Object profile : project.getActiveProfiles() )
+            {
+                ids.add( ( (Profile) profile ).getId() );
+            }
+        }
+
+        if( session.getSettings() != null && session.getSettings().getActiveProfiles() != null )
+        {
+            for( Object id : session.getSettings().getActiveProfiles() )
+            {
+                ids.add( id.toString() );
+            }
+        }
+
+        return ids;
+    }
+
+    private File getPluginModelIndexFile()
+    {
+        return new File( configurationDir, "plugin-models.properties" );
+    }
+
+    private Context createContext( Tomcat container, String contextPath, String baseDir, String buildOutputDirPath )
+        throws ServletException, MojoExecutionException, IOException
+    {
+        getLog().info( "create webapp with contextPath " + contextPath );
+
+        final Context context = container.addWebapp( contextPath, baseDir );
+
+        boolean watchClasses = CLASS_RELOAD_WATCH.equals( classReload );
+
+        OutputDirectoryWatcher watcher =
+            watchClasses || resourceCacheSize > 0 ? getClassesWatcher( container ) : null;
+
+        // without a watcher nothing would invalidate the cached lookups
+        final MyDirContext resources =
+            new MyDirContext( buildOutputDirPath, watcher != null ? resourceCacheSize : 0, sharedLibs, getLog() );
+
+        if( sharedLibs != null )
+        {
+            sharedLibs.scan( new File( baseDir ) );
+        }
+
+        context.setResources( resources );
+
+        if( useSeparateTomcatClassLoader )
+        {
+            context.setParentClassLoader( getTomcatClassLoader() );
+        }
+
+        if( watcher != null )
+        {
+            Runnable invalidate = null;
+
+            if( resourceCacheSize > 0 )
+            {
+                invalidate = new Runnable()
+                {
+                    public void run()
+                    {
+                        resources.invalidate();
+                    }
+                };
+
+                watcher.watch( new File( baseDir ), contextPath, false, invalidate );
+            }
+
+            watcher.watch( new File( buildOutputDirPath ), contextPath, watchClasses, invalidate );
+        }
+
+        if( watcher != null && watchClasses )
+        {
+            // reloaded by the watcher, the loader doesn't have to look for modified classes itself
+            context.setReloadable( false );
+        }
+        else
+        {
+            context.setReloadable( !CLASS_RELOAD_NONE.equals( classReload ) );
+        }
+
+        final WebappLoader loader = createWebappLoader( new File( baseDir ) );
+
+        context.setLoader( loader );
+
+        return context;
+    }
+
+    /**
+     * @return the watcher of the plugin output directories, <code>null</code> when there is no file system watch
+     *         service and the contexts have to poll for modified classes and can't cache resource lookups
+     */
+    private OutputDirectoryWatcher getClassesWatcher( final Tomcat container )
+    {
+        if( classesWatcher == null && !classesWatcherUnavailable )
+        {
+            try
+            {
+                classesWatcher = new OutputDirectoryWatcher( hotRedeployDelay, new OutputDirectoryWatcher.Listener()
+                {
+                    public void classesChanged( Set<String> contextNames, final long firstEventNanos )
+                    {
+                        for( final String contextName : contextNames )
+                        {
+                            ( (LiferayExtendedTomcat) container ).scheduleReload( contextName, 0, new Runnable()
+                            {
+                                public void run()
+                                {
+                                    // from the first change, so the quiet period and the queueing behind other
+                                    // reloads are part of it
+                                    getLog().info( "Reloaded " + contextName + " " + TimeUnit.NANOSECONDS.toMillis(
+                                        System.nanoTime() - firstEventNanos ) + " ms after its classes changed" );
+                                }
+                            } );
+                        }
+                    }
+                }, getLog() );
+            }
+            catch( IOException e )
+            {
+                getLog().warn( "No file system watch service, plugin contexts poll for modified classes " +
+                    "and don't cache resource lookups" );
+                classesWatcherUnavailable = true;
+            }
+        }
+
+        return classesWatcher;
+    }
+
+    private void addContextFromArtifact(
+        Tomcat container, List<Context> contexts, Artifact artifact, String contextPath, File contextXml,
+        boolean asWebApp, boolean unpackWar )
+        throws MojoExecutionException, MalformedURLException, ServletException, IOException
+    {
+        getLog().info( "Deploy warfile: " + String.valueOf( artifact.getFile() ) + " to contextPath: " + contextPath );
+
+        String docBase;
+
+        if( unpackWar )
+        {
+            // extracted by extractWars
+            File webapps = getWebappsDir();
+            File artifactWarDir = new File( webapps, artifact.getArtifactId() );
+
+            docBase = artifactWarDir.getAbsolutePath();
+        }
+        else
+        {
+            removeExtractedWar( artifact );
+
+            // a war docBase gets a WARDirContext, which indexes the central directory once when the context starts
+            docBase = artifact.getFile().getAbsolutePath();
+        }
+
+        boolean shareLibs = sharedLibs != null && unpackWar && !PORTAL_WEB.equals( artifact.getArtifactId() );
+
+        // WebappLoader webappLoader = new WebappLoader( Thread.currentThread().getContextClassLoader() );
+        WebappLoader webappLoader = createWebappLoader( shareLibs ? new File( docBase ) : null );
+        Context context = null;
+        if( asWebApp )
+        {
+            context = container.addWebapp( contextPath, docBase );
+        }
+        else
+        {
+            context = container.addContext( contextPath, docBase );
+        }
+        context.setLoader( webappLoader );
+
+        // the docBase is the war file, named after its version, when it is not unpacked
+        if( PORTAL_WEB.equals( artifact.getArtifactId() ) )
+        {
+            portalWebContext = context;
+        }
+
+        if( shareLibs )
+        {
+            sharedLibs.scan( new File( docBase ) );
+            context.setResources( new SharedLibDirContext( sharedLibs ) );
+        }
+
+        if( !unpackWar )
+        {
+            // otherwise ContextConfig expands the war into the appBase
+            ( (StandardContext) context ).setUnpackWAR( false );
+        }
+
+        File contextFile = contextXml != null ? contextXml : getContextFile();
+        if( contextFile != null )
+        {
+            context.setConfigFile( contextFile.toURI().toURL() );
+        }
+
+        contexts.add( context );
+        // container.getHost().addChild(context);
+    }
+
+    /**
+     * The manifests of the extracted wars are kept out of the webapps directory so they are neither served nor
+     * hot deployed.
+     */
+    private File getExtractManifestFile( Artifact artifact )
+    {
+        return new File( configurationDir, "extracted/" + artifact.getArtifactId() + ".properties" );
+    }
+
+    private File getLinkManifestFile( Artifact artifact )
+    {
+        return new File( configurationDir, "extracted/" + artifact.getArtifactId() + ".link.properties" );
+    }
+
+    /**
+     * Removes what an earlier run extracted for a war that is now served from the archive, so it isn't hot deployed
+     * a second time from the webapps directory.
+     */
+    private void removeExtractedWar( Artifact artifact ) throws IOException
+    {
+        File manifestFile = getExtractManifestFile( artifact );
+        File linkManifestFile = getLinkManifestFile( artifact );
+
+        if( manifestFile.exists() || linkManifestFile.exists() )
+        {
+            FileUtils.deleteDirectory( new File( getWebappsDir(), artifact.getArtifactId() ) );
+            manifestFile.delete();
+            linkManifestFile.delete();
+        }
+    }
+
+    /**
+     * Set the SystemProperties from the configuration.
+     */
+    private void setupSystemProperties()
+    {
+        if( systemProperties != null && !systemProperties.isEmpty() )
+        {
+            getLog().info( "setting SystemProperties:" );
+
+            for( String key : systemProperties.keySet() )
+            {
+                String value = systemProperties.get( key );
+
+                if( value != null )
+                {
+                    getLog().info( " " + key + "=" + value );
+                    System.setProperty( key, value );
+                }
+                else
+                {
+                    getLog().info( "skip sysProps " + key + " with empty value" );
+                }
+            }
+        }
+    }
+
+    /**
+     * Causes the current thread to wait indefinitely. This method does not return.
+     */
+
+    boolean keepWaiting = true;
+
+    /**
+     * Copies the specified class resource to the specified file.
+     *
+     * @param fromPath the path of the class resource to copy
+     * @param toFile   the file to copy to
+     * @throws IOException if the file could not be copied
+     */
+    private void copyFile( String fromPath, File toFile ) throws IOException
+    {
+        URL fromURL = getClass().getResource( fromPath );
+
+        if( fromURL == null )
+        {
+            throw new FileNotFoundException( fromPath );
+        }
+
+        FileUtils.copyURLToFile( fromURL, toFile );
+    }
+
+    private void initConfiguration() throws IOException, MojoExecutionException, MavenFilteringException
+    {
+        if( configurationDir.exists() )
+        {
+            getLog().info( messagesProvider.getMessage( "AbstractRunMojo.usingConfiguration", configurationDir ) );
+        }
+        else
+        {
+            getLog().info( messagesProvider.getMessage( "AbstractRunMojo.creatingConfiguration", configurationDir ) );
+
+            configurationDir.mkdirs();
+
+            File confDir = new File( configurationDir, "conf" );
+            confDir.mkdir();
+
+            if( tomcatLoggingFile != null )
+            {
+                FileUtils.copyFile( tomcatLoggingFile, new File( confDir, "logging.properties" ) );
+            }
+            else
+            {
+                copyFile( "/conf/logging.properties", new File( confDir, "logging.properties" ) );
+            }
+
+            copyFile( "/conf/tomcat-users.xml", new File( confDir, "tomcat-users.xml" ) );
+
+            if( tomcatWebXml != null )
+            {
+                if( !tomcatWebXml.exists() )
+                {
+                    throw new MojoExecutionException( " tomcatWebXml " + tomcatWebXml.getPath() + " not exists" );
+                }
+                // MTOMCAT-42 here it's a real file resources not a one coming with the mojo
+                // MTOMCAT-128 apply filtering
+                MavenFileFilterRequest mavenFileFilterRequest = new MavenFileFilterRequest();
+                mavenFileFilterRequest.setFrom( tomcatWebXml );
+                mavenFileFilterRequest.setTo( new File( confDir, "web.xml" ) );
+                mavenFileFilterRequest.setMavenProject( project );
+                mavenFileFilterRequest.setMavenSession( session );
+                mavenFileFilterRequest.setFiltering( true );
+
+                mavenFileFilter.copyFile( mavenFileFilterRequest );
+
+            }
+            else
+            {
+                copyFile( "/conf/web.xml", new File( confDir, "web.xml" ) );
+            }
+
+            File logDir = new File( configurationDir, "logs" );
+            logDir.mkdir();
+
+            File webappsDir = getWebappsDir();
+            webappsDir.mkdir();
+
+            if( additionalConfigFilesDir != null && additionalConfigFilesDir.exists() )
+            {
+                DirectoryScanner scanner = new DirectoryScanner();
+                scanner.addDefaultExcludes();
+                scanner.setBasedir( additionalConfigFilesDir.getPath() );
+                scanner.scan();
+
+                String[] files = scanner.getIncludedFiles();
+
+                if( files != null && files.length > 0 )
+                {
+                    getLog().info( "Coping additional tomcat config files" );
+
+                    for( int i = 0; i < files.length; i++ )
+                    {
+                        File file = new File( additionalConfigFilesDir, files[i] );
+
+                        getLog().info( " copy " + file.getName() );
+
+                        FileUtils.copyFileToDirectory( file, confDir );
+                    }
+                }
+            }
+        }
+    }
+
+    private List<LiferayWebapp> getLiferayPlugins()
+    {
+        if( liferayPlugins == null )
+        {
+            return Collections.emptyList();
+        }
+
+        return liferayPlugins;
+    }
+}
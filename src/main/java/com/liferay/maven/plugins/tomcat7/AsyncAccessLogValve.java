@@ -0,0 +1,287 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.valves.AccessLogValve;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * An {@link AccessLogValve} that does not write on the request thread. Entries go to a bounded {@link RingBuffer}
+ * and a background thread writes them in batches, flushing once per batch, so request threads neither wait for the
+ * file nor contend for the lock of the writer.
+ * <p>
+ * The request is recycled once it completes, so each entry is still rendered from the pattern on the request thread.
+ * What happens when the buffer is full is up to the {@link #setOverflowPolicy(String) overflow policy}.
+ */
+public class AsyncAccessLogValve extends AccessLogValve
+{
+
+    /**
+     * Drop the entry and count it.
+     */
+    public static final String OVERFLOW_DROP = "drop";
+
+    /**
+     * Wait for the writer to make room.
+     */
+    public static final String OVERFLOW_BLOCK = "block";
+
+    /**
+     * Write the entry on the request thread, like the plain valve.
+     */
+    public static final String OVERFLOW_WRITE = "write";
+
+    private static final Log log = LogFactory.getLog( AsyncAccessLogValve.class );
+
+    private static final int BATCH_SIZE = 512;
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos( 10 );
+
+    private int bufferSize = 8192;
+
+    private String overflowPolicy = OVERFLOW_DROP;
+
+    private final AtomicLong droppedEntries = new AtomicLong();
+
+    private volatile RingBuffer<String> buffer;
+
+    private volatile boolean running;
+
+    private Thread writer;
+
+    public AsyncAccessLogValve()
+    {
+        // flushed by the writer after each batch
+        setBuffered( true );
+    }
+
+    public void setBufferSize( int bufferSize )
+    {
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @param overflowPolicy {@link #OVERFLOW_DROP}, {@link #OVERFLOW_BLOCK} or {@link #OVERFLOW_WRITE}
+     */
+    public void setOverflowPolicy( String overflowPolicy )
+    {
+        if( !OVERFLOW_DROP.equals( overflowPolicy ) && !OVERFLOW_BLOCK.equals( overflowPolicy ) &&
+            !OVERFLOW_WRITE.equals( overflowPolicy ) )
+        {
+            throw new IllegalArgumentException( "Unknown access log overflow policy " + overflowPolicy );
+        }
+
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    /**
+     * @return the number of entries dropped because the buffer was full
+     */
+    public long getDroppedEntries()
+    {
+        return droppedEntries.get();
+    }
+
+    @Override
+    public void log( String message )
+    {
+        RingBuffer<String> current = buffer;
+
+        if( current == null || !running )
+        {
+            super.log( message );
+            return;
+        }
+
+        if( !current.offer( message ) )
+        {
+            if( OVERFLOW_WRITE.equals( overflowPolicy ) )
+            {
+                super.log( message );
+                return;
+            }
+
+            if( !OVERFLOW_BLOCK.equals( overflowPolicy ) )
+            {
+                droppedEntries.incrementAndGet();
+                return;
+            }
+
+            while( !current.offer( message ) )
+            {
+                if( !running )
+                {
+                    super.log( message );
+                    return;
+                }
+
+                LockSupport.parkNanos( TimeUnit.MICROSECONDS.toNanos( 100 ) );
+            }
+        }
+
+        if( !running || buffer != current )
+        {
+            // the valve stopped meanwhile, its last drain may have run before the entry was in the buffer
+            writeRemaining( current );
+        }
+    }
+
+    @Override
+    protected synchronized void startInternal() throws LifecycleException
+    {
+        super.startInternal();
+
+        stopWriter();
+
+        final RingBuffer<String> current = new RingBuffer<String>( bufferSize );
+
+        buffer = current;
+        running = true;
+
+        writer = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                writeEntries( current );
+            }
+        }, "liferay-access-log" );
+
+        writer.setDaemon( true );
+        writer.start();
+    }
+
+    @Override
+    protected synchronized void stopInternal() throws LifecycleException
+    {
+        stopWriter();
+
+        if( buffer != null )
+        {
+            writeRemaining( buffer );
+
+            if( droppedEntries.get() > 0 )
+            {
+                log.warn( "Dropped " + droppedEntries.get() + " access log entries because the buffer of " +
+                    buffer.capacity() + " entries was full" );
+            }
+
+            buffer = null;
+        }
+
+        super.stopInternal();
+    }
+
+    /**
+     * Stops the writer thread and waits for it to end. The lock of the valve is released meanwhile, the writer needs
+     * it to finish its batch.
+     */
+    private synchronized void stopWriter()
+    {
+        running = false;
+
+        if( writer == null )
+        {
+            return;
+        }
+
+        LockSupport.unpark( writer );
+
+        try
+        {
+            while( writer.isAlive() )
+            {
+                wait( TimeUnit.NANOSECONDS.toMillis( IDLE_PARK_NANOS ) );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            // it still ends on its own, and never drains at the same time as this thread as both hold the lock
+            Thread.currentThread().interrupt();
+        }
+
+        writer = null;
+    }
+
+    /**
+     * Writes what is left in the buffer on the calling thread.
+     */
+    private synchronized void writeRemaining( RingBuffer<String> current )
+    {
+        List<String> batch = new ArrayList<String>( BATCH_SIZE );
+
+        while( writeBatch( current, batch ) > 0 )
+        {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Runs on the writer thread until the valve stops.
+     */
+    private void writeEntries( RingBuffer<String> current )
+    {
+        List<String> batch = new ArrayList<String>( BATCH_SIZE );
+        long reportedDrops = 0;
+
+        while( true )
+        {
+            int written;
+
+            synchronized( this )
+            {
+                if( !running )
+                {
+                    // what is left is written by stopInternal
+                    return;
+                }
+
+                batch.clear();
+                written = writeBatch( current, batch );
+            }
+
+            if( written == 0 )
+            {
+                LockSupport.parkNanos( IDLE_PARK_NANOS );
+                continue;
+            }
+
+            long drops = droppedEntries.get();
+
+            if( drops > reportedDrops )
+            {
+                log.warn( "Dropped " + ( drops - reportedDrops ) + " access log entries, the buffer is full" );
+                reportedDrops = drops;
+            }
+        }
+    }
+
+    /**
+     * Writes the next batch and flushes, only to be called while holding the lock of the valve, which makes the
+     * caller the only consumer of the buffer.
+     *
+     * @return the number of entries written
+     */
+    private int writeBatch( RingBuffer<String> current, List<String> batch )
+    {
+        int drained = current.drainTo( batch, BATCH_SIZE );
+
+        for( String message : batch )
+        {
+            super.log( message );
+        }
+
+        if( drained > 0 )
+        {
+            // flushes the buffered writer
+            backgroundProcess();
+        }
+
+        return drained;
+    }
+}
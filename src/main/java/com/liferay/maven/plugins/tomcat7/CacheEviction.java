@@ -0,0 +1,250 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Age based eviction for the cache directories shared by all runs and projects. An entry of such a cache is a
+ * directory at a fixed depth below the cache directory whose modification time is set whenever a run uses it, the
+ * entries not used for the maximum age are deleted. A cache directory is checked at most once a day.
+ * <p>
+ * An entry a run reads from for longer, such as to link files from it, is {@link #lock(File) locked} meanwhile with a
+ * shared lock on a file next to it. Eviction deletes an entry only while holding an exclusive lock on that file, and
+ * skips it when another run holds the lock.
+ */
+final class CacheEviction
+{
+
+    private static final String MARKER_FILE = ".last-eviction";
+
+    private static final long INTERVAL_MILLIS = TimeUnit.DAYS.toMillis( 1 );
+
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /**
+     * The entries this JVM locked, by lock file: a JVM can't lock a file it holds a lock on again.
+     */
+    private static final Map<File, EntryLock> LOCKS = new HashMap<File, EntryLock>();
+
+    private CacheEviction()
+    {
+    }
+
+    /**
+     * Marks an entry as used.
+     */
+    static void touch( File entry )
+    {
+        entry.setLastModified( System.currentTimeMillis() );
+    }
+
+    /**
+     * Keeps an entry from being evicted until the lock is {@link EntryLock#release() released}, waits while the entry
+     * is being evicted. The entry may not exist yet.
+     */
+    static EntryLock lock( File entry ) throws IOException
+    {
+        File lockFile = new File( entry.getPath() + LOCK_SUFFIX );
+
+        synchronized( LOCKS )
+        {
+            EntryLock lock = LOCKS.get( lockFile );
+
+            if( lock == null )
+            {
+                lockFile.getParentFile().mkdirs();
+
+                lock = new EntryLock( lockFile );
+                LOCKS.put( lockFile, lock );
+            }
+
+            lock.users++;
+
+            return lock;
+        }
+    }
+
+    /**
+     * Deletes the entries not used for <code>maxAgeDays</code>, unless the cache directory was checked less than a
+     * day ago. Directories left empty are deleted as well.
+     *
+     * @param depth      how many directories below the cache directory the entries are, <code>1</code> for its
+     *                   children
+     * @param maxAgeDays <code>0</code> to keep every entry
+     * @return the number of entries deleted
+     */
+    static int evict( File cacheDir, int depth, int maxAgeDays ) throws IOException
+    {
+        if( maxAgeDays <= 0 || !cacheDir.isDirectory() )
+        {
+            return 0;
+        }
+
+        File marker = new File( cacheDir, MARKER_FILE );
+        long now = System.currentTimeMillis();
+
+        if( marker.isFile() && now - marker.lastModified() < INTERVAL_MILLIS )
+        {
+            return 0;
+        }
+
+        // claimed before walking the cache, so runs starting at the same time don't all walk it
+        if( !marker.createNewFile() )
+        {
+            marker.setLastModified( now );
+        }
+
+        return evict( cacheDir, depth, now - TimeUnit.DAYS.toMillis( maxAgeDays ) );
+    }
+
+    private static int evict( File dir, int depth, long usedBefore ) throws IOException
+    {
+        File[] children = dir.listFiles();
+
+        if( children == null )
+        {
+            return 0;
+        }
+
+        int evicted = 0;
+
+        for( File child : children )
+        {
+            if( !child.isDirectory() )
+            {
+                continue;
+            }
+
+            if( depth > 1 )
+            {
+                evicted += evict( child, depth - 1, usedBefore );
+
+                String[] left = child.list();
+
+                if( left != null && left.length == 0 )
+                {
+                    child.delete();
+                }
+            }
+            else if( child.lastModified() < usedBefore && deleteUnlocked( child, usedBefore ) )
+            {
+                evicted++;
+            }
+        }
+
+        return evicted;
+    }
+
+    /**
+     * @return <code>false</code> when the entry is locked or was used while waiting for the lock
+     */
+    private static boolean deleteUnlocked( File entry, long usedBefore ) throws IOException
+    {
+        File lockFile = new File( entry.getPath() + LOCK_SUFFIX );
+
+        synchronized( LOCKS )
+        {
+            if( LOCKS.containsKey( lockFile ) )
+            {
+                return false;
+            }
+
+            RandomAccessFile file = new RandomAccessFile( lockFile, "rw" );
+
+            try
+            {
+                FileLock lock = file.getChannel().tryLock();
+
+                if( lock == null )
+                {
+                    // in use by another run
+                    return false;
+                }
+
+                try
+                {
+                    if( entry.lastModified() >= usedBefore )
+                    {
+                        return false;
+                    }
+
+                    FileUtils.deleteDirectory( entry );
+                }
+                finally
+                {
+                    lock.release();
+                }
+            }
+            finally
+            {
+                file.close();
+            }
+
+            // a run waiting for the old lock file finds the entry gone and fills it again
+            lockFile.delete();
+
+            return true;
+        }
+    }
+
+    /**
+     * A shared lock on an entry, held once per JVM however many threads lock the entry.
+     */
+    static final class EntryLock
+    {
+
+        private final File lockFile;
+
+        private final FileChannel channel;
+
+        private final FileLock lock;
+
+        private int users;
+
+        private EntryLock( File lockFile ) throws IOException
+        {
+            this.lockFile = lockFile;
+            this.channel = new RandomAccessFile( lockFile, "rw" ).getChannel();
+
+            try
+            {
+                this.lock = channel.lock( 0, Long.MAX_VALUE, true );
+            }
+            catch( IOException e )
+            {
+                channel.close();
+                throw e;
+            }
+        }
+
+        void release() throws IOException
+        {
+            synchronized( LOCKS )
+            {
+                if( --users > 0 )
+                {
+                    return;
+                }
+
+                LOCKS.remove( lockFile );
+
+                try
+                {
+                    lock.release();
+                }
+                finally
+                {
+                    channel.close();
+                }
+            }
+        }
+    }
+}
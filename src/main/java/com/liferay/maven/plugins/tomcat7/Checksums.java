@@ -0,0 +1,125 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-1 helpers used to key the caches kept under the configuration directory.
+ */
+final class Checksums
+{
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Checksums()
+    {
+    }
+
+    static String sha1( File file ) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        update( digest, file );
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * @return one checksum over the content of all given files, missing files count as empty
+     */
+    static String sha1( File... files ) throws IOException
+    {
+        MessageDigest digest = newDigest();
+
+        for( File file : files )
+        {
+            if( file != null && file.isFile() )
+            {
+                update( digest, file );
+            }
+
+            digest.update( (byte) 0 );
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    /**
+     * @return the checksum of the rest of the stream, which is left open
+     */
+    static String sha1( InputStream in ) throws IOException
+    {
+        MessageDigest digest = newDigest();
+        update( digest, in );
+        return toHex( digest.digest() );
+    }
+
+    static String sha1( String value )
+    {
+        MessageDigest digest = newDigest();
+
+        try
+        {
+            digest.update( value.getBytes( "UTF-8" ) );
+        }
+        catch( UnsupportedEncodingException e )
+        {
+            throw new IllegalStateException( e );
+        }
+
+        return toHex( digest.digest() );
+    }
+
+    static MessageDigest newDigest()
+    {
+        try
+        {
+            return MessageDigest.getInstance( "SHA-1" );
+        }
+        catch( NoSuchAlgorithmException e )
+        {
+            throw new IllegalStateException( e );
+        }
+    }
+
+    static String toHex( byte[] bytes )
+    {
+        char[] chars = new char[bytes.length * 2];
+
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            chars[i * 2] = HEX[( bytes[i] >> 4 ) & 0xf];
+            chars[i * 2 + 1] = HEX[bytes[i] & 0xf];
+        }
+
+        return new String( chars );
+    }
+
+    private static void update( MessageDigest digest, File file ) throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+
+        try
+        {
+            update( digest, in );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void update( MessageDigest digest, InputStream in ) throws IOException
+    {
+        byte[] buffer = new byte[8192];
+        int read;
+
+        while( ( read = in.read( buffer ) ) != -1 )
+        {
+            digest.update( buffer, 0, read );
+        }
+    }
+}
@@ -0,0 +1,326 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Server;
+import org.apache.catalina.Service;
+import org.apache.catalina.connector.Connector;
+import org.apache.catalina.core.StandardThreadExecutor;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * The request processing threads of the connectors, one of these profiles:
+ * <ul>
+ * <li>{@link #PROFILE_NONE} - each connector has its own pool of at most <code>maxThreads</code> threads</li>
+ * <li>{@link #PROFILE_SHARED} - all connectors share one bounded {@link StandardThreadExecutor}</li>
+ * <li>{@link #PROFILE_VIRTUAL} - every request is processed on a new virtual thread, on JDKs that have them</li>
+ * </ul>
+ * The usage of the pools is logged when the server stops, or when the JVM exits without stopping it.
+ */
+class ConnectorExecutors
+{
+
+    static final String PROFILE_NONE = "none";
+
+    static final String PROFILE_SHARED = "shared";
+
+    static final String PROFILE_VIRTUAL = "virtual";
+
+    private final String profile;
+
+    private final int maxThreads;
+
+    private final int minSpareThreads;
+
+    private final int maxQueueSize;
+
+    private final Log log;
+
+    private final List<Connector> connectors = new ArrayList<Connector>();
+
+    private final AtomicBoolean reported = new AtomicBoolean();
+
+    private Executor executor;
+
+    /**
+     * @param maxQueueSize how many requests wait for a thread of the shared executor at most
+     */
+    ConnectorExecutors( String profile, int maxThreads, int minSpareThreads, int maxQueueSize, Log log )
+        throws MojoExecutionException
+    {
+        if( !PROFILE_NONE.equals( profile ) && !PROFILE_SHARED.equals( profile ) && !PROFILE_VIRTUAL.equals( profile ) )
+        {
+            throw new MojoExecutionException( "Unknown connector executor " + profile + ", use " + PROFILE_NONE +
+                ", " + PROFILE_SHARED + " or " + PROFILE_VIRTUAL );
+        }
+
+        this.profile = profile;
+        this.maxThreads = maxThreads;
+        this.minSpareThreads = minSpareThreads;
+        this.maxQueueSize = maxQueueSize;
+        this.log = log;
+    }
+
+    /**
+     * @param protocol a short name, or whatever the connector takes
+     * @return the protocol handler class of a short name, the protocol otherwise
+     */
+    static String resolveProtocol( String protocol ) throws MojoExecutionException
+    {
+        if( "bio".equals( protocol ) )
+        {
+            return "org.apache.coyote.http11.Http11Protocol";
+        }
+
+        if( "nio".equals( protocol ) )
+        {
+            return "org.apache.coyote.http11.Http11NioProtocol";
+        }
+
+        if( "apr".equals( protocol ) )
+        {
+            return "org.apache.coyote.http11.Http11AprProtocol";
+        }
+
+        if( "nio2".equals( protocol ) )
+        {
+            String nio2Protocol = "org.apache.coyote.http11.Http11Nio2Protocol";
+
+            try
+            {
+                Class.forName( nio2Protocol, false, ConnectorExecutors.class.getClassLoader() );
+            }
+            catch( ClassNotFoundException e )
+            {
+                throw new MojoExecutionException( "The NIO2 connector needs Tomcat 8 or later, use nio instead" );
+            }
+
+            return nio2Protocol;
+        }
+
+        return protocol;
+    }
+
+    /**
+     * Creates the executor of the profile, a shared executor is added to the service, which starts and stops it.
+     */
+    void install( Server server, Service service )
+    {
+        if( PROFILE_VIRTUAL.equals( profile ) )
+        {
+            ExecutorService virtualThreads = newVirtualThreadPerTaskExecutor();
+
+            if( virtualThreads != null )
+            {
+                executor = new CountingExecutor( virtualThreads );
+            }
+            else
+            {
+                log.warn( "This JDK has no virtual threads, connectors use a shared thread pool instead" );
+            }
+        }
+
+        if( executor == null && !PROFILE_NONE.equals( profile ) )
+        {
+            StandardThreadExecutor threadExecutor = new StandardThreadExecutor();
+            threadExecutor.setName( "liferay-connector-executor" );
+            threadExecutor.setNamePrefix( "liferay-exec-" );
+            threadExecutor.setMaxThreads( maxThreads );
+            threadExecutor.setMinSpareThreads( minSpareThreads );
+            threadExecutor.setMaxQueueSize( maxQueueSize );
+
+            service.addExecutor( threadExecutor );
+            executor = threadExecutor;
+        }
+
+        server.addLifecycleListener( new LifecycleListener()
+        {
+            public void lifecycleEvent( LifecycleEvent event )
+            {
+                if( Lifecycle.BEFORE_STOP_EVENT.equals( event.getType() ) )
+                {
+                    report();
+                }
+                else if( Lifecycle.AFTER_STOP_EVENT.equals( event.getType() ) && executor instanceof CountingExecutor )
+                {
+                    ( (CountingExecutor) executor ).delegate.shutdown();
+                }
+            }
+        } );
+
+        Runtime.getRuntime().addShutdownHook( new Thread( "liferay-connector-report" )
+        {
+            @Override
+            public void run()
+            {
+                report();
+            }
+        } );
+    }
+
+    /**
+     * Makes the connector use the executor of the profile, or sizes its own pool.
+     */
+    void configure( Connector connector )
+    {
+        if( executor != null )
+        {
+            ProtocolHandler protocolHandler = connector.getProtocolHandler();
+
+            if( protocolHandler instanceof AbstractProtocol )
+            {
+                ( (AbstractProtocol) protocolHandler ).setExecutor( executor );
+            }
+            else
+            {
+                log.warn( "Can't set the executor of " + protocolHandler.getClass().getName() );
+            }
+        }
+        else
+        {
+            connector.setAttribute( "maxThreads", maxThreads );
+            connector.setAttribute( "minSpareThreads", minSpareThreads );
+        }
+
+        connectors.add( connector );
+    }
+
+    /**
+     * Logs the usage of the pools, once.
+     */
+    void report()
+    {
+        if( !reported.compareAndSet( false, true ) )
+        {
+            return;
+        }
+
+        if( executor != null )
+        {
+            log.info( "Connector executor " + profile + ": " + describe( executor ) );
+            return;
+        }
+
+        for( Connector connector : connectors )
+        {
+            log.info( "Connector on port " + connector.getPort() + ": " +
+                describe( connector.getProtocolHandler().getExecutor() ) );
+        }
+    }
+
+    private String describe( Executor pool )
+    {
+        if( pool instanceof StandardThreadExecutor )
+        {
+            StandardThreadExecutor threadExecutor = (StandardThreadExecutor) pool;
+
+            return "peak " + threadExecutor.getLargestPoolSize() + " of " + threadExecutor.getMaxThreads() +
+                " threads, " + threadExecutor.getActiveCount() + " active, " + threadExecutor.getPoolSize() +
+                " in pool, " + threadExecutor.getCompletedTaskCount() + " requests completed, " +
+                threadExecutor.getQueueSize() + " queued";
+        }
+
+        if( pool instanceof ThreadPoolExecutor )
+        {
+            ThreadPoolExecutor threadPool = (ThreadPoolExecutor) pool;
+
+            return "peak " + threadPool.getLargestPoolSize() + " of " + threadPool.getMaximumPoolSize() +
+                " threads, " + threadPool.getActiveCount() + " active, " + threadPool.getPoolSize() + " in pool, " +
+                threadPool.getCompletedTaskCount() + " requests completed, " + threadPool.getQueue().size() +
+                " queued";
+        }
+
+        if( pool instanceof CountingExecutor )
+        {
+            CountingExecutor counting = (CountingExecutor) pool;
+
+            return "peak " + counting.peak.get() + " concurrent virtual threads, " + counting.active.get() +
+                " active, " + counting.completed.get() + " requests completed";
+        }
+
+        return pool == null ? "no executor" : "no statistics for " + pool.getClass().getName();
+    }
+
+    /**
+     * @return <code>null</code> when the JDK has no virtual threads
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor()
+    {
+        try
+        {
+            Method factory = java.util.concurrent.Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" );
+
+            return (ExecutorService) factory.invoke( null );
+        }
+        catch( NoSuchMethodException e )
+        {
+            return null;
+        }
+        catch( Exception e )
+        {
+            // e.g. a preview feature that is not enabled
+            return null;
+        }
+    }
+
+    /**
+     * Counts the tasks of an executor that has no statistics of its own.
+     */
+    private static class CountingExecutor implements Executor
+    {
+
+        private final ExecutorService delegate;
+
+        private final AtomicInteger active = new AtomicInteger();
+
+        private final AtomicInteger peak = new AtomicInteger();
+
+        private final AtomicLong completed = new AtomicLong();
+
+        CountingExecutor( ExecutorService delegate )
+        {
+            this.delegate = delegate;
+        }
+
+        public void execute( final Runnable command )
+        {
+            delegate.execute( new Runnable()
+            {
+                public void run()
+                {
+                    int running = active.incrementAndGet();
+                    int currentPeak;
+
+                    while( running > ( currentPeak = peak.get() ) && !peak.compareAndSet( currentPeak, running ) )
+                    {
+                        // retry
+                    }
+
+                    try
+                    {
+                        command.run();
+                    }
+                    finally
+                    {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                }
+            } );
+        }
+    }
+}
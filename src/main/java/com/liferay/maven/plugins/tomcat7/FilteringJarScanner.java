@@ -0,0 +1,310 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import javax.servlet.ServletContext;
+
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+import org.apache.tomcat.JarScanner;
+import org.apache.tomcat.JarScannerCallback;
+import org.apache.tomcat.util.scan.Constants;
+import org.apache.tomcat.util.scan.StandardJarScanner;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * A {@link JarScanner} that narrows down the jars Tomcat scans for web fragments, annotations and TLDs when a context
+ * starts, by adding jar names to the names to skip before handing the scan to a {@link StandardJarScanner}:
+ * <ul>
+ * <li>jars matching an exclude pattern, or matching no include pattern when there are any</li>
+ * <li>with a {@link JarScanCache}, jars the cache knows contribute nothing to the scan. Jars are not skipped from
+ * the web fragment scan of webapps with a <code>ServletContainerInitializer</code>, whose <code>@HandlesTypes</code>
+ * may match any class.</li>
+ * </ul>
+ * Names to skip are file names, so a jar is only skipped by the cache when no other jar of the same name is
+ * scanned. The cache is only used for the scans of Tomcat it knows, see {@link #getKind(String)}: the context's
+ * scanner is also handed to Jasper through the servlet context.
+ */
+class FilteringJarScanner implements JarScanner
+{
+
+    private static final Log log = LogFactory.getLog( FilteringJarScanner.class );
+
+    private static final String INITIALIZER_SERVICE = "META-INF/services/javax.servlet.ServletContainerInitializer";
+
+    private static final String TLD_CONFIG_CALLBACK = "org.apache.catalina.startup.TldConfig$TldJarScannerCallback";
+
+    private static final String TLD_LOCATIONS_CALLBACK =
+        "org.apache.jasper.compiler.TldLocationsCache$TldJarScannerCallback";
+
+    private static final String FRAGMENT_CALLBACK =
+        "org.apache.catalina.startup.ContextConfig$FragmentJarScannerCallback";
+
+    private final JarScanner delegate = new StandardJarScanner();
+
+    private final List<String> includes;
+
+    private final List<String> excludes;
+
+    private final JarScanCache cache;
+
+    /**
+     * @param includes jar name patterns, like <code>portal-*.jar</code>, may be <code>null</code> to scan all jars
+     * @param excludes jar name patterns, may be <code>null</code>
+     * @param cache may be <code>null</code>
+     */
+    FilteringJarScanner( List<String> includes, List<String> excludes, JarScanCache cache )
+    {
+        this.includes = includes != null ? includes : Collections.<String>emptyList();
+        this.excludes = excludes != null ? excludes : Collections.<String>emptyList();
+        this.cache = cache;
+    }
+
+    public void scan( ServletContext context, ClassLoader classloader, JarScannerCallback callback,
+                      Set<String> jarsToSkip )
+    {
+        Set<String> skip = new HashSet<String>( jarsToSkip != null ? jarsToSkip : getDefaultJarsToSkip() );
+        skip.addAll( excludes );
+
+        String kind = getKind( callback.getClass().getName() );
+        boolean useCache = cache != null && kind != null &&
+            ( JarScanCache.TLD.equals( kind ) || !hasInitializers( classloader ) );
+
+        Map<String, List<URL>> jars = getJars( context, classloader );
+        int skipped = 0;
+
+        for( Map.Entry<String, List<URL>> jar : jars.entrySet() )
+        {
+            String name = jar.getKey();
+
+            if( matches( skip, name ) )
+            {
+                skipped++;
+            }
+            else if( !includes.isEmpty() && !matches( includes, name ) )
+            {
+                skip.add( name );
+                skipped++;
+            }
+            else if( useCache && !contributes( jar.getValue(), kind ) )
+            {
+                skip.add( name );
+                skipped++;
+            }
+        }
+
+        if( log.isDebugEnabled() )
+        {
+            log.debug( "Scanning " + ( jars.size() - skipped ) + " of " + jars.size() + " jars for " +
+                ( kind != null ? kind : callback.getClass().getName() ) + " in " + context.getContextPath() );
+        }
+
+        delegate.scan( context, classloader, callback, skip );
+
+        if( cache != null )
+        {
+            try
+            {
+                cache.store();
+            }
+            catch( IOException e )
+            {
+                log.warn( "Could not store the jar scan cache", e );
+            }
+        }
+    }
+
+    /**
+     * @param callbackClass the class of the callback a scan reports the jars to
+     * @return what the scan looks for: {@link JarScanCache#TLD} for the TLD scans of {@link
+     *         org.apache.catalina.startup.TldConfig} and of Jasper's <code>TldLocationsCache</code>, {@link
+     *         JarScanCache#FRAGMENT} for the web fragment scan of {@link org.apache.catalina.startup.ContextConfig},
+     *         <code>null</code> for any other scan, which must see every jar
+     */
+    static String getKind( String callbackClass )
+    {
+        if( TLD_CONFIG_CALLBACK.equals( callbackClass ) || TLD_LOCATIONS_CALLBACK.equals( callbackClass ) )
+        {
+            return JarScanCache.TLD;
+        }
+
+        if( FRAGMENT_CALLBACK.equals( callbackClass ) )
+        {
+            return JarScanCache.FRAGMENT;
+        }
+
+        return null;
+    }
+
+    /**
+     * @return whether any of the jars contributes, jars that can't be read do
+     */
+    private boolean contributes( List<URL> jars, String kind )
+    {
+        for( URL jar : jars )
+        {
+            try
+            {
+                if( cache.contributes( jar, kind ) )
+                {
+                    return true;
+                }
+            }
+            catch( IOException e )
+            {
+                log.debug( "Could not read " + jar + ": " + e );
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the jars the delegate may scan, by file name: those of <code>WEB-INF/lib</code> and of the class
+     *         loaders above the webapp class loader
+     */
+    private static Map<String, List<URL>> getJars( ServletContext context, ClassLoader classloader )
+    {
+        Map<String, List<URL>> jars = new HashMap<String, List<URL>>();
+        Set<String> libs = context.getResourcePaths( "/WEB-INF/lib/" );
+
+        if( libs != null )
+        {
+            for( String lib : libs )
+            {
+                if( lib.endsWith( ".jar" ) )
+                {
+                    URL url = getLibUrl( context, lib );
+
+                    if( url != null )
+                    {
+                        add( jars, lib.substring( lib.lastIndexOf( '/' ) + 1 ), url );
+                    }
+                }
+            }
+        }
+
+        Set<ClassLoader> loaders = new HashSet<ClassLoader>();
+        addLoaders( loaders, classloader != null ? classloader.getParent() : null );
+        addLoaders( loaders, Thread.currentThread().getContextClassLoader() );
+
+        for( ClassLoader loader : loaders )
+        {
+            if( loader instanceof URLClassLoader && loader != classloader )
+            {
+                for( URL url : ( (URLClassLoader) loader ).getURLs() )
+                {
+                    String path = url.getPath();
+
+                    if( path.endsWith( ".jar" ) )
+                    {
+                        add( jars, path.substring( path.lastIndexOf( '/' ) + 1 ), url );
+                    }
+                }
+            }
+        }
+
+        return jars;
+    }
+
+    /**
+     * @return the file of the jar when there is one, it is cheaper to check
+     */
+    private static URL getLibUrl( ServletContext context, String lib )
+    {
+        try
+        {
+            String realPath = context.getRealPath( lib );
+
+            if( realPath != null && new File( realPath ).isFile() )
+            {
+                return new File( realPath ).toURI().toURL();
+            }
+
+            return context.getResource( lib );
+        }
+        catch( MalformedURLException e )
+        {
+            return null;
+        }
+    }
+
+    private static void addLoaders( Set<ClassLoader> loaders, ClassLoader loader )
+    {
+        for( ; loader != null; loader = loader.getParent() )
+        {
+            loaders.add( loader );
+        }
+    }
+
+    private static void add( Map<String, List<URL>> jars, String name, URL url )
+    {
+        List<URL> urls = jars.get( name );
+
+        if( urls == null )
+        {
+            urls = new ArrayList<URL>();
+            jars.put( name, urls );
+        }
+
+        urls.add( url );
+    }
+
+    private static boolean hasInitializers( ClassLoader classloader )
+    {
+        try
+        {
+            return classloader != null && classloader.getResources( INITIALIZER_SERVICE ).hasMoreElements();
+        }
+        catch( IOException e )
+        {
+            return true;
+        }
+    }
+
+    private static boolean matches( Iterable<String> patterns, String name )
+    {
+        for( String pattern : patterns )
+        {
+            if( SelectorUtils.match( pattern, name ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return what {@link StandardJarScanner} skips when given no names
+     */
+    private static Set<String> getDefaultJarsToSkip()
+    {
+        Set<String> names = new HashSet<String>();
+        String jarList = System.getProperty( Constants.SKIP_JARS_PROPERTY );
+
+        if( jarList != null )
+        {
+            StringTokenizer tokenizer = new StringTokenizer( jarList, "," );
+
+            while( tokenizer.hasMoreElements() )
+            {
+                names.add( tokenizer.nextToken().trim() );
+            }
+        }
+
+        return names;
+    }
+}
@@ -0,0 +1,213 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Holds back webapps that appear in the webapps directory until they are completely written, then deploys each of
+ * them exactly once.
+ * <p>
+ * A webapp counts as complete once its content did not change for the stable time, every change to it postpones the
+ * check. When a marker file name is configured, it is complete once that file exists inside it instead, which is
+ * checked whenever the webapp changes. A webapp whose deployment failed is deployed again on its next change.
+ */
+class HotDeployStager
+{
+
+    private final long stableTimeMillis;
+
+    private final String markerFile;
+
+    private final Deployer deployer;
+
+    private final Log log;
+
+    private final Set<String> deployed = new HashSet<String>();
+
+    private final Map<String, ScheduledFuture<?>> pending = new HashMap<String, ScheduledFuture<?>>();
+
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * @param deployedNames names of the webapps that are already deployed
+     * @param markerFile    name of the file that marks a webapp as complete, <code>null</code> to wait for it to be
+     *                      stable instead
+     */
+    HotDeployStager( Set<String> deployedNames, long stableTimeMillis, String markerFile, Deployer deployer, Log log )
+    {
+        this.deployed.addAll( deployedNames );
+        this.stableTimeMillis = stableTimeMillis;
+        this.markerFile = markerFile;
+        this.deployer = deployer;
+        this.log = log;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+        {
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "liferay-hot-deploy" );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * A webapp appeared in the webapps directory.
+     */
+    synchronized void created( File webapp, long firstEventNanos )
+    {
+        if( deployed.contains( webapp.getName() ) )
+        {
+            return;
+        }
+
+        schedule( webapp, firstEventNanos );
+    }
+
+    /**
+     * A webapp changed.
+     *
+     * @return <code>true</code> when it is still waiting to be deployed, <code>false</code> when it is deployed
+     */
+    synchronized boolean modified( File webapp, long firstEventNanos )
+    {
+        if( deployed.contains( webapp.getName() ) )
+        {
+            return false;
+        }
+
+        schedule( webapp, firstEventNanos );
+
+        return true;
+    }
+
+    /**
+     * A webapp was removed.
+     *
+     * @return <code>true</code> when it was deployed
+     */
+    synchronized boolean deleted( File webapp )
+    {
+        cancel( webapp.getName() );
+
+        return deployed.remove( webapp.getName() );
+    }
+
+    /**
+     * Drops the pending webapps, a check that is already running still deploys.
+     */
+    synchronized void stop()
+    {
+        for( String name : new HashSet<String>( pending.keySet() ) )
+        {
+            cancel( name );
+        }
+
+        scheduler.shutdown();
+    }
+
+    private void schedule( final File webapp, final long firstEventNanos )
+    {
+        cancel( webapp.getName() );
+
+        if( scheduler.isShutdown() )
+        {
+            return;
+        }
+
+        final long fingerprint;
+        long delayMillis;
+
+        if( markerFile != null )
+        {
+            // creating the marker changes the webapp as well
+            if( !new File( webapp, markerFile ).exists() )
+            {
+                log.debug( "Waiting for " + markerFile + " in " + webapp );
+                return;
+            }
+
+            fingerprint = 0;
+            delayMillis = 0;
+        }
+        else
+        {
+            fingerprint = WebappsWatcher.fingerprint( webapp );
+            delayMillis = stableTimeMillis;
+        }
+
+        pending.put( webapp.getName(), scheduler.schedule( new Runnable()
+        {
+            public void run()
+            {
+                check( webapp, fingerprint, firstEventNanos );
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS ) );
+    }
+
+    private void check( File webapp, long fingerprint, long firstEventNanos )
+    {
+        synchronized( this )
+        {
+            if( !webapp.exists() || deployed.contains( webapp.getName() ) )
+            {
+                pending.remove( webapp.getName() );
+                return;
+            }
+
+            if( markerFile == null && fingerprint != WebappsWatcher.fingerprint( webapp ) )
+            {
+                log.debug( "Waiting for " + webapp + " to be completely written" );
+                schedule( webapp, firstEventNanos );
+                return;
+            }
+
+            pending.remove( webapp.getName() );
+        }
+
+        // checks run one at a time on the scheduler thread, a change during the deployment is checked after it
+        try
+        {
+            deployer.deploy( webapp, firstEventNanos );
+        }
+        catch( Exception e )
+        {
+            log.error( "Failed to deploy " + webapp, e );
+            return;
+        }
+
+        synchronized( this )
+        {
+            if( webapp.exists() )
+            {
+                deployed.add( webapp.getName() );
+            }
+        }
+    }
+
+    private void cancel( String name )
+    {
+        ScheduledFuture<?> check = pending.remove( name );
+
+        if( check != null )
+        {
+            check.cancel( false );
+        }
+    }
+
+    interface Deployer
+    {
+
+        void deploy( File webapp, long firstEventNanos ) throws Exception;
+    }
+}
@@ -0,0 +1,370 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts a war into a directory and keeps a manifest of the archive checksum and the CRC of every entry,
+ * so the next extraction of a changed archive only rewrites the entries that changed and deletes the ones
+ * that are gone.
+ * <p>
+ * The central directory is read once, the entries to write are then inflated and written through file
+ * channels, on the given executor when there is one. {@link ZipFile} can be read by several threads at once.
+ */
+class IncrementalWarExtractor
+{
+
+    private static final String ARTIFACT_CHECKSUM = "artifact.checksum";
+
+    private static final String ARTIFACT_LENGTH = "artifact.length";
+
+    private static final String ARTIFACT_LAST_MODIFIED = "artifact.lastModified";
+
+    private static final String ENTRY_PREFIX = "entry.";
+
+    private final ExecutorService executor;
+
+    IncrementalWarExtractor()
+    {
+        this( null );
+    }
+
+    /**
+     * @param executor runs the entry writes, the tasks never wait on each other so any pool size works;
+     *                 <code>null</code> writes on the calling thread
+     */
+    IncrementalWarExtractor( ExecutorService executor )
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * @param war          the archive to extract
+     * @param destDir      the directory to extract to
+     * @param manifestFile where the manifest of the previous extraction is kept, must not be inside
+     *                     <code>destDir</code>
+     * @return what was done to bring <code>destDir</code> up to date
+     */
+    Result extract( File war, File destDir, File manifestFile ) throws IOException
+    {
+        Properties previous = loadManifest( manifestFile );
+
+        Result result = new Result();
+
+        if( destDir.isDirectory() && isSameArchive( war, previous ) )
+        {
+            result.unchanged = true;
+            return result;
+        }
+
+        Properties manifest = new Properties();
+        manifest.setProperty( ARTIFACT_CHECKSUM, Checksums.sha1( war ) );
+        manifest.setProperty( ARTIFACT_LENGTH, Long.toString( war.length() ) );
+        manifest.setProperty( ARTIFACT_LAST_MODIFIED, Long.toString( war.lastModified() ) );
+
+        if( destDir.isDirectory() && manifest.getProperty( ARTIFACT_CHECKSUM ).equals( previous.getProperty( ARTIFACT_CHECKSUM ) ) )
+        {
+            // touched but not changed, just remember the new timestamp
+            previous.putAll( manifest );
+            storeManifest( previous, manifestFile );
+            result.unchanged = true;
+            return result;
+        }
+
+        destDir.mkdirs();
+
+        String destPath = destDir.getCanonicalPath() + File.separator;
+
+        final ZipFile zipFile = new ZipFile( war );
+
+        try
+        {
+            Set<File> createdDirs = new HashSet<File>();
+            List<Future<Void>> writes = new ArrayList<Future<Void>>();
+
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+            while( entries.hasMoreElements() )
+            {
+                ZipEntry entry = entries.nextElement();
+
+                File target = new File( destDir, entry.getName() );
+
+                if( !target.getCanonicalPath().startsWith( destPath ) )
+                {
+                    throw new IOException( "Entry " + entry.getName() + " of " + war + " is outside of " + destDir );
+                }
+
+                if( entry.isDirectory() )
+                {
+                    mkdirs( target, createdDirs );
+                    continue;
+                }
+
+                String key = ENTRY_PREFIX + entry.getName();
+                String value = entry.getCrc() + ":" + entry.getSize();
+
+                manifest.setProperty( key, value );
+
+                if( value.equals( previous.remove( key ) ) && target.isFile() && target.length() == entry.getSize() )
+                {
+                    result.skipped++;
+                    continue;
+                }
+
+                // created up front so concurrent writes never race on the same parent
+                mkdirs( target.getParentFile(), createdDirs );
+
+                if( executor == null )
+                {
+                    writeEntry( zipFile, entry, target );
+                }
+                else
+                {
+                    final ZipEntry writeEntry = entry;
+                    final File writeTarget = target;
+
+                    writes.add( executor.submit( new Callable<Void>()
+                    {
+                        public Void call() throws IOException
+                        {
+                            writeEntry( zipFile, writeEntry, writeTarget );
+                            return null;
+                        }
+                    } ) );
+                }
+
+                result.written++;
+            }
+
+            awaitWrites( writes );
+        }
+        finally
+        {
+            zipFile.close();
+        }
+
+        // whatever is left of the previous manifest is no longer in the archive
+        for( String name : previous.stringPropertyNames() )
+        {
+            if( name.startsWith( ENTRY_PREFIX ) )
+            {
+                File removed = new File( destDir, name.substring( ENTRY_PREFIX.length() ) );
+
+                if( removed.delete() )
+                {
+                    result.deleted++;
+                    deleteEmptyParents( removed.getParentFile(), destDir );
+                }
+            }
+        }
+
+        storeManifest( manifest, manifestFile );
+
+        return result;
+    }
+
+    private void writeEntry( ZipFile zipFile, ZipEntry entry, File target ) throws IOException
+    {
+        ReadableByteChannel in = Channels.newChannel( zipFile.getInputStream( entry ) );
+
+        try
+        {
+            FileChannel out = new FileOutputStream( target ).getChannel();
+
+            try
+            {
+                long size = entry.getSize();
+                long position = 0;
+
+                if( size >= 0 )
+                {
+                    while( position < size )
+                    {
+                        long transferred = out.transferFrom( in, position, size - position );
+
+                        if( transferred <= 0 )
+                        {
+                            break;
+                        }
+
+                        position += transferred;
+                    }
+                }
+                else
+                {
+                    long transferred;
+
+                    while( ( transferred = out.transferFrom( in, position, 1 << 16 ) ) > 0 )
+                    {
+                        position += transferred;
+                    }
+                }
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        if( entry.getTime() != -1 )
+        {
+            target.setLastModified( entry.getTime() );
+        }
+    }
+
+    private void awaitWrites( List<Future<Void>> writes ) throws IOException
+    {
+        try
+        {
+            for( Future<Void> write : writes )
+            {
+                write.get();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException( "interrupted while extracting", e );
+        }
+        catch( ExecutionException e )
+        {
+            if( e.getCause() instanceof IOException )
+            {
+                throw (IOException) e.getCause();
+            }
+
+            throw new IOException( e.getCause().getMessage(), e.getCause() );
+        }
+        finally
+        {
+            for( Future<Void> write : writes )
+            {
+                write.cancel( false );
+            }
+        }
+    }
+
+    private void mkdirs( File dir, Set<File> createdDirs )
+    {
+        if( createdDirs.add( dir ) )
+        {
+            dir.mkdirs();
+        }
+    }
+
+    private boolean isSameArchive( File war, Properties previous )
+    {
+        return Long.toString( war.length() ).equals( previous.getProperty( ARTIFACT_LENGTH ) ) &&
+            Long.toString( war.lastModified() ).equals( previous.getProperty( ARTIFACT_LAST_MODIFIED ) );
+    }
+
+    private void deleteEmptyParents( File dir, File destDir )
+    {
+        while( dir != null && !dir.equals( destDir ) )
+        {
+            String[] children = dir.list();
+
+            if( children == null || children.length > 0 || !dir.delete() )
+            {
+                return;
+            }
+
+            dir = dir.getParentFile();
+        }
+    }
+
+    private Properties loadManifest( File manifestFile ) throws IOException
+    {
+        Properties manifest = new Properties();
+
+        if( manifestFile.isFile() )
+        {
+            InputStream in = new FileInputStream( manifestFile );
+
+            try
+            {
+                manifest.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        return manifest;
+    }
+
+    private void storeManifest( Properties manifest, File manifestFile ) throws IOException
+    {
+        manifestFile.getParentFile().mkdirs();
+
+        // written next to the real file and renamed, an interrupted run then just re-extracts everything
+        File tempFile = new File( manifestFile.getPath() + ".tmp" );
+
+        OutputStream out = new FileOutputStream( tempFile );
+
+        try
+        {
+            manifest.store( out, null );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !manifestFile.delete() && manifestFile.exists() || !tempFile.renameTo( manifestFile ) )
+        {
+            throw new IOException( "Could not write " + manifestFile );
+        }
+    }
+
+    /**
+     * Entry counts of one extraction.
+     */
+    static class Result
+    {
+
+        boolean unchanged;
+
+        int written;
+
+        int skipped;
+
+        int deleted;
+
+        @Override
+        public String toString()
+        {
+            if( unchanged )
+            {
+                return "unchanged";
+            }
+
+            return written + " entries written, " + skipped + " unchanged, " + deleted + " deleted";
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+import javax.naming.NamingException;
+
+import org.apache.catalina.loader.ResourceEntry;
+import org.apache.catalina.loader.WebappClassLoader;
+
+/**
+ * A web application class loader that knows which packages its <code>WEB-INF/lib</code> jars contain, so looking
+ * up a class or resource of any other package, typically one the parent class loader provides, doesn't search
+ * every jar. Lookups of indexed packages take the usual way.
+ * <p>
+ * Until {@link #setPackageIndex(JarPackageIndex)} is called it behaves like a plain {@link WebappClassLoader}.
+ */
+public class IndexedWebappClassLoader extends WebappClassLoader
+{
+
+    /**
+     * The packages of all jars, <code>null</code> while there is no index.
+     */
+    private volatile Set<String> jarPackages;
+
+    public IndexedWebappClassLoader()
+    {
+        super();
+    }
+
+    public IndexedWebappClassLoader( ClassLoader parent )
+    {
+        super( parent );
+    }
+
+    /**
+     * Indexes the jars added so far, to be called once they are all added.
+     */
+    void setPackageIndex( JarPackageIndex index ) throws IOException
+    {
+        Set<String> packages = new HashSet<String>();
+
+        for( File jar : jarRealFiles )
+        {
+            if( jar == null || !jar.isFile() )
+            {
+                // can't tell what it contains
+                return;
+            }
+
+            packages.addAll( index.getPackages( jar ) );
+        }
+
+        jarPackages = packages;
+    }
+
+    @Override
+    protected ResourceEntry findResourceInternal( String name, String path )
+    {
+        Set<String> packages = jarPackages;
+
+        if( packages != null && path != null && !packages.contains( JarPackageIndex.packageOf( path ) ) &&
+            !inRepositories( path ) )
+        {
+            return null;
+        }
+
+        return super.findResourceInternal( name, path );
+    }
+
+    private boolean inRepositories( String path )
+    {
+        if( resources == null || repositories == null )
+        {
+            return true;
+        }
+
+        for( String repository : repositories )
+        {
+            try
+            {
+                resources.lookup( repository + path );
+                return true;
+            }
+            catch( NamingException e )
+            {
+                // not in this one
+            }
+        }
+
+        return false;
+    }
+}
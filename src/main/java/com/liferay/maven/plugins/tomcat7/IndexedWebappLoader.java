@@ -0,0 +1,45 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.IOException;
+
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.loader.WebappLoader;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * A {@link WebappLoader} whose class loader is an {@link IndexedWebappClassLoader}, indexed once the loader
+ * added all jars of the webapp.
+ */
+class IndexedWebappLoader extends WebappLoader
+{
+
+    private static final Log log = LogFactory.getLog( IndexedWebappLoader.class );
+
+    private final JarPackageIndex index;
+
+    IndexedWebappLoader( ClassLoader parent, JarPackageIndex index )
+    {
+        super( parent );
+        this.index = index;
+
+        setLoaderClass( IndexedWebappClassLoader.class.getName() );
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException
+    {
+        super.startInternal();
+
+        try
+        {
+            ( (IndexedWebappClassLoader) getClassLoader() ).setPackageIndex( index );
+            index.store();
+        }
+        catch( IOException e )
+        {
+            // the class loader searches every jar without its index
+            log.warn( "Could not index the jars of " + getContainer().getName(), e );
+        }
+    }
+}
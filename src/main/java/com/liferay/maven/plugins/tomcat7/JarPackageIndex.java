@@ -0,0 +1,197 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Persistent index of the packages each jar contains, keyed on the jar's checksum so a jar is only read once,
+ * whichever webapp it is in. Packages are the directories of all entries, resources included, the root
+ * directory is the empty package.
+ * <p>
+ * The checksum of a jar is remembered along with its length and modification time, unchanged jars are not read
+ * at all.
+ */
+class JarPackageIndex
+{
+
+    /**
+     * How the root package is stored, as no entry name ends with a slash.
+     */
+    private static final String ROOT_PACKAGE = "/";
+
+    private final File indexFile;
+
+    private final Properties entries = new Properties();
+
+    private boolean modified;
+
+    JarPackageIndex( File indexFile ) throws IOException
+    {
+        this.indexFile = indexFile;
+
+        if( indexFile.isFile() )
+        {
+            InputStream in = new FileInputStream( indexFile );
+
+            try
+            {
+                entries.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return the packages of the jar
+     */
+    synchronized Set<String> getPackages( File jar ) throws IOException
+    {
+        String checksum = checksum( jar );
+        String packages = entries.getProperty( checksum + ".packages" );
+
+        if( packages == null )
+        {
+            Set<String> read = readPackages( jar );
+
+            StringBuilder value = new StringBuilder();
+
+            for( String name : read )
+            {
+                if( value.length() > 0 )
+                {
+                    value.append( ',' );
+                }
+
+                value.append( name.length() == 0 ? ROOT_PACKAGE : name );
+            }
+
+            entries.setProperty( checksum + ".packages", value.toString() );
+            modified = true;
+
+            return read;
+        }
+
+        if( packages.length() == 0 )
+        {
+            return Collections.emptySet();
+        }
+
+        Set<String> stored = new HashSet<String>( Arrays.asList( packages.split( "," ) ) );
+
+        if( stored.remove( ROOT_PACKAGE ) )
+        {
+            stored.add( "" );
+        }
+
+        return stored;
+    }
+
+    synchronized void store() throws IOException
+    {
+        if( !modified )
+        {
+            return;
+        }
+
+        indexFile.getParentFile().mkdirs();
+
+        File tempFile = new File( indexFile.getPath() + ".tmp" );
+        OutputStream out = new FileOutputStream( tempFile );
+
+        try
+        {
+            entries.store( out, "liferay jar package index" );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !tempFile.renameTo( indexFile ) )
+        {
+            indexFile.delete();
+
+            if( !tempFile.renameTo( indexFile ) )
+            {
+                throw new IOException( "Could not move " + tempFile + " to " + indexFile );
+            }
+        }
+
+        modified = false;
+    }
+
+    private String checksum( File jar ) throws IOException
+    {
+        String key = jar.getAbsolutePath();
+        String stamp = jar.length() + ":" + jar.lastModified();
+
+        if( stamp.equals( entries.getProperty( key + ".stamp" ) ) )
+        {
+            String checksum = entries.getProperty( key + ".checksum" );
+
+            if( checksum != null )
+            {
+                return checksum;
+            }
+        }
+
+        String checksum = Checksums.sha1( jar );
+
+        entries.setProperty( key + ".stamp", stamp );
+        entries.setProperty( key + ".checksum", checksum );
+        modified = true;
+
+        return checksum;
+    }
+
+    static String packageOf( String path )
+    {
+        int start = path.startsWith( "/" ) ? 1 : 0;
+        int end = path.lastIndexOf( '/' );
+
+        return end < start ? "" : path.substring( start, end );
+    }
+
+    private static Set<String> readPackages( File jar ) throws IOException
+    {
+        Set<String> packages = new TreeSet<String>();
+        ZipFile zipFile = new ZipFile( jar );
+
+        try
+        {
+            Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+
+            while( zipEntries.hasMoreElements() )
+            {
+                ZipEntry entry = zipEntries.nextElement();
+
+                if( !entry.isDirectory() )
+                {
+                    packages.add( packageOf( entry.getName() ) );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+
+        return packages;
+    }
+}
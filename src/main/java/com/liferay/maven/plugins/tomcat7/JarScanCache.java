@@ -0,0 +1,291 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Properties;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Persistent record of what the jars scanned by Tomcat at context start contribute, keyed on the jar's checksum so a
+ * jar is only read once, whichever webapp or class path it is in:
+ * <ul>
+ * <li>{@link #TLD} - the jar contains tag library descriptors under <code>META-INF</code></li>
+ * <li>{@link #FRAGMENT} - the jar has a <code>META-INF/web-fragment.xml</code>, static resources or JSPs under
+ * <code>META-INF/resources/</code>, or classes annotated with <code>@WebServlet</code>, <code>@WebFilter</code> or
+ * <code>@WebListener</code></li>
+ * </ul>
+ * Like {@link JarPackageIndex}, the checksum of a jar file is remembered along with its length and modification
+ * time, unchanged jars are not read at all.
+ */
+class JarScanCache
+{
+
+    static final String TLD = "tld";
+
+    static final String FRAGMENT = "fragment";
+
+    /**
+     * The format of the cache file, a file of another format is discarded.
+     */
+    private static final String VERSION = "2";
+
+    private static final byte[] WEB_ANNOTATION = ascii( "Ljavax/servlet/annotation/Web" );
+
+    private final File cacheFile;
+
+    private final Properties entries = new Properties();
+
+    private boolean modified;
+
+    JarScanCache( File cacheFile ) throws IOException
+    {
+        this.cacheFile = cacheFile;
+
+        if( cacheFile.isFile() )
+        {
+            InputStream in = new FileInputStream( cacheFile );
+
+            try
+            {
+                entries.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        if( !VERSION.equals( entries.getProperty( "version" ) ) )
+        {
+            entries.clear();
+            entries.setProperty( "version", VERSION );
+            modified = true;
+        }
+    }
+
+    /**
+     * @param kind {@link #TLD} or {@link #FRAGMENT}
+     * @return whether scanning the jar for <code>kind</code> finds anything
+     */
+    synchronized boolean contributes( URL jar, String kind ) throws IOException
+    {
+        File file = toFile( jar );
+        String checksum = file != null ? checksum( file ) : null;
+        String kinds = checksum != null ? entries.getProperty( checksum + ".scan" ) : null;
+
+        if( kinds == null )
+        {
+            InputStream in = jar.openStream();
+
+            try
+            {
+                MessageDigest digest = Checksums.newDigest();
+                kinds = readKinds( new DigestInputStream( in, digest ) );
+
+                if( checksum == null )
+                {
+                    // not a file, so it is read every time
+                    checksum = Checksums.toHex( digest.digest() );
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+
+            if( !kinds.equals( entries.getProperty( checksum + ".scan" ) ) )
+            {
+                entries.setProperty( checksum + ".scan", kinds );
+                modified = true;
+            }
+        }
+
+        return ( "," + kinds + "," ).contains( "," + kind + "," );
+    }
+
+    synchronized void store() throws IOException
+    {
+        if( !modified )
+        {
+            return;
+        }
+
+        cacheFile.getParentFile().mkdirs();
+
+        File tempFile = new File( cacheFile.getPath() + ".tmp" );
+        OutputStream out = new FileOutputStream( tempFile );
+
+        try
+        {
+            entries.store( out, "liferay jar scan cache" );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !tempFile.renameTo( cacheFile ) )
+        {
+            cacheFile.delete();
+
+            if( !tempFile.renameTo( cacheFile ) )
+            {
+                throw new IOException( "Could not move " + tempFile + " to " + cacheFile );
+            }
+        }
+
+        modified = false;
+    }
+
+    private String checksum( File jar ) throws IOException
+    {
+        String key = jar.getAbsolutePath();
+        String stamp = jar.length() + ":" + jar.lastModified();
+
+        if( stamp.equals( entries.getProperty( key + ".stamp" ) ) )
+        {
+            String checksum = entries.getProperty( key + ".checksum" );
+
+            if( checksum != null )
+            {
+                return checksum;
+            }
+        }
+
+        String checksum = Checksums.sha1( jar );
+
+        entries.setProperty( key + ".stamp", stamp );
+        entries.setProperty( key + ".checksum", checksum );
+        modified = true;
+
+        return checksum;
+    }
+
+    /**
+     * Reads the whole stream, so a digest over it covers the whole jar.
+     *
+     * @return the kinds of scan the jar contributes to, comma separated
+     */
+    private static String readKinds( InputStream in ) throws IOException
+    {
+        boolean tld = false;
+        boolean fragment = false;
+
+        ZipInputStream zip = new ZipInputStream( in );
+        ZipEntry entry;
+
+        while( ( entry = zip.getNextEntry() ) != null )
+        {
+            String name = entry.getName();
+
+            if( name.startsWith( "META-INF/" ) && name.endsWith( ".tld" ) )
+            {
+                tld = true;
+            }
+            else if( name.equals( "META-INF/web-fragment.xml" ) || name.startsWith( "META-INF/resources/" ) )
+            {
+                // Tomcat only serves the resources of the jars that went through the fragment scan
+                fragment = true;
+            }
+            else if( !fragment && name.endsWith( ".class" ) && contains( zip, WEB_ANNOTATION ) )
+            {
+                // the annotation descriptor is in the constant pool of the class
+                fragment = true;
+            }
+        }
+
+        byte[] buffer = new byte[8192];
+
+        while( in.read( buffer ) != -1 )
+        {
+            // the central directory
+        }
+
+        if( tld && fragment )
+        {
+            return TLD + "," + FRAGMENT;
+        }
+
+        return tld ? TLD : fragment ? FRAGMENT : "";
+    }
+
+    /**
+     * @return whether the rest of the current entry contains the bytes
+     */
+    private static boolean contains( InputStream in, byte[] pattern ) throws IOException
+    {
+        byte[] buffer = new byte[8192 + pattern.length];
+        int kept = 0;
+        int read;
+
+        while( ( read = in.read( buffer, kept, buffer.length - kept ) ) != -1 )
+        {
+            int length = kept + read;
+
+            for( int i = 0; i + pattern.length <= length; i++ )
+            {
+                int j = 0;
+
+                while( j < pattern.length && buffer[i + j] == pattern[j] )
+                {
+                    j++;
+                }
+
+                if( j == pattern.length )
+                {
+                    return true;
+                }
+            }
+
+            // keep a possible match split across reads
+            kept = Math.min( length, pattern.length - 1 );
+            System.arraycopy( buffer, length - kept, buffer, 0, kept );
+        }
+
+        return false;
+    }
+
+    private static File toFile( URL url )
+    {
+        if( !"file".equals( url.getProtocol() ) )
+        {
+            return null;
+        }
+
+        try
+        {
+            File file = new File( url.toURI() );
+
+            return file.isFile() ? file : null;
+        }
+        catch( URISyntaxException e )
+        {
+            return null;
+        }
+        catch( IllegalArgumentException e )
+        {
+            return null;
+        }
+    }
+
+    private static byte[] ascii( String value )
+    {
+        byte[] bytes = new byte[value.length()];
+
+        for( int i = 0; i < bytes.length; i++ )
+        {
+            bytes[i] = (byte) value.charAt( i );
+        }
+
+        return bytes;
+    }
+}
@@ -0,0 +1,697 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.servlet.ServletContext;
+import javax.servlet.descriptor.JspConfigDescriptor;
+import javax.servlet.descriptor.JspPropertyGroupDescriptor;
+import javax.servlet.descriptor.TaglibDescriptor;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.catalina.Wrapper;
+import org.apache.catalina.util.ServerInfo;
+import org.apache.jasper.Constants;
+import org.apache.jasper.compiler.JspUtil;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * A cache of compiled JSP classes shared by all runs and projects, keyed by the path and content of the JSP, the
+ * checksums of the jars of <code>WEB-INF/lib</code> its tag libraries come from, including the jars hidden because
+ * they are shared, the content of the classes, tag files and TLDs of <code>WEB-INF</code>, since javac inlines
+ * constants, the init parameters of the JSP servlet, the JSP configuration of the context and the Jasper version. Like
+ * {@link JarPackageIndex}, the checksum of a jar file is remembered along with its length and modification time, in a
+ * file of the project. Before a context starts, the classes of its unchanged JSPs are copied into its work directory
+ * and given the time stamp of their JSP, which is what Jasper checks, so they are loaded instead of compiled.
+ * Compiled classes missing from the cache are added when the context stops, or when {@link #storeAll()} is called.
+ * <p>
+ * Jasper still checks the time stamps of the files a JSP includes, recorded in its class. Those only match across
+ * runs when the includes keep their time stamps, as in extracted wars. Otherwise the JSP is compiled again on its
+ * first request and the cache updated.
+ * <p>
+ * Restoring the classes of an entry marks it as used, see {@link #evictUnused(int)}.
+ */
+class JspClassCache
+{
+
+    private static final String VERSION = "3";
+
+    private final File cacheDir;
+
+    private final File checksumsFile;
+
+    private final Log log;
+
+    private final List<Context> contexts = new CopyOnWriteArrayList<Context>();
+
+    private final Properties checksums = new Properties();
+
+    private boolean checksumsModified;
+
+    /**
+     * @param checksumsFile where the checksums of the jars of the contexts are remembered
+     */
+    JspClassCache( File cacheDir, File checksumsFile, Log log ) throws IOException
+    {
+        this.cacheDir = cacheDir;
+        this.checksumsFile = checksumsFile;
+        this.log = log;
+
+        if( checksumsFile.isFile() )
+        {
+            InputStream in = new FileInputStream( checksumsFile );
+
+            try
+            {
+                checksums.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * Deletes the entries no run restored classes from for <code>maxAgeDays</code>.
+     *
+     * @param maxAgeDays <code>0</code> to keep every entry
+     */
+    void evictUnused( int maxAgeDays )
+    {
+        try
+        {
+            int evicted = CacheEviction.evict( cacheDir, 2, maxAgeDays );
+
+            if( evicted > 0 )
+            {
+                log.info( "Deleted " + evicted + " compiled JSPs not used for " + maxAgeDays + " days from " +
+                    cacheDir );
+            }
+        }
+        catch( IOException e )
+        {
+            log.warn( "Could not clean up " + cacheDir + ": " + e.getMessage() );
+        }
+    }
+
+    /**
+     * @return a listener to add to every context, filling its work directory before its servlets load
+     */
+    LifecycleListener getContextListener()
+    {
+        return new LifecycleListener()
+        {
+            public void lifecycleEvent( LifecycleEvent event )
+            {
+                if( !( event.getLifecycle() instanceof Context ) )
+                {
+                    return;
+                }
+
+                Context context = (Context) event.getLifecycle();
+
+                // the work directory exists from here on, load on startup servlets are not loaded yet
+                if( Lifecycle.CONFIGURE_START_EVENT.equals( event.getType() ) )
+                {
+                    if( !contexts.contains( context ) )
+                    {
+                        contexts.add( context );
+                    }
+
+                    restore( context );
+                }
+                else if( Lifecycle.BEFORE_STOP_EVENT.equals( event.getType() ) )
+                {
+                    store( context );
+                    contexts.remove( context );
+                }
+            }
+        };
+    }
+
+    /**
+     * Adds the compiled JSPs of all running contexts to the cache, such as after precompiling them.
+     */
+    void storeAll()
+    {
+        for( Context context : contexts )
+        {
+            store( context );
+        }
+    }
+
+    private void restore( Context context )
+    {
+        ContextJsps jsps = getJsps( context );
+
+        if( jsps == null )
+        {
+            return;
+        }
+
+        int restored = 0;
+
+        for( String jspUri : jsps.jspUris )
+        {
+            try
+            {
+                long lastModified = jsps.getLastModified( jspUri );
+                File classFile = jsps.getClassFile( jspUri );
+
+                if( lastModified <= 0 || classFile.lastModified() == lastModified )
+                {
+                    continue;
+                }
+
+                File entry = getEntry( jsps, jspUri );
+                String[] classFiles = entry.list();
+
+                if( classFiles == null )
+                {
+                    continue;
+                }
+
+                classFile.getParentFile().mkdirs();
+
+                for( String name : classFiles )
+                {
+                    File target = new File( classFile.getParentFile(), name );
+                    FileUtils.copyFile( new File( entry, name ), target );
+                    target.setLastModified( lastModified );
+                }
+
+                CacheEviction.touch( entry );
+                restored++;
+            }
+            catch( IOException e )
+            {
+                log.debug( "Could not restore the class of " + jspUri + " in " + context.getName() + ": " + e );
+            }
+        }
+
+        if( restored > 0 )
+        {
+            log.info( "Restored " + restored + " of " + jsps.jspUris.size() + " compiled JSPs of " +
+                context.getName() + " from " + cacheDir );
+        }
+    }
+
+    private void store( Context context )
+    {
+        ContextJsps jsps = getJsps( context );
+
+        storeChecksums();
+
+        if( jsps == null )
+        {
+            return;
+        }
+
+        int stored = 0;
+
+        for( String jspUri : jsps.jspUris )
+        {
+            try
+            {
+                long lastModified = jsps.getLastModified( jspUri );
+                File classFile = jsps.getClassFile( jspUri );
+
+                // only classes compiled from the current source, Jasper gives them its time stamp
+                if( lastModified <= 0 || classFile.lastModified() != lastModified )
+                {
+                    continue;
+                }
+
+                File entry = getEntry( jsps, jspUri );
+
+                if( entry.isDirectory() )
+                {
+                    continue;
+                }
+
+                File tempEntry =
+                    new File( entry.getParentFile(), entry.getName() + ".tmp" + Thread.currentThread().getId() );
+                tempEntry.mkdirs();
+
+                for( File file : getClassFiles( classFile ) )
+                {
+                    FileUtils.copyFile( file, new File( tempEntry, file.getName() ) );
+                }
+
+                // another run may have stored the same entry meanwhile, either one will do
+                if( !tempEntry.renameTo( entry ) )
+                {
+                    FileUtils.deleteDirectory( tempEntry );
+                }
+
+                stored++;
+            }
+            catch( IOException e )
+            {
+                log.debug( "Could not cache the class of " + jspUri + " in " + context.getName() + ": " + e );
+            }
+        }
+
+        if( stored > 0 )
+        {
+            log.info( "Cached " + stored + " compiled JSPs of " + context.getName() + " in " + cacheDir );
+        }
+    }
+
+    /**
+     * @return <code>null</code> when the context has no work directory or no JSPs
+     */
+    private ContextJsps getJsps( Context context )
+    {
+        ServletContext servletContext = context.getServletContext();
+        Object workDir = servletContext.getAttribute( ServletContext.TEMPDIR );
+
+        if( !( workDir instanceof File ) )
+        {
+            return null;
+        }
+
+        ContextJsps jsps = new ContextJsps( context, (File) workDir );
+
+        return jsps.jspUris.isEmpty() ? null : jsps;
+    }
+
+    /**
+     * @return the checksum of a jar of the context, remembered along with its length and modification time when it
+     *         is a file
+     */
+    private synchronized String getJarChecksum( ServletContext servletContext, String path ) throws IOException
+    {
+        String realPath = servletContext.getRealPath( path );
+        File jar = realPath != null ? new File( realPath ) : null;
+
+        if( jar == null || !jar.isFile() )
+        {
+            // not extracted, read every time
+            InputStream in = servletContext.getResourceAsStream( path );
+
+            if( in == null )
+            {
+                throw new IOException( "missing " + path );
+            }
+
+            try
+            {
+                return Checksums.sha1( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        String key = jar.getAbsolutePath();
+        String stamp = jar.length() + ":" + jar.lastModified();
+
+        if( stamp.equals( checksums.getProperty( key + ".stamp" ) ) )
+        {
+            String checksum = checksums.getProperty( key + ".checksum" );
+
+            if( checksum != null )
+            {
+                return checksum;
+            }
+        }
+
+        String checksum = Checksums.sha1( jar );
+
+        checksums.setProperty( key + ".stamp", stamp );
+        checksums.setProperty( key + ".checksum", checksum );
+        checksumsModified = true;
+
+        return checksum;
+    }
+
+    private synchronized void storeChecksums()
+    {
+        if( !checksumsModified )
+        {
+            return;
+        }
+
+        checksumsFile.getParentFile().mkdirs();
+
+        File tempFile = new File( checksumsFile.getPath() + ".tmp" );
+
+        try
+        {
+            OutputStream out = new FileOutputStream( tempFile );
+
+            try
+            {
+                checksums.store( out, "liferay jsp class cache jar checksums" );
+            }
+            finally
+            {
+                out.close();
+            }
+
+            if( !tempFile.renameTo( checksumsFile ) )
+            {
+                checksumsFile.delete();
+
+                if( !tempFile.renameTo( checksumsFile ) )
+                {
+                    throw new IOException( "Could not move " + tempFile + " to " + checksumsFile );
+                }
+            }
+
+            checksumsModified = false;
+        }
+        catch( IOException e )
+        {
+            log.debug( "Could not write " + checksumsFile + ": " + e );
+        }
+    }
+
+    /**
+     * @return the class of the JSP and its inner classes
+     */
+    private static File[] getClassFiles( File classFile )
+    {
+        final String className = classFile.getName().substring( 0, classFile.getName().length() - 6 );
+
+        File[] files = classFile.getParentFile().listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.equals( className + ".class" ) ||
+                    ( name.startsWith( className + "$" ) && name.endsWith( ".class" ) );
+            }
+        } );
+
+        return files != null ? files : new File[0];
+    }
+
+    private File getEntry( ContextJsps jsps, String jspUri ) throws IOException
+    {
+        MessageDigest digest = Checksums.newDigest();
+        digest.update( ( VERSION + '\n' + jsps.classpathKey + '\n' + jspUri + '\n' ).getBytes( "UTF-8" ) );
+
+        InputStream in = jsps.servletContext.getResourceAsStream( jspUri );
+
+        if( in == null )
+        {
+            throw new IOException( "missing " + jspUri );
+        }
+
+        try
+        {
+            byte[] buffer = new byte[8192];
+            int read;
+
+            while( ( read = in.read( buffer ) ) != -1 )
+            {
+                digest.update( buffer, 0, read );
+            }
+        }
+        finally
+        {
+            in.close();
+        }
+
+        String key = Checksums.toHex( digest.digest() );
+
+        return new File( cacheDir, key.substring( 0, 2 ) + "/" + key );
+    }
+
+    /**
+     * The JSPs of a started context and where Jasper puts their classes.
+     */
+    private class ContextJsps
+    {
+
+        private final ServletContext servletContext;
+
+        private final File workDir;
+
+        private final List<String> jspUris = new ArrayList<String>();
+
+        private final String classpathKey;
+
+        private ContextJsps( Context context, File workDir )
+        {
+            this.servletContext = context.getServletContext();
+            this.workDir = workDir;
+
+            collectJsps( "/" );
+
+            StringBuilder classpath = new StringBuilder( ServerInfo.getServerNumber() );
+
+            for( String lib : getLibs() )
+            {
+                classpath.append( ',' ).append( lib ).append( ':' ).append( getLibChecksum( lib ) );
+            }
+
+            classpath.append( "\nclasses:" ).append( getWebInfChecksum() );
+
+            appendOptions( classpath, context );
+
+            this.classpathKey = Checksums.sha1( classpath.toString() );
+        }
+
+        /**
+         * @return the jars of <code>WEB-INF/lib</code>, with those the shared jars hide from the resources of the
+         *         context, they still compile the JSPs from the parent class loader
+         */
+        private Set<String> getLibs()
+        {
+            Set<String> libs = new TreeSet<String>();
+            Set<String> paths = servletContext.getResourcePaths( "/WEB-INF/lib/" );
+
+            if( paths != null )
+            {
+                libs.addAll( paths );
+            }
+
+            String realPath = servletContext.getRealPath( "/WEB-INF/lib/" );
+            String[] names = realPath != null ? new File( realPath ).list() : null;
+
+            if( names != null )
+            {
+                for( String name : names )
+                {
+                    if( name.endsWith( ".jar" ) )
+                    {
+                        libs.add( "/WEB-INF/lib/" + name );
+                    }
+                }
+            }
+
+            return libs;
+        }
+
+        /**
+         * @return a checksum of the classes, tag files and TLDs of <code>WEB-INF</code> outside of
+         *         <code>WEB-INF/lib</code>
+         */
+        private String getWebInfChecksum()
+        {
+            MessageDigest digest = Checksums.newDigest();
+
+            try
+            {
+                addWebInfFiles( digest, "/WEB-INF/" );
+            }
+            catch( IOException e )
+            {
+                // matches no entry, like an unreadable jar
+                return "unreadable-" + System.nanoTime();
+            }
+
+            return Checksums.toHex( digest.digest() );
+        }
+
+        private void addWebInfFiles( MessageDigest digest, String dir ) throws IOException
+        {
+            Set<String> paths = servletContext.getResourcePaths( dir );
+
+            if( paths == null )
+            {
+                return;
+            }
+
+            for( String path : new TreeSet<String>( paths ) )
+            {
+                if( path.endsWith( "/" ) )
+                {
+                    if( !path.equals( "/WEB-INF/lib/" ) )
+                    {
+                        addWebInfFiles( digest, path );
+                    }
+                }
+                else if( path.endsWith( ".class" ) || path.endsWith( ".tld" ) || path.endsWith( ".tag" ) ||
+                    path.endsWith( ".tagx" ) )
+                {
+                    InputStream in = servletContext.getResourceAsStream( path );
+
+                    if( in == null )
+                    {
+                        throw new IOException( "missing " + path );
+                    }
+
+                    try
+                    {
+                        digest.update( ( path + '\n' + Checksums.sha1( in ) + '\n' ).getBytes( "UTF-8" ) );
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Appends what configures Jasper: the init parameters of the JSP servlet, from <code>conf/web.xml</code>
+         * unless the webapp declares its own, and the <code>jsp-config</code> of the context.
+         */
+        private void appendOptions( StringBuilder key, Context context )
+        {
+            Container jspServlet = context.findChild( "jsp" );
+
+            if( jspServlet instanceof Wrapper )
+            {
+                Wrapper wrapper = (Wrapper) jspServlet;
+                String[] names = wrapper.findInitParameters();
+
+                Arrays.sort( names );
+
+                key.append( "\nservlet:" ).append( wrapper.getServletClass() );
+
+                for( String name : names )
+                {
+                    key.append( ',' ).append( name ).append( '=' ).append( wrapper.findInitParameter( name ) );
+                }
+            }
+
+            JspConfigDescriptor jspConfig = servletContext.getJspConfigDescriptor();
+
+            if( jspConfig == null )
+            {
+                return;
+            }
+
+            for( TaglibDescriptor taglib : jspConfig.getTaglibs() )
+            {
+                key.append( "\ntaglib:" ).append( taglib.getTaglibURI() ).append( '=' )
+                    .append( taglib.getTaglibLocation() );
+            }
+
+            for( JspPropertyGroupDescriptor group : jspConfig.getJspPropertyGroups() )
+            {
+                key.append( "\ngroup:" ).append( group.getUrlPatterns() ).append( ',' ).append( group.getElIgnored() )
+                    .append( ',' ).append( group.getPageEncoding() ).append( ',' )
+                    .append( group.getScriptingInvalid() ).append( ',' ).append( group.getIsXml() ).append( ',' )
+                    .append( group.getIncludePreludes() ).append( ',' ).append( group.getIncludeCodas() )
+                    .append( ',' ).append( group.getDeferredSyntaxAllowedAsLiteral() ).append( ',' )
+                    .append( group.getTrimDirectiveWhitespaces() ).append( ',' )
+                    .append( group.getDefaultContentType() ).append( ',' ).append( group.getBuffer() ).append( ',' )
+                    .append( group.getErrorOnUndeclaredNamespace() );
+            }
+        }
+
+        private void collectJsps( String dir )
+        {
+            Set<String> paths = servletContext.getResourcePaths( dir );
+
+            if( paths == null )
+            {
+                return;
+            }
+
+            for( String path : paths )
+            {
+                if( path.endsWith( "/" ) )
+                {
+                    collectJsps( path );
+                }
+                else if( path.endsWith( ".jsp" ) || path.endsWith( ".jspx" ) )
+                {
+                    jspUris.add( path );
+                }
+            }
+        }
+
+        /**
+         * @return the time stamp Jasper compares the class with
+         */
+        long getLastModified( String jspUri ) throws IOException
+        {
+            URL url = servletContext.getResource( jspUri );
+
+            if( url == null )
+            {
+                return -1;
+            }
+
+            URLConnection connection = url.openConnection();
+            connection.setUseCaches( false );
+
+            try
+            {
+                return connection.getLastModified();
+            }
+            finally
+            {
+                connection.getInputStream().close();
+            }
+        }
+
+        /**
+         * @return the class file the way Jasper names it in the work directory
+         */
+        File getClassFile( String jspUri )
+        {
+            int separator = jspUri.lastIndexOf( '/' ) + 1;
+            String packageName = Constants.JSP_PACKAGE_NAME;
+            String subPackage = JspUtil.makeJavaPackage( jspUri.substring( 0, separator ) );
+
+            if( subPackage.length() > 0 )
+            {
+                packageName += "." + subPackage;
+            }
+
+            return new File( workDir, packageName.replace( '.', '/' ) + "/" +
+                JspUtil.makeJavaIdentifier( jspUri.substring( separator ) ) + ".class" );
+        }
+
+        private String getLibChecksum( String path )
+        {
+            try
+            {
+                return getJarChecksum( servletContext, path );
+            }
+            catch( IOException e )
+            {
+                // matches no entry, so the JSPs of the context are neither restored nor stored
+                return "unreadable-" + System.nanoTime();
+            }
+        }
+    }
+}
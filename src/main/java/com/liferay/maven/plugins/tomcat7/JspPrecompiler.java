@@ -0,0 +1,423 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.Servlet;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Container;
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleState;
+import org.apache.catalina.Wrapper;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Compiles every JSP of started contexts on a pool of threads, through the JSP servlet of each context, so the
+ * classes land in its work directory with its options, class loader and tag libraries. The first request to a JSP
+ * then finds its class up to date and only loads it.
+ * <p>
+ * Jasper is used through reflection, it may be loaded by another class loader than this plugin. Contexts without
+ * the Jasper JSP servlet are skipped. JSPs that fail to compile are reported, they fail again on their first
+ * request, with the same error.
+ */
+class JspPrecompiler
+{
+
+    private static final String JSP_SERVLET = "org.apache.jasper.servlet.JspServlet";
+
+    private static final String JSP_SERVLET_WRAPPER = "org.apache.jasper.servlet.JspServletWrapper";
+
+    private final int threads;
+
+    private final List<String> excludes;
+
+    private final Log log;
+
+    /**
+     * @param excludes path patterns, like <code>/html/portlet/journal/**</code>, of JSPs not to compile, may be
+     *            <code>null</code>
+     */
+    JspPrecompiler( int threads, List<String> excludes, Log log )
+    {
+        this.threads = threads;
+        this.excludes = excludes != null ? excludes : Collections.<String>emptyList();
+        this.log = log;
+    }
+
+    /**
+     * Compiles the JSPs of the started contexts among the containers, then logs the time spent on each context,
+     * slowest first, and the JSPs that did not compile.
+     */
+    void precompile( Container[] containers ) throws MojoExecutionException
+    {
+        List<ContextCompilation> compilations = new ArrayList<ContextCompilation>();
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "liferay-jspc-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        long start = System.currentTimeMillis();
+
+        try
+        {
+            for( Container container : containers )
+            {
+                if( container instanceof Context && container.getState() == LifecycleState.STARTED )
+                {
+                    ContextCompilation compilation = submit( (Context) container, executor, pending );
+
+                    if( compilation != null )
+                    {
+                        compilations.add( compilation );
+                    }
+                }
+            }
+
+            for( Future<?> future : pending )
+            {
+                future.get();
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "interrupted while compiling JSPs", e );
+        }
+        catch( ExecutionException e )
+        {
+            throw new MojoExecutionException( "JSP compilation failed", e.getCause() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+
+            for( ContextCompilation compilation : compilations )
+            {
+                compilation.release();
+            }
+        }
+
+        report( compilations, System.currentTimeMillis() - start );
+    }
+
+    /**
+     * Submits one task per JSP of the context.
+     *
+     * @return <code>null</code> when the context has no Jasper JSP servlet or no JSPs
+     */
+    private ContextCompilation submit( Context context, ExecutorService executor, List<Future<?>> pending )
+    {
+        Container child = context.findChild( "jsp" );
+
+        if( !( child instanceof Wrapper ) )
+        {
+            return null;
+        }
+
+        List<String> jspUris = new ArrayList<String>();
+        collectJsps( context.getServletContext(), "/", jspUris );
+
+        if( jspUris.isEmpty() )
+        {
+            return null;
+        }
+
+        final ContextCompilation compilation;
+
+        try
+        {
+            compilation = new ContextCompilation( context, (Wrapper) child );
+        }
+        catch( Exception e )
+        {
+            log.warn( "Can't precompile the JSPs of " + context.getName() + ": " + e );
+            return null;
+        }
+
+        if( compilation.jspServlet == null )
+        {
+            return null;
+        }
+
+        for( final String jspUri : jspUris )
+        {
+            pending.add( executor.submit( new Runnable()
+            {
+                public void run()
+                {
+                    compilation.compile( jspUri );
+                }
+            } ) );
+        }
+
+        return compilation;
+    }
+
+    private void collectJsps( ServletContext servletContext, String dir, List<String> jspUris )
+    {
+        Set<String> paths = servletContext.getResourcePaths( dir );
+
+        if( paths == null )
+        {
+            return;
+        }
+
+        for( String path : paths )
+        {
+            if( path.endsWith( "/" ) )
+            {
+                collectJsps( servletContext, path, jspUris );
+            }
+            else if( ( path.endsWith( ".jsp" ) || path.endsWith( ".jspx" ) ) && !isExcluded( path ) )
+            {
+                jspUris.add( path );
+            }
+        }
+    }
+
+    private boolean isExcluded( String path )
+    {
+        for( String exclude : excludes )
+        {
+            if( SelectorUtils.matchPath( exclude, path ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private void report( List<ContextCompilation> compilations, long millis )
+    {
+        Collections.sort( compilations, new Comparator<ContextCompilation>()
+        {
+            public int compare( ContextCompilation o1, ContextCompilation o2 )
+            {
+                return Long.valueOf( o2.getMillis() ).compareTo( o1.getMillis() );
+            }
+        } );
+
+        int compiled = 0;
+        int failed = 0;
+
+        for( ContextCompilation compilation : compilations )
+        {
+            compiled += compilation.compiled.get();
+            failed += compilation.failures.size();
+
+            log.info( String.format( "  %-40s %6d ms, %5d JSPs, %4d failed", compilation.context.getName(),
+                                     compilation.getMillis(), compilation.compiled.get(),
+                                     compilation.failures.size() ) );
+        }
+
+        log.info( "Precompiled " + compiled + " JSPs of " + compilations.size() + " contexts in " + millis +
+            " ms with " + threads + " threads" + ( failed > 0 ? ", " + failed + " failed" : "" ) );
+
+        for( ContextCompilation compilation : compilations )
+        {
+            for( String failure : compilation.failures )
+            {
+                log.warn( "JSP compilation failed in " + compilation.context.getName() + ": " + failure );
+            }
+        }
+    }
+
+    /**
+     * The JSP servlet of a context and the progress of its compilation.
+     */
+    private static class ContextCompilation
+    {
+
+        private final Context context;
+
+        private final Wrapper wrapper;
+
+        private final Servlet jspServlet;
+
+        private final Object config;
+
+        private final Object options;
+
+        private final Object runtimeContext;
+
+        private final Constructor<?> wrapperConstructor;
+
+        private final AtomicInteger compiled = new AtomicInteger();
+
+        private final List<String> failures = Collections.synchronizedList( new ArrayList<String>() );
+
+        private final AtomicLong firstStart = new AtomicLong( Long.MAX_VALUE );
+
+        private final AtomicLong lastEnd = new AtomicLong();
+
+        ContextCompilation( Context context, Wrapper wrapper ) throws Exception
+        {
+            this.context = context;
+            this.wrapper = wrapper;
+
+            Servlet servlet = wrapper.allocate();
+
+            if( !JSP_SERVLET.equals( servlet.getClass().getName() ) )
+            {
+                wrapper.deallocate( servlet );
+
+                this.jspServlet = null;
+                this.config = null;
+                this.options = null;
+                this.runtimeContext = null;
+                this.wrapperConstructor = null;
+
+                return;
+            }
+
+            this.jspServlet = servlet;
+            this.config = field( servlet, "config" );
+            this.options = field( servlet, "options" );
+            this.runtimeContext = field( servlet, "rctxt" );
+
+            ClassLoader jasperLoader = servlet.getClass().getClassLoader();
+
+            this.wrapperConstructor = Class.forName( JSP_SERVLET_WRAPPER, true, jasperLoader ).getConstructor(
+                Class.forName( "javax.servlet.ServletConfig", false, jasperLoader ),
+                Class.forName( "org.apache.jasper.Options", false, jasperLoader ), String.class,
+                Class.forName( "org.apache.jasper.compiler.JspRuntimeContext", false, jasperLoader ) );
+        }
+
+        void compile( String jspUri )
+        {
+            long start = System.currentTimeMillis();
+
+            min( firstStart, start );
+
+            Thread thread = Thread.currentThread();
+            ClassLoader previous = thread.getContextClassLoader();
+
+            try
+            {
+                // what a request of the context would run with
+                thread.setContextClassLoader( context.getLoader().getClassLoader() );
+
+                Object servletWrapper = wrapperConstructor.newInstance( config, options, jspUri, runtimeContext );
+                Object compilationContext = servletWrapper.getClass().getMethod( "getJspEngineContext" ).invoke(
+                    servletWrapper );
+
+                compilationContext.getClass().getMethod( "compile" ).invoke( compilationContext );
+
+                compiled.incrementAndGet();
+            }
+            catch( InvocationTargetException e )
+            {
+                failures.add( jspUri + ": " + firstLine( e.getCause() ) );
+            }
+            catch( Exception e )
+            {
+                failures.add( jspUri + ": " + firstLine( e ) );
+            }
+            finally
+            {
+                thread.setContextClassLoader( previous );
+                max( lastEnd, System.currentTimeMillis() );
+            }
+        }
+
+        /**
+         * @return the time from the first compilation of the context starting to the last one ending
+         */
+        long getMillis()
+        {
+            return Math.max( 0, lastEnd.get() - firstStart.get() );
+        }
+
+        void release()
+        {
+            if( jspServlet != null )
+            {
+                try
+                {
+                    wrapper.deallocate( jspServlet );
+                }
+                catch( ServletException e )
+                {
+                    // the servlet stays allocated, nothing depends on the count for a JSP servlet
+                }
+            }
+        }
+
+        /**
+         * @return the first line of the message, Jasper appends the generated source to it
+         */
+        private static String firstLine( Throwable t )
+        {
+            String message = String.valueOf( t );
+            int newLine = message.indexOf( '\n' );
+
+            return newLine < 0 ? message : message.substring( 0, newLine ).trim();
+        }
+
+        private static Object field( Object target, String name ) throws Exception
+        {
+            for( Class<?> type = target.getClass(); type != null; type = type.getSuperclass() )
+            {
+                try
+                {
+                    Field field = type.getDeclaredField( name );
+                    field.setAccessible( true );
+
+                    return field.get( target );
+                }
+                catch( NoSuchFieldException e )
+                {
+                    // look in the super class
+                }
+            }
+
+            throw new NoSuchFieldException( name );
+        }
+
+        private static void min( AtomicLong value, long candidate )
+        {
+            long current;
+
+            while( candidate < ( current = value.get() ) && !value.compareAndSet( current, candidate ) )
+            {
+                // retry
+            }
+        }
+
+        private static void max( AtomicLong value, long candidate )
+        {
+            long current;
+
+            while( candidate > ( current = value.get() ) && !value.compareAndSet( current, candidate ) )
+            {
+                // retry
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A log-linear histogram of latencies in microseconds: 16 buckets for each power of two, so a recorded value is
+ * off by at most 1/16 of it. Recording is lock-free and allocates nothing, so it can be called on every request.
+ * The last bucket ends at 2<sup>37</sup> microseconds, about 38 hours, larger values count as that bucket.
+ */
+class LatencyHistogram
+{
+
+    private static final int SUB_BUCKET_BITS = 4;
+
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    private static final int MAX_EXPONENT = 36;
+
+    private static final int BUCKETS = ( MAX_EXPONENT - SUB_BUCKET_BITS + 2 ) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray( BUCKETS );
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    void record( long micros )
+    {
+        long value = Math.max( 0, micros );
+
+        counts.incrementAndGet( bucketOf( value ) );
+        count.incrementAndGet();
+        sum.addAndGet( value );
+
+        long currentMax;
+
+        while( value > ( currentMax = max.get() ) )
+        {
+            if( max.compareAndSet( currentMax, value ) )
+            {
+                break;
+            }
+        }
+    }
+
+    long getCount()
+    {
+        return count.get();
+    }
+
+    long getMax()
+    {
+        return max.get();
+    }
+
+    double getMean()
+    {
+        long n = count.get();
+
+        return n == 0 ? 0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @param percentile between <code>0</code> and <code>100</code>
+     * @return the upper bound of the bucket holding the percentile, not above the maximum, <code>0</code> when
+     *         nothing was recorded
+     */
+    long getPercentile( double percentile )
+    {
+        // a snapshot, counts recorded meanwhile may or may not be part of it
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            snapshot[i] = counts.get( i );
+            total += snapshot[i];
+        }
+
+        if( total == 0 )
+        {
+            return 0;
+        }
+
+        long rank = Math.max( 1, (long) Math.ceil( total * Math.min( 100, Math.max( 0, percentile ) ) / 100 ) );
+        long seen = 0;
+
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            seen += snapshot[i];
+
+            if( seen >= rank )
+            {
+                return Math.min( upperBoundOf( i ), max.get() );
+            }
+        }
+
+        return max.get();
+    }
+
+    /**
+     * Adds the values recorded here to another histogram.
+     */
+    void addTo( LatencyHistogram target )
+    {
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            long bucketCount = counts.get( i );
+
+            if( bucketCount > 0 )
+            {
+                target.counts.addAndGet( i, bucketCount );
+            }
+        }
+
+        target.count.addAndGet( count.get() );
+        target.sum.addAndGet( sum.get() );
+
+        long currentMax;
+
+        while( max.get() > ( currentMax = target.max.get() ) )
+        {
+            if( target.max.compareAndSet( currentMax, max.get() ) )
+            {
+                break;
+            }
+        }
+    }
+
+    void reset()
+    {
+        for( int i = 0; i < BUCKETS; i++ )
+        {
+            counts.set( i, 0 );
+        }
+
+        count.set( 0 );
+        sum.set( 0 );
+        max.set( 0 );
+    }
+
+    static int bucketOf( long value )
+    {
+        if( value < SUB_BUCKETS )
+        {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros( value );
+
+        if( exponent > MAX_EXPONENT )
+        {
+            return BUCKETS - 1;
+        }
+
+        int subBucket = (int) ( value >>> ( exponent - SUB_BUCKET_BITS ) ) & ( SUB_BUCKETS - 1 );
+
+        return ( exponent - SUB_BUCKET_BITS + 1 ) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBoundOf( int bucket )
+    {
+        if( bucket < SUB_BUCKETS )
+        {
+            return bucket;
+        }
+
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << ( exponent - SUB_BUCKET_BITS );
+
+        return ( ( SUB_BUCKETS + subBucket ) << ( exponent - SUB_BUCKET_BITS ) ) + width - 1;
+    }
+}
@@ -0,0 +1,304 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import javax.servlet.ServletException;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.LifecycleException;
+import org.apache.catalina.connector.Request;
+import org.apache.catalina.connector.Response;
+import org.apache.catalina.valves.ValveBase;
+import org.apache.juli.logging.Log;
+import org.apache.juli.logging.LogFactory;
+
+/**
+ * Keeps a {@link LatencyHistogram} of the request processing time per context and status class, cheap enough to
+ * stay on during load tests. The histograms can be read through JMX while the server runs, see
+ * {@link LatencyValveMBean}, and their percentiles are logged and written to the report directory when the valve
+ * stops or the JVM exits.
+ * <p>
+ * The time of an asynchronous request is the time until the container thread is released, like the
+ * <code>%D</code> of the access log.
+ */
+public class LatencyValve extends ValveBase implements LatencyValveMBean
+{
+
+    private static final Log log = LogFactory.getLog( LatencyValve.class );
+
+    private static final String[] STATUS_CLASSES = { "other", "1xx", "2xx", "3xx", "4xx", "5xx" };
+
+    /**
+     * Histograms of the requests that did not map to a context.
+     */
+    private static final String NO_CONTEXT = "(none)";
+
+    private final ConcurrentMap<String, LatencyHistogram[]> histograms =
+        new ConcurrentHashMap<String, LatencyHistogram[]>();
+
+    private File reportDir;
+
+    private ObjectName objectName;
+
+    private Thread shutdownHook;
+
+    public LatencyValve()
+    {
+        super( true );
+    }
+
+    /**
+     * @param reportDir where the percentiles are written when the valve stops, <code>null</code> to only log them
+     */
+    public void setReportDir( File reportDir )
+    {
+        this.reportDir = reportDir;
+    }
+
+    @Override
+    public void invoke( Request request, Response response ) throws IOException, ServletException
+    {
+        long start = System.nanoTime();
+
+        try
+        {
+            getNext().invoke( request, response );
+        }
+        finally
+        {
+            record( request.getContext(), response.getStatus(), ( System.nanoTime() - start ) / 1000 );
+        }
+    }
+
+    private void record( Context context, int status, long micros )
+    {
+        String contextName = context != null ? context.getName() : NO_CONTEXT;
+        LatencyHistogram[] byStatusClass = histograms.get( contextName );
+
+        if( byStatusClass == null )
+        {
+            byStatusClass = new LatencyHistogram[STATUS_CLASSES.length];
+
+            for( int i = 0; i < byStatusClass.length; i++ )
+            {
+                byStatusClass[i] = new LatencyHistogram();
+            }
+
+            LatencyHistogram[] existing = histograms.putIfAbsent( contextName, byStatusClass );
+
+            if( existing != null )
+            {
+                byStatusClass = existing;
+            }
+        }
+
+        int statusClass = status / 100;
+
+        byStatusClass[statusClass > 0 && statusClass < STATUS_CLASSES.length ? statusClass : 0].record( micros );
+    }
+
+    public String[] getContextNames()
+    {
+        return histograms.keySet().toArray( new String[0] );
+    }
+
+    public long getRequestCount( String contextName )
+    {
+        return merge( contextName ).getCount();
+    }
+
+    public double getPercentileMillis( String contextName, double percentile )
+    {
+        return merge( contextName ).getPercentile( percentile ) / 1000d;
+    }
+
+    public String getReport()
+    {
+        StringBuilder report = new StringBuilder();
+
+        report.append( String.format( "%-40s %-6s %10s %10s %10s %10s %10s %10s %10s%n", "context", "status",
+                                      "requests", "mean ms", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms" ) );
+
+        for( Map.Entry<String, LatencyHistogram[]> entry : new TreeMap<String, LatencyHistogram[]>( histograms )
+            .entrySet() )
+        {
+            for( int i = 0; i < STATUS_CLASSES.length; i++ )
+            {
+                appendLine( report, entry.getKey(), STATUS_CLASSES[i], entry.getValue()[i] );
+            }
+        }
+
+        appendLine( report, "all", "all", merge( null ) );
+
+        return report.toString();
+    }
+
+    public void reset()
+    {
+        for( LatencyHistogram[] byStatusClass : histograms.values() )
+        {
+            for( LatencyHistogram histogram : byStatusClass )
+            {
+                histogram.reset();
+            }
+        }
+    }
+
+    private static void appendLine( StringBuilder report, String contextName, String statusClass,
+                                    LatencyHistogram histogram )
+    {
+        if( histogram.getCount() == 0 )
+        {
+            return;
+        }
+
+        report.append( String.format( "%-40s %-6s %10d %10.1f %10.1f %10.1f %10.1f %10.1f %10.1f%n",
+                                      contextName.length() == 0 ? "/" : contextName, statusClass, histogram.getCount(),
+                                      histogram.getMean() / 1000, histogram.getPercentile( 50 ) / 1000d,
+                                      histogram.getPercentile( 90 ) / 1000d, histogram.getPercentile( 99 ) / 1000d,
+                                      histogram.getPercentile( 99.9 ) / 1000d, histogram.getMax() / 1000d ) );
+    }
+
+    /**
+     * @return all status classes of a context, or of all contexts for <code>null</code>
+     */
+    private LatencyHistogram merge( String contextName )
+    {
+        LatencyHistogram merged = new LatencyHistogram();
+
+        for( Map.Entry<String, LatencyHistogram[]> entry : histograms.entrySet() )
+        {
+            if( contextName == null || contextName.equals( entry.getKey() ) )
+            {
+                for( LatencyHistogram histogram : entry.getValue() )
+                {
+                    histogram.addTo( merged );
+                }
+            }
+        }
+
+        return merged;
+    }
+
+    @Override
+    protected void startInternal() throws LifecycleException
+    {
+        super.startInternal();
+
+        try
+        {
+            objectName = new ObjectName( "com.liferay.maven.plugins.tomcat7:type=LatencyValve,container=" +
+                                             ObjectName.quote( getContainer().getName() ) );
+            // not the valve itself, Tomcat registers it under its own name already
+            ManagementFactory.getPlatformMBeanServer().registerMBean(
+                new StandardMBean( this, LatencyValveMBean.class ), objectName );
+        }
+        catch( Exception e )
+        {
+            log.warn( "Could not register the latency histograms with JMX", e );
+            objectName = null;
+        }
+
+        shutdownHook = new Thread( "liferay-latency-report" )
+        {
+            @Override
+            public void run()
+            {
+                dump();
+            }
+        };
+
+        Runtime.getRuntime().addShutdownHook( shutdownHook );
+    }
+
+    @Override
+    protected void stopInternal() throws LifecycleException
+    {
+        if( shutdownHook != null )
+        {
+            try
+            {
+                Runtime.getRuntime().removeShutdownHook( shutdownHook );
+            }
+            catch( IllegalStateException e )
+            {
+                // the JVM is exiting, the hook dumps the histograms as well
+            }
+
+            shutdownHook = null;
+        }
+
+        dump();
+
+        if( objectName != null )
+        {
+            try
+            {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+            }
+            catch( Exception e )
+            {
+                log.debug( "Could not unregister " + objectName, e );
+            }
+
+            objectName = null;
+        }
+
+        super.stopInternal();
+    }
+
+    /**
+     * Logs the percentiles and writes them to the report directory, once per set of recorded requests.
+     */
+    private synchronized void dump()
+    {
+        if( merge( null ).getCount() == 0 )
+        {
+            return;
+        }
+
+        String report = getReport();
+
+        log.info( "Request latencies:\n" + report );
+
+        if( reportDir != null )
+        {
+            reportDir.mkdirs();
+
+            File reportFile = new File(
+                reportDir, "latency-" + new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() ) + ".txt" );
+
+            try
+            {
+                Writer out = new OutputStreamWriter( new FileOutputStream( reportFile ), "UTF-8" );
+
+                try
+                {
+                    out.write( report );
+                }
+                finally
+                {
+                    out.close();
+                }
+            }
+            catch( IOException e )
+            {
+                log.warn( "Could not write " + reportFile, e );
+            }
+        }
+
+        reset();
+    }
+}
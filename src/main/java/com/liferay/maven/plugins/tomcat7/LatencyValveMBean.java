@@ -0,0 +1,31 @@
+package com.liferay.maven.plugins.tomcat7;
+
+/**
+ * Reads the latency histograms of a {@link LatencyValve} while the server runs.
+ */
+public interface LatencyValveMBean
+{
+
+    /**
+     * @return the names of the contexts that served requests
+     */
+    String[] getContextNames();
+
+    /**
+     * @return the number of requests a context served, all contexts for <code>null</code>
+     */
+    long getRequestCount( String contextName );
+
+    /**
+     * @param percentile between <code>0</code> and <code>100</code>
+     * @return the latency in milliseconds of the requests of a context, all contexts for <code>null</code>
+     */
+    double getPercentileMillis( String contextName, double percentile );
+
+    /**
+     * @return the percentiles of all contexts and status classes as text
+     */
+    String getReport();
+
+    void reset();
+}
@@ -1,11 +1,28 @@
 package com.liferay.maven.plugins.tomcat7;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.naming.directory.DirContext;
 
+import org.apache.catalina.Container;
 import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.catalina.LifecycleListener;
 import org.apache.catalina.Loader;
 import org.apache.catalina.core.StandardContext;
 import org.apache.catalina.startup.ContextConfig;
+import org.apache.tomcat.JarScanner;
 import org.apache.tomcat.maven.plugin.tomcat7.run.ExtendedTomcat;
 
 
@@ -14,6 +31,33 @@ public class LiferayExtendedTomcat extends ExtendedTomcat
 
     private File configurationDir;
 
+    /**
+     * Contexts created while deferred start is enabled, they are not attached to the host until
+     * {@link #takeDeferredContexts()} hands them out.
+     */
+    private List<Context> deferredContexts;
+
+    /**
+     * Added to every context created through this instance.
+     */
+    private final List<LifecycleListener> contextListeners = new CopyOnWriteArrayList<LifecycleListener>();
+
+    /**
+     * Set on every context created through this instance, <code>null</code> for the default one.
+     */
+    private volatile JarScanner jarScanner;
+
+    private ScheduledExecutorService reloadScheduler;
+
+    private boolean reloadsStopped;
+
+    private final Map<String, ScheduledFuture<?>> pendingReloads = new HashMap<String, ScheduledFuture<?>>();
+
+    /**
+     * The loggers {@link #silence(Host, String)} set the level of, a logger that is garbage collected loses it.
+     */
+    private final List<Logger> silencedLoggers = new CopyOnWriteArrayList<Logger>();
+
 
     public LiferayExtendedTomcat( File configurationDir )
     {
@@ -22,10 +66,112 @@ public class LiferayExtendedTomcat extends ExtendedTomcat
     }
 
 
+    /**
+     * When enabled, contexts created through {@link #addWebapp(Host, String, String, String)},
+     * {@link #addContext(Host, String, String, String)} and {@link #hotDeployWebapp(String, String, Loader)}
+     * are kept aside instead of being added to the host, so the caller decides when and on which thread they start.
+     */
+    public synchronized void setDeferContextStart( boolean deferContextStart )
+    {
+        if( deferContextStart )
+        {
+            if( deferredContexts == null )
+            {
+                deferredContexts = new ArrayList<Context>();
+            }
+        }
+        else
+        {
+            deferredContexts = null;
+        }
+    }
+
+    /**
+     * Adds a listener to every context created from now on.
+     */
+    public void addContextLifecycleListener( LifecycleListener listener )
+    {
+        contextListeners.add( listener );
+    }
+
+    /**
+     * Sets the scanner of the jars of every context created from now on, <code>null</code> for the default one.
+     */
+    public void setJarScanner( JarScanner jarScanner )
+    {
+        this.jarScanner = jarScanner;
+    }
+
+    /**
+     * @return the contexts deferred so far, in creation order, the list is cleared afterwards
+     */
+    public synchronized List<Context> takeDeferredContexts()
+    {
+        if( deferredContexts == null )
+        {
+            return new ArrayList<Context>();
+        }
+
+        List<Context> contexts = new ArrayList<Context>( deferredContexts );
+        deferredContexts.clear();
+
+        return contexts;
+    }
+
+    @Override
+    public Context addWebapp( Host host, String url, String name, String path )
+    {
+        silence( host, url );
+
+        Context ctx = new StandardContext();
+        ctx.setName( name );
+        ctx.setPath( url );
+        ctx.setDocBase( path );
+
+        ContextConfig ctxCfg = new ContextConfig();
+        ctx.addLifecycleListener( ctxCfg );
+
+        ctxCfg.setDefaultWebXml( new File( configurationDir, "conf/web.xml" ).getAbsolutePath() );
+
+        attachContext( host, ctx );
+
+        return ctx;
+    }
+
+    @Override
+    public Context addContext( Host host, String contextPath, String contextName, String dir )
+    {
+        silence( host, contextPath );
+
+        Context ctx = new StandardContext();
+        ctx.setName( contextName );
+        ctx.setPath( contextPath );
+        ctx.setDocBase( dir );
+        ctx.addLifecycleListener( new FixContextListener() );
+
+        attachContext( host, ctx );
+
+        return ctx;
+    }
+
     public Context hotDeployWebapp( String name, String path, Loader loader )
+    {
+        return hotDeployWebapp( name, path, loader, null );
+    }
+
+    /**
+     * @param resources the resources of the context, <code>null</code> for the default ones of its docBase
+     */
+    public Context hotDeployWebapp( String name, String path, Loader loader, DirContext resources )
     {
         Context ctx = new StandardContext();
         ctx.setLoader( loader );
+
+        if( resources != null )
+        {
+            ctx.setResources( resources );
+        }
+
         ctx.setName( name );
         ctx.setPath( name );
         ctx.setDocBase( path );
@@ -35,8 +181,164 @@ public class LiferayExtendedTomcat extends ExtendedTomcat
 
         ctxCfg.setDefaultWebXml( new File( configurationDir, "conf/web.xml" ).getAbsolutePath() );
 
-        getHost().addChild( ctx );
+        attachContext( null, ctx );
 
         return ctx;
     }
+
+    /**
+     * Removes a context deployed with {@link #hotDeployWebapp(String, String, Loader)}. The host stops and destroys
+     * it, which stops its loader and drops the web application class loader.
+     *
+     * @return <code>false</code> when there is no such context
+     */
+    public boolean undeployWebapp( String name )
+    {
+        cancelReload( name );
+
+        Container child = getHost().findChild( name );
+
+        if( child == null )
+        {
+            return false;
+        }
+
+        getHost().removeChild( child );
+
+        if( child instanceof Context )
+        {
+            // don't keep the stopped loader, and with it the class loader, reachable through the context
+            ( (Context) child ).setLoader( null );
+        }
+
+        return true;
+    }
+
+    /**
+     * Reloads a context in place once no other reload of it was requested for <code>delayMillis</code>, so a burst
+     * of changes costs one restart of that context.
+     *
+     * @param callback run after the reload, may be <code>null</code>
+     * @return <code>false</code> when there is no such context
+     */
+    public synchronized boolean scheduleReload( final String name, long delayMillis, final Runnable callback )
+    {
+        final Container child = getHost().findChild( name );
+
+        if( reloadsStopped || !( child instanceof Context ) )
+        {
+            return false;
+        }
+
+        if( reloadScheduler == null )
+        {
+            reloadScheduler = Executors.newSingleThreadScheduledExecutor( new ThreadFactory()
+            {
+                public Thread newThread( Runnable runnable )
+                {
+                    Thread thread = new Thread( runnable, "liferay-context-reload" );
+                    thread.setDaemon( true );
+                    return thread;
+                }
+            } );
+        }
+
+        cancelReload( name );
+
+        pendingReloads.put( name, reloadScheduler.schedule( new Runnable()
+        {
+            public void run()
+            {
+                synchronized( LiferayExtendedTomcat.this )
+                {
+                    pendingReloads.remove( name );
+                }
+
+                ( (Context) child ).reload();
+
+                if( callback != null )
+                {
+                    callback.run();
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS ) );
+
+        return true;
+    }
+
+    /**
+     * Cancels the pending reloads and stops the thread running them, no reload is scheduled afterwards.
+     */
+    public synchronized void stopReloads()
+    {
+        reloadsStopped = true;
+
+        for( ScheduledFuture<?> pendingReload : pendingReloads.values() )
+        {
+            pendingReload.cancel( false );
+        }
+
+        pendingReloads.clear();
+
+        if( reloadScheduler != null )
+        {
+            reloadScheduler.shutdown();
+            reloadScheduler = null;
+        }
+    }
+
+    private synchronized void cancelReload( String name )
+    {
+        ScheduledFuture<?> pendingReload = pendingReloads.remove( name );
+
+        if( pendingReload != null )
+        {
+            pendingReload.cancel( false );
+        }
+    }
+
+    /**
+     * Only logs warnings of the container of the context, like the methods of
+     * {@link org.apache.catalina.startup.Tomcat} these override do. Its own method is private.
+     */
+    private void silence( Host host, String contextPath )
+    {
+        Logger logger = Logger.getLogger( "org.apache.catalina.core.ContainerBase.[default].[" +
+            ( host == null ? getHost() : host ).getName() + "].[" + contextPath + "]" );
+        logger.setLevel( Level.WARNING );
+
+        silencedLoggers.add( logger );
+    }
+
+    private void attachContext( Host host, Context ctx )
+    {
+        for( LifecycleListener listener : contextListeners )
+        {
+            ctx.addLifecycleListener( listener );
+        }
+
+        if( jarScanner != null )
+        {
+            ctx.setJarScanner( jarScanner );
+        }
+
+        synchronized( this )
+        {
+            if( deferredContexts != null )
+            {
+                deferredContexts.add( ctx );
+                return;
+            }
+        }
+
+        // adding a child to a started host starts it, so don't hold the lock here
+        if( host == null )
+        {
+            getHost().addChild( ctx );
+        }
+        else
+        {
+            host.addChild( ctx );
+        }
+    }
 }
@@ -0,0 +1,29 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import org.apache.tomcat.maven.plugin.tomcat7.run.Webapp;
+
+/**
+ * A {@link Webapp} entry of <code>webapps</code> or <code>liferayPlugins</code> with the run-liferay specific
+ * options.
+ *
+ * @since 1.0
+ */
+public class LiferayWebapp extends Webapp
+{
+
+    /**
+     * Whether to extract the war to the webapps directory or run the context straight from the war file.
+     * When not set the <code>unpackWars</code> setting of the mojo applies.
+     */
+    private Boolean unpackWar;
+
+    public Boolean getUnpackWar()
+    {
+        return unpackWar;
+    }
+
+    public void setUnpackWar( Boolean unpackWar )
+    {
+        this.unpackWar = unpackWar;
+    }
+}
@@ -0,0 +1,431 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Sends HTTP requests to a set of URLs, in turn, and records their latencies in a {@link LatencyHistogram}.
+ * <ul>
+ * <li>A closed loop runs a fixed number of clients that each send the next request once the previous one completed,
+ * so the load follows the speed of the server.</li>
+ * <li>An open loop sends requests at a fixed rate whatever the server does. The latency of a request is measured
+ * from the time it was due, so requests waiting for a free client count as slow rather than not at all.</li>
+ * </ul>
+ * Requests started during the ramp up are sent but not recorded. Requests still queued or running a read timeout
+ * after the end count as errors. HTTPS certificates are not verified, the server is a local development server.
+ */
+class LoadGenerator
+{
+
+    static final String MODEL_CLOSED = "closed";
+
+    static final String MODEL_OPEN = "open";
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    private static final int READ_TIMEOUT = 60000;
+
+    private final List<URL> urls;
+
+    private final int concurrency;
+
+    private final Log log;
+
+    private final AtomicLong next = new AtomicLong();
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    private final AtomicLong errors = new AtomicLong();
+
+    /**
+     * The recorded requests that are due but not completed, negative once the outstanding ones are given up.
+     */
+    private final AtomicLong outstanding = new AtomicLong();
+
+    private SSLSocketFactory sslSocketFactory;
+
+    /**
+     * @param concurrency the number of clients of a closed loop, at most how many requests of an open loop are
+     *            outstanding
+     */
+    LoadGenerator( List<URL> urls, int concurrency, Log log )
+    {
+        this.urls = urls;
+        this.concurrency = concurrency;
+        this.log = log;
+    }
+
+    /**
+     * @param thinkTimeMillis how long a client waits between a response and its next request
+     * @return the recorded requests
+     */
+    Result runClosed( long durationMillis, long rampUpMillis, final long thinkTimeMillis )
+        throws MojoExecutionException
+    {
+        final long start = System.nanoTime();
+        final long measureStart = start + TimeUnit.MILLISECONDS.toNanos( rampUpMillis );
+        final long end = measureStart + TimeUnit.MILLISECONDS.toNanos( durationMillis );
+
+        ExecutorService clients = newClients();
+
+        for( int i = 0; i < concurrency; i++ )
+        {
+            clients.execute( new Runnable()
+            {
+                public void run()
+                {
+                    long requestStart;
+
+                    while( ( requestStart = System.nanoTime() ) < end && !Thread.currentThread().isInterrupted() )
+                    {
+                        boolean record = requestStart >= measureStart;
+
+                        if( record )
+                        {
+                            outstanding.incrementAndGet();
+                        }
+
+                        send( requestStart, record );
+
+                        if( thinkTimeMillis > 0 )
+                        {
+                            LockSupport.parkNanos( TimeUnit.MILLISECONDS.toNanos( thinkTimeMillis ) );
+                        }
+                    }
+                }
+            } );
+        }
+
+        awaitClients( clients, end );
+
+        return new Result( MODEL_CLOSED, histogram, errors.get(), TimeUnit.NANOSECONDS.toMillis( end - measureStart ) );
+    }
+
+    /**
+     * @param requestsPerSecond the arrival rate
+     * @return the recorded requests
+     */
+    Result runOpen( double requestsPerSecond, long durationMillis, long rampUpMillis ) throws MojoExecutionException
+    {
+        long start = System.nanoTime();
+        long measureStart = start + TimeUnit.MILLISECONDS.toNanos( rampUpMillis );
+        long end = measureStart + TimeUnit.MILLISECONDS.toNanos( durationMillis );
+        double interval = TimeUnit.SECONDS.toNanos( 1 ) / requestsPerSecond;
+
+        ExecutorService clients = newClients();
+
+        for( long i = 0; ; i++ )
+        {
+            final long due = start + (long) ( i * interval );
+
+            if( due >= end )
+            {
+                break;
+            }
+
+            long wait;
+
+            while( ( wait = due - System.nanoTime() ) > 0 )
+            {
+                LockSupport.parkNanos( wait );
+            }
+
+            final boolean record = due >= measureStart;
+
+            if( record )
+            {
+                outstanding.incrementAndGet();
+            }
+
+            // queues when all clients are busy, the wait counts towards the latency
+            clients.execute( new Runnable()
+            {
+                public void run()
+                {
+                    send( due, record );
+                }
+            } );
+        }
+
+        awaitClients( clients, end );
+
+        return new Result( MODEL_OPEN, histogram, errors.get(), TimeUnit.NANOSECONDS.toMillis( end - measureStart ) );
+    }
+
+    private void send( long due, boolean record )
+    {
+        URL url = urls.get( (int) ( next.getAndIncrement() % urls.size() ) );
+        boolean failed;
+
+        try
+        {
+            failed = fetch( url ) >= 400;
+        }
+        catch( IOException e )
+        {
+            log.debug( "Request to " + url + " failed: " + e.getMessage() );
+            failed = true;
+        }
+
+        if( !record || !complete() )
+        {
+            return;
+        }
+
+        if( failed )
+        {
+            errors.incrementAndGet();
+        }
+        else
+        {
+            histogram.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - due ) );
+        }
+    }
+
+    /**
+     * @return <code>false</code> when the request was given up and already counted as an error
+     */
+    private boolean complete()
+    {
+        long count;
+
+        do
+        {
+            count = outstanding.get();
+
+            if( count <= 0 )
+            {
+                return false;
+            }
+        }
+        while( !outstanding.compareAndSet( count, count - 1 ) );
+
+        return true;
+    }
+
+    /**
+     * Reads the whole response without disconnecting, so the connection is kept alive for the next request.
+     *
+     * @return the status
+     */
+    private int fetch( URL url ) throws IOException
+    {
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout( CONNECT_TIMEOUT );
+        connection.setReadTimeout( READ_TIMEOUT );
+
+        if( connection instanceof HttpsURLConnection )
+        {
+            trustAll( (HttpsURLConnection) connection );
+        }
+
+        int status = connection.getResponseCode();
+        InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+        if( in != null )
+        {
+            try
+            {
+                byte[] buffer = new byte[8192];
+
+                while( in.read( buffer ) != -1 )
+                {
+                    // discard
+                }
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        return status;
+    }
+
+    private synchronized void trustAll( HttpsURLConnection connection ) throws IOException
+    {
+        if( sslSocketFactory == null )
+        {
+            try
+            {
+                SSLContext sslContext = SSLContext.getInstance( "TLS" );
+                sslContext.init( null, new TrustManager[] { new X509TrustManager()
+                {
+                    public void checkClientTrusted( X509Certificate[] chain, String authType )
+                    {
+                    }
+
+                    public void checkServerTrusted( X509Certificate[] chain, String authType )
+                    {
+                    }
+
+                    public X509Certificate[] getAcceptedIssuers()
+                    {
+                        return new X509Certificate[0];
+                    }
+                } }, null );
+
+                sslSocketFactory = sslContext.getSocketFactory();
+            }
+            catch( GeneralSecurityException e )
+            {
+                throw new IOException( "Could not create the SSL context", e );
+            }
+        }
+
+        connection.setSSLSocketFactory( sslSocketFactory );
+        connection.setHostnameVerifier( new HostnameVerifier()
+        {
+            public boolean verify( String hostname, SSLSession session )
+            {
+                return true;
+            }
+        } );
+    }
+
+    private ExecutorService newClients()
+    {
+        return Executors.newFixedThreadPool( concurrency, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "liferay-load-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Waits for the outstanding requests, at most a read timeout past the end. The requests still queued or running
+     * then are given up and counted as errors, an open loop would otherwise lose the slowest of them.
+     */
+    private void awaitClients( ExecutorService clients, long end ) throws MojoExecutionException
+    {
+        clients.shutdown();
+
+        try
+        {
+            long wait = end - System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( READ_TIMEOUT );
+
+            if( !clients.awaitTermination( Math.max( 0, wait ), TimeUnit.NANOSECONDS ) )
+            {
+                clients.shutdownNow();
+
+                // from here on the requests completing late are not recorded
+                long givenUp = Math.max( 0, outstanding.getAndSet( -1 ) );
+                errors.addAndGet( givenUp );
+
+                log.warn( givenUp + " requests still outstanding after the load test, they count as errors" );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            clients.shutdownNow();
+            throw new MojoExecutionException( "interrupted during the load test", e );
+        }
+    }
+
+    /**
+     * The throughput and latencies of the recorded requests.
+     */
+    static class Result
+    {
+
+        static final String[] LATENCY_KEYS = { "p50", "p90", "p99", "p99.9" };
+
+        private static final double[] PERCENTILES = { 50, 90, 99, 99.9 };
+
+        private final String model;
+
+        private final LatencyHistogram histogram;
+
+        private final long errors;
+
+        private final long elapsedMillis;
+
+        Result( String model, LatencyHistogram histogram, long errors, long elapsedMillis )
+        {
+            this.model = model;
+            this.histogram = histogram;
+            this.errors = errors;
+            this.elapsedMillis = elapsedMillis;
+        }
+
+        long getRequests()
+        {
+            return histogram.getCount() + errors;
+        }
+
+        long getErrors()
+        {
+            return errors;
+        }
+
+        double getThroughput()
+        {
+            return elapsedMillis == 0 ? 0 : histogram.getCount() * 1000d / elapsedMillis;
+        }
+
+        /**
+         * @return the report, latencies in milliseconds
+         */
+        Properties toProperties()
+        {
+            Properties properties = new Properties();
+            properties.setProperty( "model", model );
+            properties.setProperty( "requests", Long.toString( getRequests() ) );
+            properties.setProperty( "errors", Long.toString( errors ) );
+            properties.setProperty( "durationMillis", Long.toString( elapsedMillis ) );
+            properties.setProperty( "throughput", String.format( Locale.ENGLISH, "%.2f", getThroughput() ) );
+            properties.setProperty( "mean", String.format( Locale.ENGLISH, "%.3f", histogram.getMean() / 1000 ) );
+
+            for( int i = 0; i < PERCENTILES.length; i++ )
+            {
+                properties.setProperty( LATENCY_KEYS[i], String.format( Locale.ENGLISH, "%.3f",
+                                                                        histogram.getPercentile( PERCENTILES[i] ) / 1000d ) );
+            }
+
+            properties.setProperty( "max", String.format( Locale.ENGLISH, "%.3f", histogram.getMax() / 1000d ) );
+
+            return properties;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format( "%s loop: %d requests, %d errors, %.1f requests/s, mean %.1f ms, p50 %.1f ms, "
+                + "p90 %.1f ms, p99 %.1f ms, p99.9 %.1f ms, max %.1f ms", model, getRequests(), errors,
+                                  getThroughput(), histogram.getMean() / 1000, histogram.getPercentile( 50 ) / 1000d,
+                                  histogram.getPercentile( 90 ) / 1000d, histogram.getPercentile( 99 ) / 1000d,
+                                  histogram.getPercentile( 99.9 ) / 1000d, histogram.getMax() / 1000d );
+        }
+    }
+}
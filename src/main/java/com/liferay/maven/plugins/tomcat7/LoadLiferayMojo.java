@@ -0,0 +1,392 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+/**
+ * Sends HTTP load to a server started by <code>run-liferay</code>, on the ports it published in
+ * <code>tomcat.maven.http.port</code> and <code>tomcat.maven.https.port</code>, and writes the throughput and latency
+ * percentiles to a report. With a {@link #baseline} report the build fails when the results regressed.
+ */
+@Mojo( name = "load-liferay", threadSafe = true )
+public class LoadLiferayMojo extends AbstractMojo
+{
+
+    /**
+     * The paths or absolute URLs to request, in turn.
+     *
+     * @since 1.0
+     */
+    @Parameter
+    private List<String> urls;
+
+    /**
+     * The host of the server.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.host", defaultValue = "localhost" )
+    private String host;
+
+    /**
+     * The port to send the load to. By default the <code>tomcat.maven.http.port</code>, or
+     * <code>tomcat.maven.https.port</code> with {@link #https}, of this build, of the system properties or of the
+     * {@link #propertiesPortFilePath} file, in that order.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.port", defaultValue = "0" )
+    private int port;
+
+    /**
+     * Whether to send the load to the HTTPS port. The certificate of the server is not verified.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.https", defaultValue = "false" )
+    private boolean https;
+
+    /**
+     * The file <code>run-liferay</code> wrote its ports to.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.propertiesPortFilePath" )
+    private String propertiesPortFilePath;
+
+    /**
+     * <ul>
+     * <li><code>closed</code> - {@link #concurrency} clients each send a request as soon as the previous one completed
+     * and the {@link #thinkTime} passed</li>
+     * <li><code>open</code> - requests are sent at {@link #rate} per second, whatever the response times, up to
+     * {@link #concurrency} at a time</li>
+     * </ul>
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.model", defaultValue = LoadGenerator.MODEL_CLOSED )
+    private String model;
+
+    /**
+     * The number of clients.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.concurrency", defaultValue = "10" )
+    private int concurrency;
+
+    /**
+     * The requests per second of the <code>open</code> model.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.rate", defaultValue = "50" )
+    private double rate;
+
+    /**
+     * The milliseconds a client of the <code>closed</code> model waits between requests.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.thinkTime", defaultValue = "0" )
+    private long thinkTime;
+
+    /**
+     * The seconds the load is sent for before the requests are recorded.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.rampUp", defaultValue = "5" )
+    private int rampUp;
+
+    /**
+     * The seconds the requests are recorded for.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.duration", defaultValue = "30" )
+    private int duration;
+
+    /**
+     * Where the report is written, as properties: the number of requests and errors, the throughput in requests per
+     * second and the latencies in milliseconds.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.report", defaultValue = "${project.build.directory}/load-report.properties" )
+    private File report;
+
+    /**
+     * A report of an earlier run to compare with. The build fails when the throughput is lower, or a latency
+     * percentile higher, by more than {@link #maxRegression} percent. It must be a report of the same {@link #model}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.baseline" )
+    private File baseline;
+
+    /**
+     * How many percent the results may be worse than the {@link #baseline}.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.maxRegression", defaultValue = "10" )
+    private double maxRegression;
+
+    /**
+     * How many percent of the requests may fail before the build fails.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.maxErrors", defaultValue = "1" )
+    private double maxErrors;
+
+    /**
+     * Skip the load test.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.load.skip", defaultValue = "false" )
+    private boolean skip;
+
+    @Parameter( defaultValue = "${session}", readonly = true, required = true )
+    private MavenSession session;
+
+    public void execute() throws MojoExecutionException, MojoFailureException
+    {
+        if( skip )
+        {
+            getLog().info( "Skip execution" );
+            return;
+        }
+
+        List<URL> targets = getTargets();
+        LoadGenerator generator = new LoadGenerator( targets, concurrency, getLog() );
+        LoadGenerator.Result result;
+
+        getLog().info( "Sending " + model + " loop load to " + targets.size() + " URLs on " + targets.get( 0 ).getHost() +
+            ":" + targets.get( 0 ).getPort() + " for " + rampUp + "+" + duration + " seconds" );
+
+        if( LoadGenerator.MODEL_CLOSED.equals( model ) )
+        {
+            result = generator.runClosed( TimeUnit.SECONDS.toMillis( duration ), TimeUnit.SECONDS.toMillis( rampUp ),
+                                          thinkTime );
+        }
+        else if( LoadGenerator.MODEL_OPEN.equals( model ) )
+        {
+            if( rate <= 0 )
+            {
+                throw new MojoExecutionException( "The rate of the open model must be positive" );
+            }
+
+            result = generator.runOpen( rate, TimeUnit.SECONDS.toMillis( duration ), TimeUnit.SECONDS.toMillis( rampUp ) );
+        }
+        else
+        {
+            throw new MojoExecutionException( "Unknown load model " + model + ", use " + LoadGenerator.MODEL_CLOSED +
+                " or " + LoadGenerator.MODEL_OPEN );
+        }
+
+        getLog().info( result.toString() );
+
+        Properties results = result.toProperties();
+
+        writeReport( results );
+
+        List<String> failures = new ArrayList<String>();
+
+        if( result.getErrors() * 100d > maxErrors * result.getRequests() )
+        {
+            failures.add( result.getErrors() + " of " + result.getRequests() + " requests failed" );
+        }
+
+        if( baseline != null )
+        {
+            compare( results, readBaseline(), failures );
+        }
+
+        if( !failures.isEmpty() )
+        {
+            for( String failure : failures )
+            {
+                getLog().error( failure );
+            }
+
+            throw new MojoFailureException( "The load test failed, see " + report );
+        }
+    }
+
+    private List<URL> getTargets() throws MojoExecutionException
+    {
+        URL base;
+
+        try
+        {
+            base = new URL( https ? "https" : "http", host, port > 0 ? port : getPublishedPort(), "/" );
+        }
+        catch( MalformedURLException e )
+        {
+            throw new MojoExecutionException( e.getMessage(), e );
+        }
+
+        List<URL> targets = new ArrayList<URL>();
+
+        for( String url : urls == null || urls.isEmpty() ? Collections.singletonList( "/" ) : urls )
+        {
+            try
+            {
+                targets.add( new URL( base, url ) );
+            }
+            catch( MalformedURLException e )
+            {
+                throw new MojoExecutionException( "Invalid load test URL " + url, e );
+            }
+        }
+
+        return targets;
+    }
+
+    private int getPublishedPort() throws MojoExecutionException
+    {
+        String key = https ? "tomcat.maven.https.port" : "tomcat.maven.http.port";
+        String value = session.getExecutionProperties().getProperty( key );
+
+        if( value == null )
+        {
+            value = System.getProperty( key );
+        }
+
+        if( value == null && propertiesPortFilePath != null && new File( propertiesPortFilePath ).exists() )
+        {
+            value = load( new File( propertiesPortFilePath ) ).getProperty( key );
+        }
+
+        if( value == null )
+        {
+            throw new MojoExecutionException( "No " + key + " published, start the server with run-liferay first or "
+                + "configure the port" );
+        }
+
+        return Integer.parseInt( value.trim() );
+    }
+
+    private void writeReport( Properties results ) throws MojoExecutionException
+    {
+        report.getParentFile().mkdirs();
+
+        OutputStream out = null;
+
+        try
+        {
+            out = new FileOutputStream( report );
+            results.store( out, "Load test results, latencies in milliseconds" );
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "Could not write " + report, e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( out );
+        }
+
+        getLog().info( "Load test report written to " + report );
+    }
+
+    private Properties readBaseline() throws MojoExecutionException
+    {
+        if( !baseline.exists() )
+        {
+            throw new MojoExecutionException( "The baseline " + baseline + " does not exist" );
+        }
+
+        return load( baseline );
+    }
+
+    /**
+     * Adds a failure for the throughput and each latency percentile that regressed by more than allowed.
+     *
+     * @throws MojoExecutionException when the baseline was measured with another load model, the results of a
+     *                                closed and an open loop can't be compared
+     */
+    private void compare( Properties results, Properties baselineResults, List<String> failures )
+        throws MojoExecutionException
+    {
+        String baselineModel = baselineResults.getProperty( "model" );
+
+        if( !results.getProperty( "model" ).equals( baselineModel ) )
+        {
+            throw new MojoExecutionException( "The baseline " + baseline + " was measured with the " + baselineModel +
+                " model, not the " + results.getProperty( "model" ) + " model" );
+        }
+
+        double throughput = Double.parseDouble( results.getProperty( "throughput" ) );
+        double baselineThroughput = Double.parseDouble( baselineResults.getProperty( "throughput", "0" ) );
+
+        if( throughput < baselineThroughput * ( 1 - maxRegression / 100 ) )
+        {
+            failures.add( String.format( "The throughput dropped from %.1f to %.1f requests/s", baselineThroughput,
+                                         throughput ) );
+        }
+
+        for( String key : LoadGenerator.Result.LATENCY_KEYS )
+        {
+            String baselineValue = baselineResults.getProperty( key );
+
+            if( baselineValue == null )
+            {
+                continue;
+            }
+
+            double latency = Double.parseDouble( results.getProperty( key ) );
+            double baselineLatency = Double.parseDouble( baselineValue );
+
+            if( latency > baselineLatency * ( 1 + maxRegression / 100 ) )
+            {
+                failures.add( String.format( "The %s latency rose from %.1f to %.1f ms", key, baselineLatency,
+                                             latency ) );
+            }
+        }
+    }
+
+    private static Properties load( File file ) throws MojoExecutionException
+    {
+        Properties properties = new Properties();
+        InputStream in = null;
+
+        try
+        {
+            in = new FileInputStream( file );
+            properties.load( in );
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "Could not read " + file, e );
+        }
+        finally
+        {
+            IOUtils.closeQuietly( in );
+        }
+
+        return properties;
+    }
+}
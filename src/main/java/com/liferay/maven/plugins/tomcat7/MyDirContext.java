@@ -0,0 +1,248 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.naming.NamingException;
+import javax.naming.directory.Attributes;
+
+import org.apache.maven.plugin.logging.Log;
+import org.apache.naming.NamingEntry;
+import org.apache.naming.resources.FileDirContext;
+
+/**
+ * The resources of a direct deployed plugin: its docBase, with <code>/WEB-INF/classes</code> listing the build
+ * output directory of the plugin.
+ * <p>
+ * Optionally keeps the results of attribute lookups, listings and lookups of missing resources in a bounded least
+ * recently used cache. Unlike the time to live cache of the {@link org.apache.naming.resources.ProxyDirContext} in
+ * front of it, the cache is never stale: it has to be {@link #invalidate() invalidated} whenever the docBase or the
+ * output directory change.
+ */
+class MyDirContext extends SharedLibDirContext
+{
+
+    private static final Object MISSING = new Object();
+
+    private final String buildOutputDirectory;
+
+    private final Map<String, Object> cache;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Also the generation of the cache: a lookup that started before an invalidation must not store its result.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final Log log;
+
+    private FileDirContext outputDirContext;
+
+    /**
+     * @param cacheSize  the maximum number of cached lookups, <code>0</code> to look up everything on the file system
+     * @param sharedLibs the jars to hide from <code>WEB-INF/lib</code>, may be <code>null</code>
+     * @param log        where the hit rate is reported when the context is released, may be <code>null</code>
+     */
+    MyDirContext( String buildOutputDirectory, final int cacheSize, SharedLibs sharedLibs, Log log )
+    {
+        super( sharedLibs );
+
+        this.buildOutputDirectory = buildOutputDirectory;
+        this.log = log;
+
+        if( cacheSize > 0 )
+        {
+            this.cache = Collections.synchronizedMap( new LinkedHashMap<String, Object>( 16, 0.75f, true )
+            {
+                @Override
+                protected boolean removeEldestEntry( Map.Entry<String, Object> eldest )
+                {
+                    return size() > cacheSize;
+                }
+            } );
+        }
+        else
+        {
+            this.cache = null;
+        }
+    }
+
+    /**
+     * Forgets all cached lookups, called for every change in the docBase or the output directory.
+     */
+    void invalidate()
+    {
+        if( cache != null )
+        {
+            synchronized( cache )
+            {
+                invalidations.incrementAndGet();
+                cache.clear();
+            }
+        }
+    }
+
+    @Override
+    protected Object doLookup( String name )
+    {
+        // only misses are cached, found resources are cached by the proxy in front of this context
+        String key = "lookup:" + name;
+
+        if( cached( key ) != null )
+        {
+            return null;
+        }
+
+        long generation = invalidations.get();
+        Object result = super.doLookup( name );
+
+        if( result == null )
+        {
+            store( key, MISSING, generation );
+        }
+
+        return result;
+    }
+
+    @Override
+    protected Attributes doGetAttributes( String name, String[] attrIds ) throws NamingException
+    {
+        if( attrIds != null )
+        {
+            return super.doGetAttributes( name, attrIds );
+        }
+
+        String key = "attributes:" + name;
+        Object cached = cached( key );
+
+        if( cached != null )
+        {
+            return cached == MISSING ? null : (Attributes) cached;
+        }
+
+        long generation = invalidations.get();
+        Attributes attributes = super.doGetAttributes( name, null );
+
+        store( key, attributes == null ? MISSING : attributes, generation );
+
+        return attributes;
+    }
+
+    @Override
+    @SuppressWarnings( "unchecked" )
+    protected List<NamingEntry> doListBindings( String name ) throws NamingException
+    {
+        String key = "bindings:" + name;
+        Object cached = cached( key );
+
+        if( cached != null )
+        {
+            return cached == MISSING ? null : (List<NamingEntry>) cached;
+        }
+
+        long generation = invalidations.get();
+        List<NamingEntry> bindings;
+
+        if( "/WEB-INF/classes".equals( name ) )
+        {
+            bindings = listOutputDirectory();
+        }
+        else
+        {
+            bindings = super.doListBindings( name );
+        }
+
+        store( key, bindings == null ? MISSING : Collections.unmodifiableList( bindings ), generation );
+
+        return bindings;
+    }
+
+    private List<NamingEntry> listOutputDirectory()
+    {
+        if( !new File( buildOutputDirectory ).exists() )
+        {
+            return Collections.emptyList();
+        }
+
+        synchronized( this )
+        {
+            if( outputDirContext == null )
+            {
+                outputDirContext = new FileDirContext();
+                outputDirContext.setDocBase( buildOutputDirectory );
+            }
+        }
+
+        NamingEntry namingEntry = new NamingEntry( "/WEB-INF/classes", outputDirContext, -1 );
+        return Collections.singletonList( namingEntry );
+    }
+
+    private Object cached( String key )
+    {
+        if( cache == null )
+        {
+            return null;
+        }
+
+        Object cached = cache.get( key );
+
+        if( cached != null )
+        {
+            hits.incrementAndGet();
+        }
+        else
+        {
+            misses.incrementAndGet();
+        }
+
+        return cached;
+    }
+
+    /**
+     * @param generation the generation read before the lookup, the result is dropped when the cache was invalidated
+     *                   since, it may predate the change
+     */
+    private void store( String key, Object value, long generation )
+    {
+        if( cache != null )
+        {
+            // the synchronized map locks on itself, so this is atomic with invalidate()
+            synchronized( cache )
+            {
+                if( invalidations.get() == generation )
+                {
+                    cache.put( key, value );
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the share of cached lookups, between <code>0</code> and <code>1</code>
+     */
+    double getHitRate()
+    {
+        long lookups = hits.get() + misses.get();
+
+        return lookups == 0 ? 0 : (double) hits.get() / lookups;
+    }
+
+    @Override
+    public void release()
+    {
+        if( cache != null && log != null && log.isInfoEnabled() )
+        {
+            log.info( String.format( "Resource cache of %s: %d hits, %d misses, hit rate %.1f%%, %d invalidations",
+                                     getDocBase(), hits.get(), misses.get(), getHitRate() * 100,
+                                     invalidations.get() ) );
+        }
+
+        super.release();
+    }
+}
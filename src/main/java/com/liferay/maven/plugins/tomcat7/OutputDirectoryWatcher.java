@@ -0,0 +1,278 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches the build output directories of the direct deployed plugins and reports which contexts have changed
+ * classes, once their directories were quiet for the quiet period. Replaces the per context polling of a reloadable
+ * {@link org.apache.catalina.loader.WebappLoader}.
+ * <p>
+ * Directories can also be watched only for their change callback, which runs right away on every event, for
+ * instance to invalidate cached lookups.
+ */
+class OutputDirectoryWatcher
+{
+
+    private final long quietPeriodMillis;
+
+    private final Listener listener;
+
+    private final Log log;
+
+    private final WatchService watchService;
+
+    /**
+     * What each watched directory belongs to, subdirectories created later are added as they appear.
+     */
+    private final Map<WatchKey, Target> targets = new HashMap<WatchKey, Target>();
+
+    private volatile boolean running;
+
+    private Thread thread;
+
+    /**
+     * @throws IOException when the file system has no watch service
+     */
+    OutputDirectoryWatcher( long quietPeriodMillis, Listener listener, Log log ) throws IOException
+    {
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.listener = listener;
+        this.log = log;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches a directory of a context, a directory that does not exist yet is not watched.
+     *
+     * @param reload   whether changes are reported to the listener to reload the context
+     * @param onChange run on every change in the directory, may be <code>null</code>
+     */
+    synchronized void watch( File directory, String contextName, boolean reload, Runnable onChange )
+        throws IOException
+    {
+        if( directory.isDirectory() )
+        {
+            register( directory.toPath(), new Target( contextName, reload, onChange ) );
+        }
+        else
+        {
+            log.debug( "Not watching missing " + directory + " of " + contextName );
+        }
+    }
+
+    synchronized void start()
+    {
+        running = true;
+
+        thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    watchEvents();
+                }
+                catch( InterruptedException e )
+                {
+                    // stopped
+                }
+                catch( ClosedWatchServiceException e )
+                {
+                    // stopped
+                }
+            }
+        }, "liferay-classes-watcher" );
+
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    synchronized void stop()
+    {
+        running = false;
+
+        try
+        {
+            watchService.close();
+        }
+        catch( IOException e )
+        {
+            // ignore
+        }
+
+        if( thread != null )
+        {
+            thread.interrupt();
+        }
+    }
+
+    private void watchEvents() throws InterruptedException
+    {
+        Set<String> changed = new LinkedHashSet<String>();
+        long firstEventNanos = 0;
+        long lastEventNanos = 0;
+
+        while( running )
+        {
+            WatchKey key;
+
+            if( changed.isEmpty() )
+            {
+                key = watchService.take();
+            }
+            else
+            {
+                long quietLeft = quietPeriodMillis - TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - lastEventNanos );
+                key = quietLeft > 0 ? watchService.poll( quietLeft, TimeUnit.MILLISECONDS ) : null;
+            }
+
+            if( key == null )
+            {
+                if( changed.isEmpty() )
+                {
+                    continue;
+                }
+
+                try
+                {
+                    listener.classesChanged( changed, firstEventNanos );
+                }
+                catch( Exception e )
+                {
+                    log.error( "Failed to reload " + changed, e );
+                }
+
+                changed = new LinkedHashSet<String>();
+                continue;
+            }
+
+            Target target;
+
+            synchronized( this )
+            {
+                target = targets.get( key );
+            }
+
+            for( WatchEvent<?> event : key.pollEvents() )
+            {
+                if( target == null )
+                {
+                    continue;
+                }
+
+                if( target.onChange != null )
+                {
+                    target.onChange.run();
+                }
+
+                if( target.reload )
+                {
+                    if( changed.isEmpty() )
+                    {
+                        firstEventNanos = System.nanoTime();
+                    }
+
+                    changed.add( target.contextName );
+                }
+
+                if( event.kind() == StandardWatchEventKinds.ENTRY_CREATE )
+                {
+                    Path path = ( (Path) key.watchable() ).resolve( (Path) event.context() );
+
+                    if( Files.isDirectory( path ) )
+                    {
+                        try
+                        {
+                            synchronized( this )
+                            {
+                                register( path, target );
+                            }
+                        }
+                        catch( IOException e )
+                        {
+                            log.debug( "Could not watch " + path + ": " + e.getMessage() );
+                        }
+                    }
+                }
+            }
+
+            lastEventNanos = System.nanoTime();
+
+            if( !key.reset() )
+            {
+                synchronized( this )
+                {
+                    targets.remove( key );
+                }
+            }
+        }
+    }
+
+    private void register( Path start, final Target target ) throws IOException
+    {
+        Files.walkFileTree( start, new SimpleFileVisitor<Path>()
+        {
+            @Override
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) throws IOException
+            {
+                targets.put( dir.register(
+                    watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY ), target );
+
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed( Path file, IOException e )
+            {
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+    }
+
+    private static class Target
+    {
+
+        final String contextName;
+
+        final boolean reload;
+
+        final Runnable onChange;
+
+        Target( String contextName, boolean reload, Runnable onChange )
+        {
+            this.contextName = contextName;
+            this.reload = reload;
+            this.onChange = onChange;
+        }
+    }
+
+    interface Listener
+    {
+
+        /**
+         * @param contextNames    the contexts with changed classes, each reported once per batch
+         * @param firstEventNanos the {@link System#nanoTime()} of the first change of the batch
+         */
+        void classesChanged( Set<String> contextNames, long firstEventNanos ) throws Exception;
+    }
+}
@@ -0,0 +1,134 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Host;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Starts contexts on a fixed pool of worker threads. Adding a context to a started {@link Host} starts it on the
+ * calling thread, so every context handed to {@link #submit(Host, Context)} is started by one of the workers.
+ * How long each start took is recorded by the {@link StartupTimer}.
+ */
+class ParallelContextStarter
+{
+
+    private final ExecutorService executor;
+
+    private final Log log;
+
+    private final List<Future<?>> pending = new ArrayList<Future<?>>();
+
+    ParallelContextStarter( int threads, Log log )
+    {
+        this.log = log;
+        this.executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable runnable )
+            {
+                // inherits the context class loader of the thread submitting the first tasks
+                Thread thread = new Thread( runnable, "liferay-deploy-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+    }
+
+    /**
+     * Starts the context on the calling thread, used for contexts the others depend on (portal-web).
+     */
+    void start( Host host, Context context )
+    {
+        addChild( host, context );
+    }
+
+    void submit( final Host host, final Context context )
+    {
+        pending.add( executor.submit( new Runnable()
+        {
+            public void run()
+            {
+                addChild( host, context );
+            }
+        } ) );
+    }
+
+    /**
+     * Runs a task that creates and starts a context, such as a hot deploy of an existing webapps directory.
+     */
+    void submit( final String name, final Callable<?> task )
+    {
+        pending.add( executor.submit( new Callable<Void>()
+        {
+            public Void call() throws Exception
+            {
+                try
+                {
+                    task.call();
+                }
+                catch( Exception e )
+                {
+                    log.error( "Failed to deploy " + name, e );
+                }
+
+                return null;
+            }
+        } ) );
+    }
+
+    /**
+     * Waits for every submitted context.
+     */
+    void await() throws MojoExecutionException
+    {
+        try
+        {
+            for( Future<?> future : pending )
+            {
+                try
+                {
+                    future.get();
+                }
+                catch( ExecutionException e )
+                {
+                    log.error( "Context deployment failed", e.getCause() );
+                }
+            }
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "interrupted while starting contexts", e );
+        }
+        finally
+        {
+            pending.clear();
+            executor.shutdown();
+        }
+    }
+
+    private void addChild( Host host, Context context )
+    {
+        try
+        {
+            host.addChild( context );
+        }
+        catch( IllegalStateException e )
+        {
+            // ContainerBase.addChild wraps the LifecycleException of a failed start
+            log.error( "Failed to start context " + context.getName(), e );
+        }
+    }
+}
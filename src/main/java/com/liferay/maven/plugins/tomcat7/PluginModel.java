@@ -0,0 +1,44 @@
+package com.liferay.maven.plugins.tomcat7;
+
+/**
+ * The values of a plugin pom used to find its direct deployed webapp.
+ */
+class PluginModel
+{
+
+    private final String artifactId;
+
+    private final String buildDirectory;
+
+    private final String finalName;
+
+    private final String outputDirectory;
+
+    PluginModel( String artifactId, String buildDirectory, String finalName, String outputDirectory )
+    {
+        this.artifactId = artifactId;
+        this.buildDirectory = buildDirectory;
+        this.finalName = finalName;
+        this.outputDirectory = outputDirectory;
+    }
+
+    String getArtifactId()
+    {
+        return artifactId;
+    }
+
+    String getBuildDirectory()
+    {
+        return buildDirectory;
+    }
+
+    String getFinalName()
+    {
+        return finalName;
+    }
+
+    String getOutputDirectory()
+    {
+        return outputDirectory;
+    }
+}
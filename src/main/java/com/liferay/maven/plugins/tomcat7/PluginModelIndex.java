@@ -0,0 +1,235 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Properties;
+import java.util.TreeSet;
+
+/**
+ * Persistent index of the few values {@link AbstractRunLiferayMojo} needs from each plugin pom, keyed on the
+ * pom's checksum so unchanged modules don't have to go through the project builder again.
+ * <p>
+ * The checksum of a module also covers the poms it inherits from (passed in as <code>parentPoms</code>),
+ * a change to any of them invalidates every entry. It covers what the poms are built with as well: the ids of the
+ * active profiles, and the value of every property whose name appears in one of the poms, for instance in an
+ * expression or a profile activation.
+ */
+class PluginModelIndex
+{
+
+    private final File indexFile;
+
+    private final Collection<String> activeProfiles;
+
+    private final Properties properties;
+
+    private final byte[][] parentPomContents;
+
+    private final Properties entries = new Properties();
+
+    private boolean modified;
+
+    /**
+     * @param activeProfiles the ids of the profiles active in the build
+     * @param properties     the properties the poms are built with
+     */
+    PluginModelIndex( File indexFile, Collection<String> activeProfiles, Properties properties, File... parentPoms )
+        throws IOException
+    {
+        this.indexFile = indexFile;
+        this.activeProfiles = new TreeSet<String>( activeProfiles );
+        this.properties = properties;
+        this.parentPomContents = new byte[parentPoms.length][];
+
+        for( int i = 0; i < parentPoms.length; i++ )
+        {
+            parentPomContents[i] = read( parentPoms[i] );
+        }
+
+        if( indexFile.isFile() )
+        {
+            InputStream in = new FileInputStream( indexFile );
+
+            try
+            {
+                entries.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @return the cached module names of the aggregator pom, or <code>null</code> when the pom changed
+     */
+    synchronized List<String> getModules( File aggregatorPom ) throws IOException
+    {
+        String key = aggregatorPom.getAbsolutePath();
+
+        if( !checksum( aggregatorPom ).equals( entries.getProperty( key + ".hash" ) ) )
+        {
+            return null;
+        }
+
+        String modules = entries.getProperty( key + ".modules", "" );
+
+        if( modules.length() == 0 )
+        {
+            return new ArrayList<String>();
+        }
+
+        return new ArrayList<String>( Arrays.asList( modules.split( "," ) ) );
+    }
+
+    synchronized void putModules( File aggregatorPom, List<String> modules ) throws IOException
+    {
+        String key = aggregatorPom.getAbsolutePath();
+
+        StringBuilder value = new StringBuilder();
+
+        for( String module : modules )
+        {
+            if( value.length() > 0 )
+            {
+                value.append( ',' );
+            }
+
+            value.append( module );
+        }
+
+        entries.setProperty( key + ".hash", checksum( aggregatorPom ) );
+        entries.setProperty( key + ".modules", value.toString() );
+        modified = true;
+    }
+
+    /**
+     * @return the cached model of the plugin pom, or <code>null</code> when the pom changed
+     */
+    synchronized PluginModel get( File pluginPom ) throws IOException
+    {
+        String key = pluginPom.getAbsolutePath();
+
+        if( !checksum( pluginPom ).equals( entries.getProperty( key + ".hash" ) ) )
+        {
+            return null;
+        }
+
+        return new PluginModel(
+            entries.getProperty( key + ".artifactId" ), entries.getProperty( key + ".buildDirectory" ),
+            entries.getProperty( key + ".finalName" ), entries.getProperty( key + ".outputDirectory" ) );
+    }
+
+    synchronized void put( File pluginPom, PluginModel model ) throws IOException
+    {
+        String key = pluginPom.getAbsolutePath();
+
+        entries.setProperty( key + ".hash", checksum( pluginPom ) );
+        entries.setProperty( key + ".artifactId", model.getArtifactId() );
+        entries.setProperty( key + ".buildDirectory", model.getBuildDirectory() );
+        entries.setProperty( key + ".finalName", model.getFinalName() );
+        entries.setProperty( key + ".outputDirectory", model.getOutputDirectory() );
+        modified = true;
+    }
+
+    synchronized void store() throws IOException
+    {
+        if( !modified )
+        {
+            return;
+        }
+
+        indexFile.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream( indexFile );
+
+        try
+        {
+            entries.store( out, "liferay plugin model index" );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        modified = false;
+    }
+
+    private String checksum( File pom ) throws IOException
+    {
+        MessageDigest digest = Checksums.newDigest();
+        StringBuilder text = new StringBuilder();
+
+        byte[][] contents = new byte[parentPomContents.length + 1][];
+        contents[0] = read( pom );
+        System.arraycopy( parentPomContents, 0, contents, 1, parentPomContents.length );
+
+        for( byte[] content : contents )
+        {
+            digest.update( content );
+            digest.update( (byte) 0 );
+            text.append( new String( content, "UTF-8" ) );
+        }
+
+        StringBuilder context = new StringBuilder( "profiles=" ).append( activeProfiles ).append( '\n' );
+
+        for( String name : new TreeSet<String>( properties.stringPropertyNames() ) )
+        {
+            if( text.indexOf( name ) >= 0 )
+            {
+                context.append( name ).append( '=' ).append( properties.getProperty( name ) ).append( '\n' );
+            }
+        }
+
+        digest.update( context.toString().getBytes( "UTF-8" ) );
+
+        return Checksums.toHex( digest.digest() );
+    }
+
+    /**
+     * @return the content of the file, empty when it is missing
+     */
+    private static byte[] read( File file ) throws IOException
+    {
+        if( !file.isFile() )
+        {
+            return new byte[0];
+        }
+
+        InputStream in = new FileInputStream( file );
+
+        try
+        {
+            byte[] content = new byte[(int) file.length()];
+            int read = 0;
+
+            while( read < content.length )
+            {
+                int count = in.read( content, read, content.length - read );
+
+                if( count < 0 )
+                {
+                    break;
+                }
+
+                read += count;
+            }
+
+            return read == content.length ? content : Arrays.copyOf( content, read );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
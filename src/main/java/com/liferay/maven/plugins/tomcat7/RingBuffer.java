@@ -0,0 +1,115 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free queue for many producers and a single consumer. Each slot has a sequence number telling
+ * whether it is free for the producer of a position or filled for the consumer, so producers only compete on one
+ * counter and never wait for each other or for the consumer.
+ */
+class RingBuffer<E>
+{
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> slots;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * Only touched by the consumer.
+     */
+    private long head;
+
+    /**
+     * @param capacity rounded up to a power of two
+     */
+    RingBuffer( int capacity )
+    {
+        int size = Integer.highestOneBit( Math.max( 2, capacity ) - 1 ) << 1;
+
+        this.mask = size - 1;
+        this.slots = new AtomicReferenceArray<E>( size );
+        this.sequences = new AtomicLongArray( size );
+
+        for( int i = 0; i < size; i++ )
+        {
+            sequences.set( i, i );
+        }
+    }
+
+    int capacity()
+    {
+        return mask + 1;
+    }
+
+    /**
+     * @return <code>false</code> when the buffer is full
+     */
+    boolean offer( E element )
+    {
+        long position;
+        int index;
+
+        while( true )
+        {
+            position = tail.get();
+            index = (int) ( position & mask );
+
+            long available = sequences.get( index ) - position;
+
+            if( available == 0 )
+            {
+                if( tail.compareAndSet( position, position + 1 ) )
+                {
+                    break;
+                }
+            }
+            else if( available < 0 )
+            {
+                // the consumer did not take the element of the previous round yet
+                return false;
+            }
+        }
+
+        slots.set( index, element );
+        sequences.set( index, position + 1 );
+
+        return true;
+    }
+
+    /**
+     * Moves up to <code>max</code> elements to the batch, only to be called by the consumer.
+     *
+     * @return the number of elements moved
+     */
+    int drainTo( List<E> batch, int max )
+    {
+        int drained = 0;
+
+        while( drained < max )
+        {
+            int index = (int) ( head & mask );
+
+            if( sequences.get( index ) != head + 1 )
+            {
+                // empty, or a producer claimed the slot but did not fill it yet
+                break;
+            }
+
+            batch.add( slots.get( index ) );
+            slots.set( index, null );
+            sequences.set( index, head + mask + 1 );
+
+            head++;
+            drained++;
+        }
+
+        return drained;
+    }
+}
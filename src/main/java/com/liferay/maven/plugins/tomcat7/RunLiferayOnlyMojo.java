@@ -0,0 +1,44 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Like <code>run-liferay</code>, without running the package phase first. The build outputs of this project and of
+ * the plugin modules are deployed as they are, once the modules whose outputs are older than their sources have been
+ * packaged, see {@link StaleModuleBuilder}.
+ */
+@Mojo( name = "run-liferay-only", requiresDependencyResolution = ResolutionScope.RUNTIME )
+public class RunLiferayOnlyMojo extends AbstractRunLiferayMojo
+{
+
+    /**
+     * Whether to package the modules whose build outputs are out of date before deploying them. When false they
+     * are only reported.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.packageStaleModules", defaultValue = "true" )
+    private boolean packageStaleModules;
+
+    /**
+     * The goals and options, separated by spaces, run on each module whose build output is out of date, like
+     * <code>-DskipTests package</code>.
+     *
+     * @since 1.0
+     */
+    @Parameter( property = "maven.tomcat.packageGoals", defaultValue = "package" )
+    private String packageGoals;
+
+    @Override
+    protected StaleModuleBuilder createStaleModuleBuilder( File stampsFile ) throws IOException
+    {
+        return new StaleModuleBuilder( stampsFile, Arrays.asList( packageGoals.trim().split( "\\s+" ) ),
+                                       session.getSettings().isOffline(), packageStaleModules, getLog() );
+    }
+}
@@ -0,0 +1,110 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import javax.naming.NamingException;
+
+import org.apache.naming.NamingEntry;
+import org.apache.naming.resources.FileDirContext;
+
+/**
+ * The resources of a webapp directory without the <code>WEB-INF/lib</code> jars that are loaded by the shared
+ * class loader of {@link SharedLibs}, so the web application class loader does not load them a second time.
+ * Without shared libs this is a plain {@link FileDirContext}.
+ */
+class SharedLibDirContext extends FileDirContext
+{
+
+    private static final String LIB_PATH = "/WEB-INF/lib";
+
+    private final SharedLibs sharedLibs;
+
+    /**
+     * @param sharedLibs may be <code>null</code>
+     */
+    SharedLibDirContext( SharedLibs sharedLibs )
+    {
+        this.sharedLibs = sharedLibs;
+    }
+
+    @Override
+    protected Object doLookup( String name )
+    {
+        Object result = super.doLookup( name );
+
+        if( sharedLibs != null && isLibPath( name ) && result instanceof FileDirContext )
+        {
+            // the web application loader lists the jars through the lib directory context
+            LibDirContext libDirContext = new LibDirContext( sharedLibs );
+            libDirContext.setDocBase( ( (FileDirContext) result ).getDocBase() );
+            libDirContext.setAllowLinking( getAllowLinking() );
+
+            return libDirContext;
+        }
+
+        return result;
+    }
+
+    @Override
+    protected List<NamingEntry> doListBindings( String name ) throws NamingException
+    {
+        List<NamingEntry> bindings = super.doListBindings( name );
+
+        if( sharedLibs != null && isLibPath( name ) )
+        {
+            return withoutSharedLibs( sharedLibs, bindings, file( name ) );
+        }
+
+        return bindings;
+    }
+
+    private static boolean isLibPath( String name )
+    {
+        return LIB_PATH.equals( name ) || ( LIB_PATH + "/" ).equals( name );
+    }
+
+    private static List<NamingEntry> withoutSharedLibs( SharedLibs sharedLibs, List<NamingEntry> bindings, File dir )
+    {
+        if( bindings == null || dir == null )
+        {
+            return bindings;
+        }
+
+        List<NamingEntry> filtered = new ArrayList<NamingEntry>( bindings.size() );
+
+        for( NamingEntry binding : bindings )
+        {
+            if( !sharedLibs.isShared( new File( dir, binding.name ) ) )
+            {
+                filtered.add( binding );
+            }
+        }
+
+        return filtered;
+    }
+
+    private static class LibDirContext extends FileDirContext
+    {
+
+        private final SharedLibs sharedLibs;
+
+        LibDirContext( SharedLibs sharedLibs )
+        {
+            this.sharedLibs = sharedLibs;
+        }
+
+        @Override
+        protected List<NamingEntry> doListBindings( String name ) throws NamingException
+        {
+            List<NamingEntry> bindings = super.doListBindings( name );
+
+            if( name.length() == 0 || "/".equals( name ) )
+            {
+                return withoutSharedLibs( sharedLibs, bindings, file( name ) );
+            }
+
+            return bindings;
+        }
+    }
+}
@@ -0,0 +1,718 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.SelectorUtils;
+
+/**
+ * Moves the <code>WEB-INF/lib</code> jars that are identical in several contexts into class loaders shared as the
+ * parents of their web application class loaders, so their classes are loaded once instead of once per context.
+ * <p>
+ * The webapps are {@link #scan(File) scanned} while their contexts are created, the shared jars are chosen by
+ * {@link #share()} before the contexts start. The contexts must hide the shared jars from their own class loader,
+ * see {@link SharedLibDirContext}. Jars that provide classes another shared jar already provides, such as a second
+ * version of the same library, stay private to their contexts.
+ * <p>
+ * A context only gets the shared jars it contains itself, and only those that don't refer to classes of the jars
+ * it keeps private: a shared class can't see the classes of the web application class loader below it. The
+ * contexts with the same shared jars get the same class loader, so there is one shared class loader per distinct
+ * set of shared jars.
+ */
+class SharedLibs
+{
+
+    private final File sharedLibDir;
+
+    private final ClassLoader parent;
+
+    private final int minContexts;
+
+    private final List<String> excludes;
+
+    private final Log log;
+
+    /**
+     * The scanned jars that may be shared, by checksum.
+     */
+    private final Map<String, List<File>> jars = new LinkedHashMap<String, List<File>>();
+
+    /**
+     * All jars of each scanned docBase, by checksum.
+     */
+    private final Map<File, Map<String, File>> libs = new HashMap<File, Map<String, File>>();
+
+    /**
+     * The copies of the jars chosen by {@link #share()} in {@link #sharedLibDir}, by checksum.
+     */
+    private final Map<String, File> sharedJars = new HashMap<String, File>();
+
+    /**
+     * The classes of the jars, by checksum.
+     */
+    private final Map<String, Map<String, Long>> classes = new HashMap<String, Map<String, Long>>();
+
+    /**
+     * The classes the shared jars refer to, by checksum.
+     */
+    private final Map<String, Set<String>> references = new HashMap<String, Set<String>>();
+
+    private final Map<File, ContextClassLoader> contextLoaders = new HashMap<File, ContextClassLoader>();
+
+    /**
+     * The shared class loaders, by the sorted checksums of their jars.
+     */
+    private final Map<String, SharedLibClassLoader> sharedLoaders = new HashMap<String, SharedLibClassLoader>();
+
+    private boolean shared;
+
+    /**
+     * Checksums of the jars, keyed by path, length and modification time.
+     */
+    private final Map<String, String> checksums = new HashMap<String, String>();
+
+    /**
+     * @param sharedLibDir where the shared jars are copied to, so they stay available when a webapp is removed
+     * @param minContexts  in how many contexts a jar has to be to be shared
+     * @param excludes     file name patterns of jars that must stay private, may be <code>null</code>
+     */
+    SharedLibs( File sharedLibDir, ClassLoader parent, int minContexts, List<String> excludes, Log log )
+    {
+        this.sharedLibDir = sharedLibDir;
+        this.parent = parent;
+        this.minContexts = Math.max( 2, minContexts );
+        this.excludes = excludes != null ? excludes : Collections.<String>emptyList();
+        this.log = log;
+    }
+
+    /**
+     * @return the parent class loader for the context of the docBase, it loads nothing until {@link #share()}. The
+     *         docBase of a context created after {@link #share()} is scanned right away.
+     */
+    synchronized ClassLoader getClassLoader( File docBase ) throws IOException
+    {
+        File key = docBase.getAbsoluteFile();
+        ContextClassLoader loader = contextLoaders.get( key );
+
+        if( loader == null )
+        {
+            loader = new ContextClassLoader( parent );
+            contextLoaders.put( key, loader );
+
+            if( shared )
+            {
+                scan( key );
+                assign( key, loader );
+            }
+        }
+
+        return loader;
+    }
+
+    /**
+     * Fingerprints the jars of a webapp directory, each directory counts once.
+     */
+    synchronized void scan( File docBase ) throws IOException
+    {
+        File key = docBase.getAbsoluteFile();
+
+        if( libs.containsKey( key ) )
+        {
+            return;
+        }
+
+        Map<String, File> docBaseLibs = new HashMap<String, File>();
+        libs.put( key, docBaseLibs );
+
+        File[] files = new File( docBase, "WEB-INF/lib" ).listFiles( new FilenameFilter()
+        {
+            public boolean accept( File dir, String name )
+            {
+                return name.endsWith( ".jar" );
+            }
+        } );
+
+        if( files == null )
+        {
+            return;
+        }
+
+        for( File lib : files )
+        {
+            String checksum = checksum( lib );
+            docBaseLibs.put( checksum, lib );
+
+            // excluded jars are never shared, but the shared jars of the webapp must not depend on them
+            if( isExcluded( lib.getName() ) || shared )
+            {
+                continue;
+            }
+
+            List<File> copies = jars.get( checksum );
+
+            if( copies == null )
+            {
+                copies = new ArrayList<File>();
+                jars.put( checksum, copies );
+            }
+
+            copies.add( lib );
+        }
+    }
+
+    /**
+     * Chooses the jars found in at least {@link #minContexts} webapps and gives each context the shared class
+     * loader of the shared jars it can use.
+     */
+    synchronized void share() throws IOException
+    {
+        List<Map.Entry<String, List<File>>> candidates = new ArrayList<Map.Entry<String, List<File>>>();
+
+        for( Map.Entry<String, List<File>> jar : jars.entrySet() )
+        {
+            if( jar.getValue().size() >= minContexts )
+            {
+                candidates.add( jar );
+            }
+        }
+
+        // with conflicting versions of a library, the most used one is shared
+        Collections.sort( candidates, new Comparator<Map.Entry<String, List<File>>>()
+        {
+            public int compare( Map.Entry<String, List<File>> o1, Map.Entry<String, List<File>> o2 )
+            {
+                return o2.getValue().size() - o1.getValue().size();
+            }
+        } );
+
+        Set<String> sharedClasses = new HashSet<String>();
+
+        for( Map.Entry<String, List<File>> candidate : candidates )
+        {
+            File jar = candidate.getValue().get( 0 );
+            Map<String, Long> jarClasses = getClasses( candidate.getKey(), jar );
+
+            if( !Collections.disjoint( sharedClasses, jarClasses.keySet() ) )
+            {
+                log.debug( "Not sharing " + jar.getName() + ", it overlaps with another shared jar" );
+                continue;
+            }
+
+            Set<String> jarReferences;
+
+            try
+            {
+                jarReferences = listReferences( jar );
+            }
+            catch( IOException e )
+            {
+                log.debug( "Not sharing " + jar.getName() + ", its classes can't be read: " + e.getMessage() );
+                continue;
+            }
+
+            File sharedJar = new File( sharedLibDir, candidate.getKey() + "/" + jar.getName() );
+
+            if( !sharedJar.isFile() )
+            {
+                FileUtils.copyFile( jar, sharedJar );
+            }
+
+            sharedClasses.addAll( jarClasses.keySet() );
+            sharedJars.put( candidate.getKey(), sharedJar );
+            references.put( candidate.getKey(), jarReferences );
+        }
+
+        shared = true;
+
+        for( Map.Entry<File, ContextClassLoader> contextLoader : contextLoaders.entrySet() )
+        {
+            assign( contextLoader.getKey(), contextLoader.getValue() );
+        }
+
+        long duplicateClasses = 0;
+        long duplicateBytes = 0;
+        Set<String> used = new HashSet<String>();
+
+        for( SharedLibClassLoader sharedLoader : sharedLoaders.values() )
+        {
+            used.addAll( sharedLoader.checksums );
+
+            for( Long size : sharedLoader.classes.values() )
+            {
+                duplicateClasses += sharedLoader.users - 1;
+                duplicateBytes += size * ( sharedLoader.users - 1 );
+            }
+        }
+
+        log.info( "Sharing " + used.size() + " of " + jars.size() + " distinct jars in " + sharedLoaders.size() +
+            " class loaders, " + duplicateClasses + " duplicate classes (" + duplicateBytes / 1024 +
+            " KB of class files) can no longer be loaded per context" );
+    }
+
+    /**
+     * @return whether the jar is identical to a jar shared with its webapp and has to be hidden from the web
+     *         application class loader
+     */
+    boolean isShared( File jar )
+    {
+        if( !jar.getName().endsWith( ".jar" ) || isExcluded( jar.getName() ) )
+        {
+            return false;
+        }
+
+        // docBase/WEB-INF/lib/name.jar
+        File docBase = jar.getAbsoluteFile().getParentFile().getParentFile().getParentFile();
+        ContextClassLoader loader;
+
+        synchronized( this )
+        {
+            loader = contextLoaders.get( docBase );
+
+            if( loader == null || loader.shared == null )
+            {
+                return false;
+            }
+        }
+
+        String checksum;
+
+        try
+        {
+            checksum = checksum( jar );
+        }
+        catch( IOException e )
+        {
+            log.debug( "Could not read " + jar + ": " + e.getMessage() );
+            return false;
+        }
+
+        return loader.shared.checksums.contains( checksum );
+    }
+
+    /**
+     * Logs how many classes were loaded once by the shared class loaders instead of once per context.
+     */
+    void report()
+    {
+        long loadedClasses = 0;
+        long savedClasses = 0;
+        long savedBytes = 0;
+
+        synchronized( this )
+        {
+            for( SharedLibClassLoader sharedLoader : sharedLoaders.values() )
+            {
+                loadedClasses += sharedLoader.loadedClasses.get();
+                savedClasses += sharedLoader.savedClasses.get();
+                savedBytes += sharedLoader.savedBytes.get();
+            }
+        }
+
+        log.info( "Shared jars loaded " + loadedClasses + " classes, saving " + savedClasses +
+            " class loads and about " + savedBytes / 1024 + " KB of class files" );
+    }
+
+    /**
+     * Gives the context the shared jars of its docBase whose references are all shared as well or outside of the
+     * webapp.
+     */
+    private void assign( File docBase, ContextClassLoader loader ) throws IOException
+    {
+        Map<String, File> docBaseLibs = libs.get( docBase );
+
+        if( docBaseLibs == null )
+        {
+            return;
+        }
+
+        Set<String> contextJars = new TreeSet<String>();
+
+        for( String checksum : docBaseLibs.keySet() )
+        {
+            if( sharedJars.containsKey( checksum ) )
+            {
+                contextJars.add( checksum );
+            }
+        }
+
+        boolean removed = true;
+
+        while( removed && !contextJars.isEmpty() )
+        {
+            Set<String> privateClasses = new HashSet<String>();
+
+            for( Map.Entry<String, File> lib : docBaseLibs.entrySet() )
+            {
+                if( !contextJars.contains( lib.getKey() ) )
+                {
+                    privateClasses.addAll( getClasses( lib.getKey(), lib.getValue() ).keySet() );
+                }
+            }
+
+            removed = false;
+
+            for( Iterator<String> iterator = contextJars.iterator(); iterator.hasNext(); )
+            {
+                String checksum = iterator.next();
+
+                if( !Collections.disjoint( references.get( checksum ), privateClasses ) )
+                {
+                    log.debug( "Not sharing " + docBaseLibs.get( checksum ).getName() + " with " + docBase +
+                        ", it refers to the classes of a jar that stays private" );
+                    iterator.remove();
+                    removed = true;
+                }
+            }
+        }
+
+        if( contextJars.isEmpty() )
+        {
+            return;
+        }
+
+        String key = contextJars.toString();
+        SharedLibClassLoader sharedLoader = sharedLoaders.get( key );
+
+        if( sharedLoader == null )
+        {
+            sharedLoader = new SharedLibClassLoader( parent );
+
+            for( String checksum : contextJars )
+            {
+                sharedLoader.addJar( checksum, sharedJars.get( checksum ), classes.get( checksum ) );
+            }
+
+            sharedLoaders.put( key, sharedLoader );
+        }
+
+        sharedLoader.users++;
+        loader.shared = sharedLoader;
+    }
+
+    private Map<String, Long> getClasses( String checksum, File jar ) throws IOException
+    {
+        Map<String, Long> jarClasses = classes.get( checksum );
+
+        if( jarClasses == null )
+        {
+            jarClasses = listClasses( jar );
+            classes.put( checksum, jarClasses );
+        }
+
+        return jarClasses;
+    }
+
+    private boolean isExcluded( String name )
+    {
+        for( String exclude : excludes )
+        {
+            if( SelectorUtils.match( exclude, name ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private synchronized String checksum( File jar ) throws IOException
+    {
+        String key = jar.getAbsolutePath() + ":" + jar.length() + ":" + jar.lastModified();
+        String checksum = checksums.get( key );
+
+        if( checksum == null )
+        {
+            checksum = Checksums.sha1( jar );
+            checksums.put( key, checksum );
+        }
+
+        return checksum;
+    }
+
+    /**
+     * @return the size of each class of the jar, by class name
+     */
+    private static Map<String, Long> listClasses( File jar ) throws IOException
+    {
+        Map<String, Long> classes = new HashMap<String, Long>();
+        ZipFile zipFile = new ZipFile( jar );
+
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+            while( entries.hasMoreElements() )
+            {
+                ZipEntry entry = entries.nextElement();
+                String name = entry.getName();
+
+                if( name.endsWith( ".class" ) && !entry.isDirectory() )
+                {
+                    classes.put( name.substring( 0, name.length() - 6 ).replace( '/', '.' ),
+                                 Math.max( 0, entry.getSize() ) );
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+
+        return classes;
+    }
+
+    /**
+     * @return the names of the classes the classes of the jar refer to in their constant pools, a superset since
+     *         every name and descriptor of the constant pools is taken as a possible class name
+     */
+    private static Set<String> listReferences( File jar ) throws IOException
+    {
+        Set<String> references = new HashSet<String>();
+        ZipFile zipFile = new ZipFile( jar );
+
+        try
+        {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+
+            while( entries.hasMoreElements() )
+            {
+                ZipEntry entry = entries.nextElement();
+
+                if( entry.getName().endsWith( ".class" ) && !entry.isDirectory() )
+                {
+                    DataInputStream in = new DataInputStream(
+                        new BufferedInputStream( zipFile.getInputStream( entry ) ) );
+
+                    try
+                    {
+                        addReferences( in, references );
+                    }
+                    finally
+                    {
+                        in.close();
+                    }
+                }
+            }
+        }
+        finally
+        {
+            zipFile.close();
+        }
+
+        return references;
+    }
+
+    private static void addReferences( DataInputStream in, Set<String> references ) throws IOException
+    {
+        if( in.readInt() != 0xCAFEBABE )
+        {
+            throw new IOException( "not a class file" );
+        }
+
+        // minor and major version
+        in.skipBytes( 4 );
+
+        int count = in.readUnsignedShort();
+
+        for( int i = 1; i < count; i++ )
+        {
+            int tag = in.readUnsignedByte();
+
+            switch( tag )
+            {
+                case 1:
+                    addTypes( in.readUTF(), references );
+                    break;
+                case 3:
+                case 4:
+                case 9:
+                case 10:
+                case 11:
+                case 12:
+                case 17:
+                case 18:
+                    in.skipBytes( 4 );
+                    break;
+                case 5:
+                case 6:
+                    // takes two entries
+                    in.skipBytes( 8 );
+                    i++;
+                    break;
+                case 7:
+                case 8:
+                case 16:
+                case 19:
+                case 20:
+                    in.skipBytes( 2 );
+                    break;
+                case 15:
+                    in.skipBytes( 3 );
+                    break;
+                default:
+                    throw new IOException( "unknown constant pool tag " + tag );
+            }
+        }
+    }
+
+    /**
+     * Adds a class name, in internal form, and the class names of a descriptor or signature.
+     */
+    private static void addTypes( String value, Set<String> references )
+    {
+        references.add( value.replace( '/', '.' ) );
+
+        for( int start = value.indexOf( 'L' ); start != -1; start = value.indexOf( 'L', start + 1 ) )
+        {
+            int end = start + 1;
+
+            while( end < value.length() && ";<".indexOf( value.charAt( end ) ) == -1 )
+            {
+                end++;
+            }
+
+            if( end < value.length() && end > start + 1 )
+            {
+                references.add( value.substring( start + 1, end ).replace( '/', '.' ) );
+            }
+        }
+    }
+
+    /**
+     * The parent of the web application class loader of a context. It loads the shared jars of the context through
+     * their shared class loader, chosen by {@link #share()}, and lists them like a {@link URLClassLoader} so Tomcat
+     * still scans them for TLDs and web fragments.
+     */
+    private static class ContextClassLoader extends URLClassLoader
+    {
+
+        private volatile SharedLibClassLoader shared;
+
+        ContextClassLoader( ClassLoader parent )
+        {
+            super( new URL[0], parent );
+        }
+
+        @Override
+        public URL[] getURLs()
+        {
+            SharedLibClassLoader loader = shared;
+
+            return loader != null ? loader.getURLs() : new URL[0];
+        }
+
+        @Override
+        protected Class<?> findClass( String name ) throws ClassNotFoundException
+        {
+            SharedLibClassLoader loader = shared;
+
+            if( loader == null )
+            {
+                throw new ClassNotFoundException( name );
+            }
+
+            return loader.loadClass( name );
+        }
+
+        @Override
+        public URL findResource( String name )
+        {
+            SharedLibClassLoader loader = shared;
+
+            return loader != null ? loader.findResource( name ) : null;
+        }
+
+        @Override
+        public Enumeration<URL> findResources( String name ) throws IOException
+        {
+            SharedLibClassLoader loader = shared;
+
+            if( loader == null )
+            {
+                return Collections.enumeration( Collections.<URL>emptyList() );
+            }
+
+            return loader.findResources( name );
+        }
+    }
+
+    private static class SharedLibClassLoader extends URLClassLoader
+    {
+
+        /**
+         * The size of each shared class.
+         */
+        private final Map<String, Long> classes = new HashMap<String, Long>();
+
+        private final Set<String> checksums = new HashSet<String>();
+
+        private final AtomicLong loadedClasses = new AtomicLong();
+
+        private final AtomicLong savedClasses = new AtomicLong();
+
+        private final AtomicLong savedBytes = new AtomicLong();
+
+        /**
+         * How many contexts use this class loader.
+         */
+        private volatile int users;
+
+        SharedLibClassLoader( ClassLoader parent )
+        {
+            super( new URL[0], parent );
+        }
+
+        synchronized void addJar( String checksum, File jar, Map<String, Long> jarClasses ) throws IOException
+        {
+            classes.putAll( jarClasses );
+            checksums.add( checksum );
+
+            addURL( jar.toURI().toURL() );
+        }
+
+        @Override
+        protected Class<?> findClass( String name ) throws ClassNotFoundException
+        {
+            Class<?> found = super.findClass( name );
+
+            Long size;
+
+            synchronized( this )
+            {
+                size = classes.get( name );
+            }
+
+            loadedClasses.incrementAndGet();
+
+            if( size != null )
+            {
+                savedClasses.addAndGet( users - 1 );
+                savedBytes.addAndGet( size * ( users - 1 ) );
+            }
+
+            return found;
+        }
+    }
+}
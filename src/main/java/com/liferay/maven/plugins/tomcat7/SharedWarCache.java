@@ -0,0 +1,280 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+
+import org.codehaus.plexus.util.FileUtils;
+
+/**
+ * Keeps each extracted war once, under <code>groupId/artifactId/version/checksum</code> of a cache directory
+ * shared by all projects, and fills a webapps directory with hard links into it. Files are copied instead
+ * when the file system does not support links between the two directories.
+ * <p>
+ * Linked files share their content with the cache, they must not be modified in place. Deleting an entry of the
+ * cache leaves the webapps directories linked to it intact, so entries no build installed for a while can be
+ * {@link #evictUnused(int) evicted}. An entry is {@link CacheEviction#lock(File) locked} while it is filled and linked
+ * from, so eviction by another build never deletes it halfway.
+ */
+class SharedWarCache
+{
+
+    private static final String CACHE_KEY = "cache.key";
+
+    private static final String ARTIFACT_LENGTH = "artifact.length";
+
+    private static final String ARTIFACT_LAST_MODIFIED = "artifact.lastModified";
+
+    private final File cacheDir;
+
+    private final ExecutorService executor;
+
+    /**
+     * @param cacheDir the shared cache directory
+     * @param executor used to write the entries of a war the cache does not hold yet, may be <code>null</code>
+     */
+    SharedWarCache( File cacheDir, ExecutorService executor )
+    {
+        this.cacheDir = cacheDir;
+        this.executor = executor;
+    }
+
+    /**
+     * Makes <code>destDir</code> hold the content of the war, extracting it into the cache first if needed.
+     *
+     * @param manifestFile remembers what <code>destDir</code> was linked from, must not be inside
+     *                     <code>destDir</code>
+     * @return a short description of what was done
+     */
+    String install( String groupId, String artifactId, String version, File war, File destDir, File manifestFile )
+        throws IOException
+    {
+        Properties manifest = loadManifest( manifestFile );
+
+        if( destDir.isDirectory() && Long.toString( war.length() ).equals( manifest.getProperty( ARTIFACT_LENGTH ) ) &&
+            Long.toString( war.lastModified() ).equals( manifest.getProperty( ARTIFACT_LAST_MODIFIED ) ) )
+        {
+            if( manifest.getProperty( CACHE_KEY ) != null )
+            {
+                CacheEviction.touch( getEntryDir( manifest.getProperty( CACHE_KEY ) ) );
+            }
+
+            return "unchanged";
+        }
+
+        String checksum = Checksums.sha1( war );
+        String key = groupId + ":" + artifactId + ":" + version + ":" + checksum;
+
+        File entryDir = getEntryDir( key );
+        String result;
+
+        if( destDir.isDirectory() && key.equals( manifest.getProperty( CACHE_KEY ) ) )
+        {
+            CacheEviction.touch( entryDir );
+            result = "unchanged";
+        }
+        else
+        {
+            CacheEviction.EntryLock lock = CacheEviction.lock( entryDir );
+
+            try
+            {
+                boolean extracted = fill( war, entryDir );
+
+                if( !extracted )
+                {
+                    CacheEviction.touch( entryDir );
+                }
+
+                FileUtils.deleteDirectory( destDir );
+                int copies = link( entryDir, destDir );
+
+                result = ( extracted ? "extracted to " : "reused " ) + entryDir +
+                    ( copies > 0 ? ", " + copies + " files copied because they could not be linked" : "" );
+            }
+            finally
+            {
+                lock.release();
+            }
+        }
+
+        manifest.setProperty( CACHE_KEY, key );
+        manifest.setProperty( ARTIFACT_LENGTH, Long.toString( war.length() ) );
+        manifest.setProperty( ARTIFACT_LAST_MODIFIED, Long.toString( war.lastModified() ) );
+        storeManifest( manifest, manifestFile );
+
+        return result;
+    }
+
+    /**
+     * Deletes the extracted wars no build installed for <code>maxAgeDays</code>, the cache directory is checked at
+     * most once a day.
+     *
+     * @param maxAgeDays <code>0</code> to keep every war
+     * @return the number of wars deleted
+     */
+    int evictUnused( int maxAgeDays ) throws IOException
+    {
+        return CacheEviction.evict( cacheDir, 4, maxAgeDays );
+    }
+
+    /**
+     * @param key <code>groupId:artifactId:version:checksum</code>
+     */
+    private File getEntryDir( String key )
+    {
+        return new File( cacheDir, key.replace( ':', '/' ) );
+    }
+
+    /**
+     * Extracts the war into a private directory first and renames it into place, so other builds never see a
+     * partially extracted cache entry.
+     *
+     * @return <code>false</code> when the cache already held the entry
+     */
+    private boolean fill( File war, File entryDir ) throws IOException
+    {
+        if( entryDir.isDirectory() )
+        {
+            return false;
+        }
+
+        entryDir.getParentFile().mkdirs();
+
+        File tempDir = new File( entryDir.getPath() + ".tmp-" + System.nanoTime() );
+        File tempManifest = new File( tempDir.getPath() + ".properties" );
+
+        try
+        {
+            new IncrementalWarExtractor( executor ).extract( war, tempDir, tempManifest );
+
+            if( !tempDir.renameTo( entryDir ) && !entryDir.isDirectory() )
+            {
+                throw new IOException( "Could not move " + tempDir + " to " + entryDir );
+            }
+        }
+        finally
+        {
+            // left over when another build filled the same entry first
+            FileUtils.deleteDirectory( tempDir );
+            tempManifest.delete();
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the number of files that had to be copied
+     */
+    private int link( File entryDir, File destDir ) throws IOException
+    {
+        final Path source = entryDir.toPath();
+        final Path target = destDir.toPath();
+        final int[] copies = new int[1];
+
+        Files.walkFileTree( source, new SimpleFileVisitor<Path>()
+        {
+            private boolean linksSupported = true;
+
+            @Override
+            public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs ) throws IOException
+            {
+                Files.createDirectories( target.resolve( source.relativize( dir ) ) );
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile( Path file, BasicFileAttributes attrs ) throws IOException
+            {
+                Path link = target.resolve( source.relativize( file ) );
+
+                if( linksSupported )
+                {
+                    try
+                    {
+                        Files.createLink( link, file );
+                        return FileVisitResult.CONTINUE;
+                    }
+                    catch( UnsupportedOperationException e )
+                    {
+                        linksSupported = false;
+                    }
+                    catch( IOException e )
+                    {
+                        // typically a cache on another file system
+                        linksSupported = false;
+                    }
+                }
+
+                Files.copy( file, link, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES );
+                copies[0]++;
+
+                return FileVisitResult.CONTINUE;
+            }
+        } );
+
+        return copies[0];
+    }
+
+    private Properties loadManifest( File manifestFile ) throws IOException
+    {
+        Properties manifest = new Properties();
+
+        if( manifestFile.isFile() )
+        {
+            InputStream in = new FileInputStream( manifestFile );
+
+            try
+            {
+                manifest.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+
+        return manifest;
+    }
+
+    /**
+     * Writes a temporary file and renames it, so an interrupted build never leaves a truncated manifest.
+     */
+    private void storeManifest( Properties manifest, File manifestFile ) throws IOException
+    {
+        manifestFile.getParentFile().mkdirs();
+
+        File tempFile = new File( manifestFile.getPath() + ".tmp" );
+        OutputStream out = new FileOutputStream( tempFile );
+
+        try
+        {
+            manifest.store( out, null );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        if( !tempFile.renameTo( manifestFile ) )
+        {
+            manifestFile.delete();
+
+            if( !tempFile.renameTo( manifestFile ) )
+            {
+                throw new IOException( "Could not move " + tempFile + " to " + manifestFile );
+            }
+        }
+    }
+}
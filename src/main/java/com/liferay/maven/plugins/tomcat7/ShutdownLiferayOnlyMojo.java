@@ -0,0 +1,12 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+/**
+ * Like <code>shutdown-liferay</code>, without running the package phase first, which the shutdown does not need.
+ */
+@Mojo( name = "shutdown-liferay-only", requiresDependencyResolution = ResolutionScope.RUNTIME )
+public class ShutdownLiferayOnlyMojo extends AbstractShutdownLiferayMojo
+{
+}
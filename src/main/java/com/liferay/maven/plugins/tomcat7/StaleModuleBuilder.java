@@ -0,0 +1,304 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Packages the modules whose build output is older than their sources, so a goal that does not fork the package
+ * lifecycle still deploys current outputs. A module is stale when:
+ * <ul>
+ * <li>its output is missing</li>
+ * <li>the fingerprint of its <code>pom.xml</code> and <code>src/main</code> files, their paths, lengths and
+ * modification times, differs from the one recorded after it was last found or made up to date</li>
+ * <li>without a recorded fingerprint, a source file is newer than every file of its output</li>
+ * </ul>
+ * Stale modules are packaged one after the other by a separate Maven process, with the Maven running this build.
+ */
+class StaleModuleBuilder
+{
+
+    private final File stampsFile;
+
+    private final List<String> goals;
+
+    private final boolean offline;
+
+    private final boolean build;
+
+    private final Log log;
+
+    private final Properties stamps = new Properties();
+
+    private final Map<File, File> modules = new LinkedHashMap<File, File>();
+
+    /**
+     * @param goals what to run on stale modules, such as <code>package</code>
+     * @param build <code>false</code> to only warn about stale modules
+     */
+    StaleModuleBuilder( File stampsFile, List<String> goals, boolean offline, boolean build, Log log )
+        throws IOException
+    {
+        this.stampsFile = stampsFile;
+        this.goals = goals;
+        this.offline = offline;
+        this.build = build;
+        this.log = log;
+
+        if( stampsFile.isFile() )
+        {
+            InputStream in = new FileInputStream( stampsFile );
+
+            try
+            {
+                stamps.load( in );
+            }
+            finally
+            {
+                in.close();
+            }
+        }
+    }
+
+    /**
+     * @param basedir the directory of the module pom
+     * @param output what packaging the module produces, a file or directory
+     */
+    void add( File basedir, File output )
+    {
+        if( new File( basedir, "pom.xml" ).isFile() )
+        {
+            modules.put( basedir.getAbsoluteFile(), output );
+        }
+    }
+
+    /**
+     * Packages the stale modules added since the last call, in the order they were added.
+     */
+    void buildStale() throws MojoExecutionException
+    {
+        long start = System.currentTimeMillis();
+        List<File> stale = new ArrayList<File>();
+        Map<File, String> fingerprints = new LinkedHashMap<File, String>();
+
+        try
+        {
+            for( Map.Entry<File, File> module : modules.entrySet() )
+            {
+                File basedir = module.getKey();
+                Map<String, File> sources = getSources( basedir );
+                String fingerprint = fingerprint( sources );
+                String recorded = stamps.getProperty( basedir.getPath() );
+
+                fingerprints.put( basedir, fingerprint );
+
+                if( !module.getValue().exists() )
+                {
+                    stale.add( basedir );
+                }
+                else if( recorded != null ? !recorded.equals( fingerprint )
+                    : newest( sources.values() ) > newest( module.getValue() ) )
+                {
+                    stale.add( basedir );
+                }
+            }
+
+            log.info( "Checked " + modules.size() + " modules in " + ( System.currentTimeMillis() - start ) + " ms, " +
+                stale.size() + " stale" );
+
+            for( File basedir : stale )
+            {
+                if( !build )
+                {
+                    log.warn( "The build output of " + basedir + " is out of date" );
+                    fingerprints.remove( basedir );
+                    continue;
+                }
+
+                run( basedir );
+            }
+
+            for( Map.Entry<File, String> fingerprint : fingerprints.entrySet() )
+            {
+                stamps.setProperty( fingerprint.getKey().getPath(), fingerprint.getValue() );
+            }
+
+            store();
+        }
+        catch( IOException e )
+        {
+            throw new MojoExecutionException( "Could not check the build outputs: " + e.getMessage(), e );
+        }
+        finally
+        {
+            modules.clear();
+        }
+    }
+
+    private void run( File basedir ) throws MojoExecutionException, IOException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add( getMavenExecutable() );
+        command.add( "-B" );
+
+        if( offline )
+        {
+            command.add( "-o" );
+        }
+
+        command.add( "-f" );
+        command.add( new File( basedir, "pom.xml" ).getPath() );
+        command.addAll( goals );
+
+        log.info( "Packaging " + basedir + ": " + command );
+
+        Process process = new ProcessBuilder( command ).directory( basedir ).inheritIO().start();
+
+        try
+        {
+            int exitCode = process.waitFor();
+
+            if( exitCode != 0 )
+            {
+                throw new MojoExecutionException( "Packaging " + basedir + " failed with exit code " + exitCode );
+            }
+        }
+        catch( InterruptedException e )
+        {
+            process.destroy();
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "interrupted while packaging " + basedir, e );
+        }
+    }
+
+    private void store() throws IOException
+    {
+        stampsFile.getParentFile().mkdirs();
+
+        OutputStream out = new FileOutputStream( stampsFile );
+
+        try
+        {
+            stamps.store( out, "liferay module source fingerprints" );
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /**
+     * @return the pom and the files under <code>src/main</code>, by path relative to the module
+     */
+    private static Map<String, File> getSources( File basedir )
+    {
+        Map<String, File> sources = new TreeMap<String, File>();
+        sources.put( "pom.xml", new File( basedir, "pom.xml" ) );
+
+        addFiles( sources, "src/main", new File( basedir, "src/main" ) );
+
+        return sources;
+    }
+
+    private static void addFiles( Map<String, File> files, String path, File dir )
+    {
+        File[] children = dir.listFiles();
+
+        if( children == null )
+        {
+            return;
+        }
+
+        for( File child : children )
+        {
+            String childPath = path + "/" + child.getName();
+
+            if( child.isDirectory() )
+            {
+                addFiles( files, childPath, child );
+            }
+            else
+            {
+                files.put( childPath, child );
+            }
+        }
+    }
+
+    private static String fingerprint( Map<String, File> sources ) throws IOException
+    {
+        MessageDigest digest = Checksums.newDigest();
+
+        for( Map.Entry<String, File> source : sources.entrySet() )
+        {
+            File file = source.getValue();
+
+            digest.update( ( source.getKey() + ':' + file.length() + ':' + file.lastModified() + '\n' ).getBytes(
+                "UTF-8" ) );
+        }
+
+        return Checksums.toHex( digest.digest() );
+    }
+
+    private static long newest( Iterable<File> files )
+    {
+        long newest = 0;
+
+        for( File file : files )
+        {
+            newest = Math.max( newest, file.lastModified() );
+        }
+
+        return newest;
+    }
+
+    /**
+     * @return the modification time of the newest file of the output
+     */
+    private static long newest( File output )
+    {
+        if( !output.isDirectory() )
+        {
+            return output.lastModified();
+        }
+
+        Map<String, File> files = new TreeMap<String, File>();
+        addFiles( files, "", output );
+
+        return newest( files.values() );
+    }
+
+    private static String getMavenExecutable()
+    {
+        String mavenHome = System.getProperty( "maven.home" );
+        boolean windows = System.getProperty( "os.name", "" ).toLowerCase( Locale.ENGLISH ).startsWith( "windows" );
+
+        if( mavenHome != null )
+        {
+            for( String name : windows ? new String[] { "mvn.cmd", "mvn.bat" } : new String[] { "mvn" } )
+            {
+                File executable = new File( mavenHome, "bin/" + name );
+
+                if( executable.isFile() )
+                {
+                    return executable.getAbsolutePath();
+                }
+            }
+        }
+
+        return windows ? "mvn.bat" : "mvn";
+    }
+}
@@ -0,0 +1,366 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.catalina.Context;
+import org.apache.catalina.Lifecycle;
+import org.apache.catalina.LifecycleEvent;
+import org.apache.catalina.LifecycleListener;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Records the wall and CPU time of the startup phases of run-liferay and of each context start, and reports them
+ * as a summary in the log and as a JSON file, one per startup so they can be compared over time.
+ * <p>
+ * The CPU time of a phase or context is the time of the thread running it. Phases that hand work to other threads,
+ * like parallel extraction or context starts, also report the CPU time of the whole process when the JVM tells it.
+ * Only the first start of each context is recorded, later reloads are not part of the startup.
+ * <p>
+ * A phase started while another one is running on the same thread is part of it, such as the war extraction while
+ * creating the dependency contexts. It is reported under that phase instead of next to it, so no time is counted
+ * twice in the ranking of the phases.
+ */
+class StartupTimer
+{
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    private final Method processCpuTime = getProcessCpuTimeMethod();
+
+    private final long startNanos = System.nanoTime();
+
+    private final long startProcessCpuNanos = processCpuNanos();
+
+    private final List<Timing> phases = Collections.synchronizedList( new ArrayList<Timing>() );
+
+    private final Map<String, Timing> contexts = new ConcurrentHashMap<String, Timing>();
+
+    /**
+     * The innermost phase running on each thread.
+     */
+    private final ThreadLocal<Timing> currentPhase = new ThreadLocal<Timing>();
+
+    private volatile boolean reported;
+
+    /**
+     * Starts timing a phase, to be ended with {@link Timing#end()} in a finally block.
+     */
+    Timing phase( String name )
+    {
+        Timing timing = new Timing( name, currentPhase.get() );
+        phases.add( timing );
+        currentPhase.set( timing );
+        return timing;
+    }
+
+    /**
+     * @return a listener to add to each context, it times the start of the context on the thread starting it
+     */
+    LifecycleListener getContextListener()
+    {
+        return new LifecycleListener()
+        {
+            private final ThreadLocal<Timing> starting = new ThreadLocal<Timing>();
+
+            public void lifecycleEvent( LifecycleEvent event )
+            {
+                if( reported || !( event.getLifecycle() instanceof Context ) )
+                {
+                    return;
+                }
+
+                String name = ( (Context) event.getLifecycle() ).getName();
+
+                if( Lifecycle.BEFORE_START_EVENT.equals( event.getType() ) && !contexts.containsKey( name ) )
+                {
+                    starting.set( new Timing( name, null ) );
+                }
+                else if( Lifecycle.AFTER_START_EVENT.equals( event.getType() ) && starting.get() != null )
+                {
+                    Timing timing = starting.get();
+                    starting.remove();
+
+                    timing.end();
+                    contexts.put( name, timing );
+                }
+            }
+        };
+    }
+
+    /**
+     * Logs the phases and context starts, slowest first with the nested phases indented under their phase, and
+     * writes them to a JSON report in the directory.
+     *
+     * @return the JSON report
+     */
+    File report( Log log, File reportDir ) throws IOException
+    {
+        reported = true;
+
+        long totalMillis = TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - startNanos );
+        long processCpuNanos = processCpuNanos();
+        long totalCpuMillis =
+            processCpuNanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis( processCpuNanos - startProcessCpuNanos );
+
+        List<Timing> sortedPhases = new ArrayList<Timing>();
+        addNested( sortByWallTime( phases ), null, sortedPhases );
+        List<Timing> sortedContexts = sortByWallTime( contexts.values() );
+
+        log.info( "Startup took " + totalMillis + " ms" + ( totalCpuMillis < 0 ? "" : ", " + totalCpuMillis +
+            " ms CPU" ) );
+
+        for( Timing timing : sortedPhases )
+        {
+            StringBuilder indent = new StringBuilder( "  " );
+
+            for( Timing parent = timing.parent; parent != null; parent = parent.parent )
+            {
+                indent.append( "  " );
+            }
+
+            log.info( indent.toString() + timing );
+        }
+
+        if( !sortedContexts.isEmpty() )
+        {
+            log.info( "Context starts:" );
+
+            for( Timing timing : sortedContexts )
+            {
+                log.info( "  " + timing );
+            }
+        }
+
+        reportDir.mkdirs();
+
+        File reportFile =
+            new File( reportDir, "startup-" + new SimpleDateFormat( "yyyyMMdd-HHmmss" ).format( new Date() ) + ".json" );
+
+        Writer out = new OutputStreamWriter( new FileOutputStream( reportFile ), "UTF-8" );
+
+        try
+        {
+            out.write( "{\n" );
+            out.write( "  \"timestamp\": " + System.currentTimeMillis() + ",\n" );
+            out.write( "  \"wallMillis\": " + totalMillis + ",\n" );
+            out.write( "  \"processCpuMillis\": " + totalCpuMillis + ",\n" );
+            out.write( "  \"phases\": " );
+            writeJson( out, sortedPhases );
+            out.write( ",\n  \"contexts\": " );
+            writeJson( out, sortedContexts );
+            out.write( "\n}\n" );
+        }
+        finally
+        {
+            out.close();
+        }
+
+        return reportFile;
+    }
+
+    /**
+     * Adds the phases of the parent, in the order they are sorted, each followed by its own nested phases.
+     */
+    private static void addNested( List<Timing> sorted, Timing parent, List<Timing> ordered )
+    {
+        for( Timing timing : sorted )
+        {
+            if( timing.parent == parent )
+            {
+                ordered.add( timing );
+                addNested( sorted, timing, ordered );
+            }
+        }
+    }
+
+    private static List<Timing> sortByWallTime( Iterable<Timing> timings )
+    {
+        List<Timing> sorted = new ArrayList<Timing>();
+
+        synchronized( timings )
+        {
+            for( Timing timing : timings )
+            {
+                if( timing.wallNanos >= 0 )
+                {
+                    sorted.add( timing );
+                }
+            }
+        }
+
+        Collections.sort( sorted, new Comparator<Timing>()
+        {
+            public int compare( Timing o1, Timing o2 )
+            {
+                return o2.wallNanos < o1.wallNanos ? -1 : ( o2.wallNanos == o1.wallNanos ? 0 : 1 );
+            }
+        } );
+
+        return sorted;
+    }
+
+    private static void writeJson( Writer out, List<Timing> timings ) throws IOException
+    {
+        out.write( "[" );
+
+        for( int i = 0; i < timings.size(); i++ )
+        {
+            Timing timing = timings.get( i );
+
+            out.write( i == 0 ? "\n" : ",\n" );
+            out.write( "    { \"name\": \"" + escape( timing.name ) + "\", \"parent\": " +
+                ( timing.parent == null ? "null" : "\"" + escape( timing.parent.name ) + "\"" ) +
+                ", \"thread\": \"" + escape( timing.thread ) +
+                "\", \"wallMillis\": " + millis( timing.wallNanos ) + ", \"cpuMillis\": " + millis( timing.cpuNanos ) +
+                ", \"processCpuMillis\": " + millis( timing.processCpuNanos ) + " }" );
+        }
+
+        out.write( timings.isEmpty() ? "]" : "\n  ]" );
+    }
+
+    private static String escape( String value )
+    {
+        StringBuilder escaped = new StringBuilder();
+
+        for( char c : value.toCharArray() )
+        {
+            if( c == '"' || c == '\\' )
+            {
+                escaped.append( '\\' ).append( c );
+            }
+            else if( c < 0x20 )
+            {
+                escaped.append( String.format( "\\u%04x", (int) c ) );
+            }
+            else
+            {
+                escaped.append( c );
+            }
+        }
+
+        return escaped.toString();
+    }
+
+    private static long millis( long nanos )
+    {
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis( nanos );
+    }
+
+    private long threadCpuNanos()
+    {
+        return threadBean.isCurrentThreadCpuTimeSupported() ? threadBean.getCurrentThreadCpuTime() : -1;
+    }
+
+    private long processCpuNanos()
+    {
+        if( processCpuTime == null )
+        {
+            return -1;
+        }
+
+        try
+        {
+            return ( (Number) processCpuTime.invoke( ManagementFactory.getOperatingSystemMXBean() ) ).longValue();
+        }
+        catch( Exception e )
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the method of the vendor specific bean telling the CPU time of the process, <code>null</code> when the
+     *         JVM has none
+     */
+    private static Method getProcessCpuTimeMethod()
+    {
+        OperatingSystemMXBean bean = ManagementFactory.getOperatingSystemMXBean();
+
+        for( Class<?> type : bean.getClass().getInterfaces() )
+        {
+            try
+            {
+                return type.getMethod( "getProcessCpuTime" );
+            }
+            catch( NoSuchMethodException e )
+            {
+                // try the next one
+            }
+        }
+
+        return null;
+    }
+
+    class Timing
+    {
+
+        final String name;
+
+        /**
+         * The phase this one is part of, <code>null</code> for a top level phase or a context start.
+         */
+        final Timing parent;
+
+        final String thread = Thread.currentThread().getName();
+
+        private final long beginNanos = System.nanoTime();
+
+        private final long beginCpuNanos = threadCpuNanos();
+
+        private final long beginProcessCpuNanos = processCpuNanos();
+
+        volatile long wallNanos = -1;
+
+        volatile long cpuNanos = -1;
+
+        volatile long processCpuNanos = -1;
+
+        Timing( String name, Timing parent )
+        {
+            this.name = name;
+            this.parent = parent;
+        }
+
+        void end()
+        {
+            long endCpuNanos = threadCpuNanos();
+            long endProcessCpuNanos = processCpuNanos();
+
+            cpuNanos = beginCpuNanos < 0 || endCpuNanos < 0 ? -1 : endCpuNanos - beginCpuNanos;
+            processCpuNanos =
+                beginProcessCpuNanos < 0 || endProcessCpuNanos < 0 ? -1 : endProcessCpuNanos - beginProcessCpuNanos;
+            wallNanos = System.nanoTime() - beginNanos;
+
+            if( currentPhase.get() == this )
+            {
+                currentPhase.set( parent );
+            }
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + ": " + millis( wallNanos ) + " ms" +
+                ( cpuNanos < 0 ? "" : ", " + millis( cpuNanos ) + " ms CPU" ) +
+                ( processCpuNanos < 0 ? "" : ", " + millis( processCpuNanos ) + " ms process CPU" ) +
+                " (" + thread + ")";
+        }
+    }
+}
@@ -0,0 +1,372 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Requests a set of URLs of the started server in rounds, concurrently, until the median latency of a round is
+ * within a tolerance of the previous one, so JSP compilation, class loading and JIT are paid before the server is
+ * reported ready. The URLs are the configured ones and, with a crawl depth, the pages of the same server they link
+ * to, found during the first round. Links that change state are not followed: portlet action and resource URLs,
+ * URLs with an authentication token, the logout URL and those matching the configured excludes.
+ * <p>
+ * Failed requests are logged and counted, a warmup never fails the build.
+ */
+class Warmup
+{
+
+    private static final Pattern LINK = Pattern.compile( "(?:href|src)\\s*=\\s*[\"']([^\"'#]+)",
+                                                         Pattern.CASE_INSENSITIVE );
+
+    /**
+     * Only render URLs are followed, action and resource URLs may change the portal.
+     */
+    private static final Pattern[] NON_RENDER = { Pattern.compile( "[?&]p_p_lifecycle=[^0&]" ),
+        Pattern.compile( "[?&]p_auth=" ), Pattern.compile( "/c/portal/logout" ) };
+
+    private static final int CONNECT_TIMEOUT = 10000;
+
+    /**
+     * Generous, the first request of a page may compile a lot of JSPs.
+     */
+    private static final int READ_TIMEOUT = 300000;
+
+    private final URL baseUrl;
+
+    private final List<String> paths;
+
+    private final int crawlDepth;
+
+    private final List<Pattern> crawlExcludes = new ArrayList<Pattern>();
+
+    private final int maxUrls;
+
+    private final int threads;
+
+    private final Log log;
+
+    /**
+     * @param paths absolute URLs or paths on the server, <code>/</code> when empty
+     * @param crawlDepth how many links away from the configured URLs pages are requested as well
+     * @param crawlExcludes regular expressions, links whose path and query contain a match are not followed, may be
+     *            <code>null</code>
+     * @param maxUrls at most how many URLs are requested in a round
+     */
+    Warmup( URL baseUrl, List<String> paths, int crawlDepth, List<String> crawlExcludes, int maxUrls, int threads,
+            Log log )
+    {
+        this.baseUrl = baseUrl;
+        this.paths = paths == null || paths.isEmpty() ? Collections.singletonList( "/" ) : paths;
+        this.crawlDepth = crawlDepth;
+
+        Collections.addAll( this.crawlExcludes, NON_RENDER );
+
+        if( crawlExcludes != null )
+        {
+            for( String crawlExclude : crawlExcludes )
+            {
+                this.crawlExcludes.add( Pattern.compile( crawlExclude ) );
+            }
+        }
+
+        this.maxUrls = maxUrls;
+        this.threads = threads;
+        this.log = log;
+    }
+
+    /**
+     * @param tolerancePercent how much the median of a round may differ from the one before to stop
+     * @param timeoutMillis no new round starts after that long
+     */
+    void run( int maxRounds, int tolerancePercent, long timeoutMillis ) throws MojoExecutionException
+    {
+        long start = System.currentTimeMillis();
+
+        ExecutorService executor = Executors.newFixedThreadPool( threads, new ThreadFactory()
+        {
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread( Runnable runnable )
+            {
+                Thread thread = new Thread( runnable, "liferay-warmup-" + count.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        } );
+
+        try
+        {
+            Set<URL> urls = new LinkedHashSet<URL>();
+
+            for( String path : paths )
+            {
+                try
+                {
+                    urls.add( new URL( baseUrl, path ) );
+                }
+                catch( MalformedURLException e )
+                {
+                    log.warn( "Skipping warmup URL " + path + ": " + e.getMessage() );
+                }
+            }
+
+            LatencyHistogram histogram = new LatencyHistogram();
+            int failures = crawl( executor, urls, histogram );
+            long previousMedian = report( 1, histogram, failures );
+            int round = 1;
+
+            while( round < maxRounds && System.currentTimeMillis() - start < timeoutMillis )
+            {
+                round++;
+
+                histogram = new LatencyHistogram();
+                failures = request( executor, new ArrayList<URL>( urls ), false, histogram, null );
+                long median = report( round, histogram, failures );
+
+                if( Math.abs( median - previousMedian ) * 100 <= (long) tolerancePercent * previousMedian )
+                {
+                    log.info( "Warmup finished after " + round + " rounds and " +
+                        ( System.currentTimeMillis() - start ) + " ms, latency leveled off" );
+                    return;
+                }
+
+                previousMedian = median;
+            }
+
+            log.info( "Warmup stopped after " + round + " rounds and " + ( System.currentTimeMillis() - start ) +
+                " ms, latency did not level off" );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException( "interrupted during warmup", e );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Requests the URLs and, up to the crawl depth, the pages they link to, adding those to the URLs.
+     *
+     * @return the number of failed requests
+     */
+    private int crawl( ExecutorService executor, Set<URL> urls, LatencyHistogram histogram )
+        throws InterruptedException
+    {
+        List<URL> level = new ArrayList<URL>( urls );
+        int failures = 0;
+
+        for( int depth = 0; !level.isEmpty(); depth++ )
+        {
+            Set<URL> links = new LinkedHashSet<URL>();
+
+            failures += request( executor, level, depth < crawlDepth, histogram, links );
+
+            level = new ArrayList<URL>();
+
+            for( URL link : links )
+            {
+                if( urls.size() >= maxUrls )
+                {
+                    log.info( "Warmup crawl stopped at " + maxUrls + " URLs" );
+                    break;
+                }
+
+                if( urls.add( link ) )
+                {
+                    level.add( link );
+                }
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * @param links collects the links of the HTML pages when following links
+     * @return the number of failed requests
+     */
+    private int request( ExecutorService executor, List<URL> urls, final boolean followLinks,
+                         final LatencyHistogram histogram, final Set<URL> links ) throws InterruptedException
+    {
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+
+        for( final URL url : urls )
+        {
+            results.add( executor.submit( new Callable<Boolean>()
+            {
+                public Boolean call() throws IOException
+                {
+                    return fetch( url, followLinks, histogram, links );
+                }
+            } ) );
+        }
+
+        int failures = 0;
+
+        for( int i = 0; i < results.size(); i++ )
+        {
+            try
+            {
+                if( !results.get( i ).get() )
+                {
+                    failures++;
+                }
+            }
+            catch( ExecutionException e )
+            {
+                log.debug( "Warmup request to " + urls.get( i ) + " failed", e.getCause() );
+                failures++;
+            }
+        }
+
+        return failures;
+    }
+
+    /**
+     * @return whether the response was not an error
+     */
+    private boolean fetch( URL url, boolean followLinks, LatencyHistogram histogram, Set<URL> links )
+        throws IOException
+    {
+        long start = System.nanoTime();
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout( CONNECT_TIMEOUT );
+        connection.setReadTimeout( READ_TIMEOUT );
+
+        try
+        {
+            int status = connection.getResponseCode();
+            InputStream in = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+            String contentType = connection.getContentType();
+            boolean html = followLinks && contentType != null && contentType.startsWith( "text/html" );
+            ByteArrayOutputStream body = html ? new ByteArrayOutputStream() : null;
+
+            if( in != null )
+            {
+                try
+                {
+                    byte[] buffer = new byte[8192];
+                    int read;
+
+                    while( ( read = in.read( buffer ) ) != -1 )
+                    {
+                        if( body != null )
+                        {
+                            body.write( buffer, 0, read );
+                        }
+                    }
+                }
+                finally
+                {
+                    in.close();
+                }
+            }
+
+            histogram.record( TimeUnit.NANOSECONDS.toMicros( System.nanoTime() - start ) );
+
+            if( status >= 400 )
+            {
+                log.debug( "Warmup request to " + url + " returned " + status );
+                return false;
+            }
+
+            if( body != null )
+            {
+                // links are ASCII in practice, the charset of the page does not matter
+                addLinks( connection.getURL(), body.toString( "ISO-8859-1" ), links );
+            }
+
+            return true;
+        }
+        finally
+        {
+            connection.disconnect();
+        }
+    }
+
+    private void addLinks( URL page, String html, Set<URL> links )
+    {
+        Matcher matcher = LINK.matcher( html );
+
+        while( matcher.find() )
+        {
+            String link = matcher.group( 1 ).trim();
+
+            if( link.startsWith( "javascript:" ) || link.startsWith( "mailto:" ) || link.startsWith( "data:" ) )
+            {
+                continue;
+            }
+
+            try
+            {
+                URL url = new URL( page, link.replace( "&amp;", "&" ) );
+
+                if( url.getProtocol().equals( baseUrl.getProtocol() ) && url.getHost().equals( baseUrl.getHost() ) &&
+                    url.getPort() == baseUrl.getPort() && !isExcluded( url ) )
+                {
+                    synchronized( links )
+                    {
+                        links.add( url );
+                    }
+                }
+            }
+            catch( MalformedURLException e )
+            {
+                // not a link to follow
+            }
+        }
+    }
+
+    private boolean isExcluded( URL url )
+    {
+        for( Pattern crawlExclude : crawlExcludes )
+        {
+            if( crawlExclude.matcher( url.getFile() ).find() )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the median of the round in microseconds
+     */
+    private long report( int round, LatencyHistogram histogram, int failures )
+    {
+        long median = histogram.getPercentile( 50 );
+
+        log.info( String.format( "Warmup round %d: %d requests, %d failed, p50 %.1f ms, p90 %.1f ms, max %.1f ms",
+                                 round, histogram.getCount(), failures, median / 1000d,
+                                 histogram.getPercentile( 90 ) / 1000d, histogram.getMax() / 1000d ) );
+
+        return median;
+    }
+}
@@ -0,0 +1,579 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * Watches the top level entries of a webapps directory and reports them as created, deleted or modified.
+ * <p>
+ * Uses a {@link WatchService} registered on the whole tree, so a change anywhere inside a webapp marks that webapp
+ * as modified, and falls back to polling when no watch service is available or a directory can't be registered,
+ * such as when the inotify watch limit is reached. Events are coalesced: a batch is only handed to the listener
+ * once nothing changed for the quiet period, so copying a webapp results in one action.
+ * <p>
+ * Directories whose name starts with a dot and files that look like temporary files are not changes, webapps write
+ * those at runtime, such as the <code>.sass-cache</code> directories, and reloading for them would loop.
+ */
+class WebappsWatcher
+{
+
+    private final File webappsDir;
+
+    private final Set<String> ignoredNames;
+
+    private final long quietPeriodMillis;
+
+    private final long pollIntervalMillis;
+
+    private final Listener listener;
+
+    private final Log log;
+
+    /**
+     * Names of the top level entries as the listener last saw them.
+     */
+    private final Set<String> knownNames = new HashSet<String>();
+
+    private volatile boolean running;
+
+    private WatchService watchService;
+
+    private Thread thread;
+
+    /**
+     * @param ignoredNames       top level entries that are neither watched nor reported
+     * @param quietPeriodMillis  how long nothing must change before a batch is reported
+     * @param pollIntervalMillis the interval of the polling fallback, only used when polling
+     */
+    WebappsWatcher( File webappsDir, Set<String> ignoredNames, long quietPeriodMillis, long pollIntervalMillis,
+                    Listener listener, Log log )
+    {
+        this.webappsDir = webappsDir;
+        this.ignoredNames = ignoredNames;
+        this.quietPeriodMillis = quietPeriodMillis;
+        this.pollIntervalMillis = pollIntervalMillis;
+        this.listener = listener;
+        this.log = log;
+    }
+
+    /**
+     * Starts watching in a daemon thread, entries present at this point are considered known.
+     *
+     * @param polling <code>true</code> to poll even if a watch service is available
+     */
+    synchronized void start( boolean polling )
+    {
+        for( String name : listNames() )
+        {
+            knownNames.add( name );
+        }
+
+        if( !polling )
+        {
+            try
+            {
+                watchService = FileSystems.getDefault().newWatchService();
+            }
+            catch( IOException e )
+            {
+                log.warn( "No file system watch service, polling " + webappsDir + " instead: " + e.getMessage() );
+            }
+            catch( UnsupportedOperationException e )
+            {
+                log.warn( "No file system watch service, polling " + webappsDir + " instead" );
+            }
+        }
+
+        running = true;
+
+        thread = new Thread( new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    if( watchService != null )
+                    {
+                        watch();
+                    }
+                    else
+                    {
+                        poll();
+                    }
+                }
+                catch( InterruptedException e )
+                {
+                    // stopped
+                }
+                catch( ClosedWatchServiceException e )
+                {
+                    // stopped
+                }
+                catch( IOException e )
+                {
+                    log.error( "Stopped watching " + webappsDir, e );
+                }
+            }
+        }, "liferay-webapps-watcher" );
+
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    synchronized void stop()
+    {
+        running = false;
+
+        if( watchService != null )
+        {
+            try
+            {
+                watchService.close();
+            }
+            catch( IOException e )
+            {
+                // ignore
+            }
+        }
+
+        if( thread != null )
+        {
+            thread.interrupt();
+        }
+    }
+
+    private void watch() throws IOException, InterruptedException
+    {
+        Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+        Path root = webappsDir.toPath();
+
+        if( !register( root, root, keys ) )
+        {
+            fallBackToPolling();
+            return;
+        }
+
+        Set<String> touched = new LinkedHashSet<String>();
+        long firstEventNanos = 0;
+        long lastEventNanos = 0;
+
+        while( running )
+        {
+            WatchKey key;
+
+            if( touched.isEmpty() )
+            {
+                key = watchService.take();
+            }
+            else
+            {
+                long quietLeft = quietPeriodMillis - TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - lastEventNanos );
+                key = quietLeft > 0 ? watchService.poll( quietLeft, TimeUnit.MILLISECONDS ) : null;
+            }
+
+            if( key != null )
+            {
+                Path dir = keys.get( key );
+
+                for( WatchEvent<?> event : key.pollEvents() )
+                {
+                    if( touched.isEmpty() )
+                    {
+                        firstEventNanos = System.nanoTime();
+                    }
+
+                    if( event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null )
+                    {
+                        // lost events, look at everything
+                        touched.addAll( knownNames );
+                        touched.addAll( listNames() );
+                        continue;
+                    }
+
+                    Path path = dir.resolve( (Path) event.context() );
+                    Path relative = root.relativize( path );
+
+                    String name = relative.getName( 0 ).toString();
+
+                    if( ignoredNames.contains( name ) || isIgnored( relative, Files.isDirectory( path ) ) )
+                    {
+                        continue;
+                    }
+
+                    touched.add( name );
+
+                    if( event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory( path ) &&
+                        !register( root, path, keys ) )
+                    {
+                        dispatch( touched, firstEventNanos );
+                        fallBackToPolling();
+                        return;
+                    }
+                }
+
+                lastEventNanos = System.nanoTime();
+
+                if( !key.reset() )
+                {
+                    keys.remove( key );
+                }
+            }
+            else if( !touched.isEmpty() )
+            {
+                dispatch( touched, firstEventNanos );
+                touched.clear();
+            }
+        }
+    }
+
+    /**
+     * Stops using the watch service for the rest of the run, polling still sees every change.
+     */
+    private void fallBackToPolling() throws InterruptedException
+    {
+        synchronized( this )
+        {
+            try
+            {
+                watchService.close();
+            }
+            catch( IOException e )
+            {
+                // ignore
+            }
+
+            watchService = null;
+        }
+
+        poll();
+    }
+
+    private void poll() throws InterruptedException
+    {
+        Map<String, Long> snapshot = snapshot();
+
+        while( running )
+        {
+            Thread.sleep( pollIntervalMillis );
+
+            long firstEventNanos = System.nanoTime();
+
+            Map<String, Long> current = snapshot();
+            Set<String> touched = new LinkedHashSet<String>();
+
+            diff( snapshot, current, touched );
+            snapshot = current;
+
+            if( !touched.isEmpty() )
+            {
+                // keep collecting until a full quiet period passes without changes
+                long quietSince = System.nanoTime();
+
+                while( running && TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - quietSince ) < quietPeriodMillis )
+                {
+                    Thread.sleep( Math.min( pollIntervalMillis, quietPeriodMillis ) );
+
+                    current = snapshot();
+
+                    if( diff( snapshot, current, touched ) )
+                    {
+                        snapshot = current;
+                        quietSince = System.nanoTime();
+                    }
+                }
+
+                dispatch( touched, firstEventNanos );
+            }
+        }
+    }
+
+    /**
+     * @return whether anything differs, the differing names are added to <code>touched</code>
+     */
+    private boolean diff( Map<String, Long> previous, Map<String, Long> current, Set<String> touched )
+    {
+        boolean changed = false;
+
+        for( Map.Entry<String, Long> entry : current.entrySet() )
+        {
+            if( !entry.getValue().equals( previous.get( entry.getKey() ) ) )
+            {
+                touched.add( entry.getKey() );
+                changed = true;
+            }
+        }
+
+        for( String name : previous.keySet() )
+        {
+            if( !current.containsKey( name ) )
+            {
+                touched.add( name );
+                changed = true;
+            }
+        }
+
+        return changed;
+    }
+
+    /**
+     * Turns the touched names into created, deleted and modified entries by comparing with what the listener saw
+     * before, a webapp created and deleted again within one batch is not reported at all.
+     */
+    private void dispatch( Set<String> touched, long firstEventNanos )
+    {
+        Changes changes = new Changes( firstEventNanos );
+
+        for( String name : touched )
+        {
+            File file = new File( webappsDir, name );
+            boolean known = knownNames.contains( name );
+
+            if( file.exists() )
+            {
+                if( known )
+                {
+                    changes.modified.add( file );
+                }
+                else
+                {
+                    changes.created.add( file );
+                    knownNames.add( name );
+                }
+            }
+            else if( known )
+            {
+                changes.deleted.add( file );
+                knownNames.remove( name );
+            }
+        }
+
+        if( changes.isEmpty() )
+        {
+            return;
+        }
+
+        try
+        {
+            listener.webappsChanged( changes );
+        }
+        catch( Exception e )
+        {
+            log.error( "Failed to handle changes in " + webappsDir, e );
+        }
+    }
+
+    /**
+     * @return <code>false</code> if a directory could not be registered and changes below it would go unnoticed
+     */
+    private boolean register( final Path root, Path start, final Map<WatchKey, Path> keys )
+    {
+        final boolean[] registered = { true };
+
+        try
+        {
+            Files.walkFileTree( start, new SimpleFileVisitor<Path>()
+            {
+                @Override
+                public FileVisitResult preVisitDirectory( Path dir, BasicFileAttributes attrs )
+                {
+                    Path relative = root.relativize( dir );
+
+                    if( relative.toString().length() > 0 &&
+                        ( ignoredNames.contains( relative.getName( 0 ).toString() ) || isIgnored( relative, true ) ) )
+                    {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+
+                    try
+                    {
+                        keys.put( dir.register(
+                            watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                            StandardWatchEventKinds.ENTRY_MODIFY ), dir );
+                    }
+                    catch( NoSuchFileException e )
+                    {
+                        // removed while walking, the delete event follows
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    catch( IOException e )
+                    {
+                        log.warn( "Could not watch " + dir + ", polling " + webappsDir + " instead: " + e );
+                        registered[0] = false;
+                        return FileVisitResult.TERMINATE;
+                    }
+
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed( Path file, IOException e )
+                {
+                    // removed while walking, the delete event follows
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory( Path dir, IOException e )
+                {
+                    return FileVisitResult.CONTINUE;
+                }
+            } );
+        }
+        catch( IOException e )
+        {
+            log.warn( "Could not watch " + start + ", polling " + webappsDir + " instead: " + e );
+            return false;
+        }
+
+        return registered[0];
+    }
+
+    /**
+     * @param relative  a path relative to the webapps directory
+     * @param directory whether the path is a directory
+     * @return whether the path is a dot directory, is below one or is a temporary file, which webapps write at
+     *         runtime, the top level entry itself is never ignored
+     */
+    static boolean isIgnored( Path relative, boolean directory )
+    {
+        int last = relative.getNameCount() - 1;
+
+        for( int i = 1; i <= last; i++ )
+        {
+            if( isIgnored( relative.getName( i ).toString(), i < last || directory ) )
+            {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private static boolean isIgnored( String name, boolean directory )
+    {
+        return ( directory && name.startsWith( "." ) ) || name.endsWith( "~" ) || name.endsWith( ".tmp" );
+    }
+
+    private Set<String> listNames()
+    {
+        Set<String> names = new HashSet<String>();
+        String[] list = webappsDir.list();
+
+        if( list != null )
+        {
+            for( String name : list )
+            {
+                if( !ignoredNames.contains( name ) )
+                {
+                    names.add( name );
+                }
+            }
+        }
+
+        return names;
+    }
+
+    /**
+     * @return a fingerprint of the modification times of each top level entry, the polling equivalent of the
+     *         watch events
+     */
+    private Map<String, Long> snapshot()
+    {
+        Map<String, Long> snapshot = new HashMap<String, Long>();
+
+        for( String name : listNames() )
+        {
+            snapshot.put( name, fingerprint( new File( webappsDir, name ) ) );
+        }
+
+        return snapshot;
+    }
+
+    static long fingerprint( File file )
+    {
+        // covers files that were added or removed without touching the modification time of anything else
+        long fingerprint = file.getName().hashCode() * 31L;
+
+        // the time of a directory also changes when an ignored file is added to it, the names of its children
+        // already cover what it would tell
+        if( !file.isDirectory() )
+        {
+            fingerprint += file.lastModified();
+        }
+
+        File[] children = file.listFiles();
+
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                if( !isIgnored( child.getName(), child.isDirectory() ) )
+                {
+                    fingerprint = fingerprint * 31 + fingerprint( child );
+                }
+            }
+        }
+
+        return fingerprint;
+    }
+
+    interface Listener
+    {
+
+        void webappsChanged( Changes changes ) throws Exception;
+    }
+
+    /**
+     * One coalesced batch of changes.
+     */
+    static class Changes
+    {
+
+        final Set<File> created = new LinkedHashSet<File>();
+
+        final Set<File> deleted = new LinkedHashSet<File>();
+
+        final Set<File> modified = new LinkedHashSet<File>();
+
+        /**
+         * {@link System#nanoTime()} of the first event of the batch.
+         */
+        final long firstEventNanos;
+
+        Changes( long firstEventNanos )
+        {
+            this.firstEventNanos = firstEventNanos;
+        }
+
+        boolean isEmpty()
+        {
+            return created.isEmpty() && deleted.isEmpty() && modified.isEmpty();
+        }
+
+        @Override
+        public String toString()
+        {
+            return "created " + created + ", deleted " + deleted + ", modified " + modified;
+        }
+    }
+}
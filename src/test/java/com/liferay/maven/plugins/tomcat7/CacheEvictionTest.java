@@ -0,0 +1,100 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheEvictionTest
+{
+
+    private static final long OLD = System.currentTimeMillis() - 100L * 24 * 60 * 60 * 1000;
+
+    private File cacheDir;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        cacheDir = File.createTempFile( "cache", "" );
+        cacheDir.delete();
+        cacheDir.mkdirs();
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( cacheDir );
+    }
+
+    @Test
+    public void testUnusedEntriesAreEvicted()
+        throws Exception
+    {
+        File unused = createEntry( "a/unused", OLD );
+        File used = createEntry( "a/used", System.currentTimeMillis() );
+
+        assertEquals( 1, CacheEviction.evict( cacheDir, 2, 30 ) );
+        assertFalse( unused.exists() );
+        assertTrue( used.isDirectory() );
+    }
+
+    @Test
+    public void testLockedEntryIsNotEvicted()
+        throws Exception
+    {
+        File entry = createEntry( "a/locked", OLD );
+        CacheEviction.EntryLock lock = CacheEviction.lock( entry );
+
+        try
+        {
+            assertEquals( 0, CacheEviction.evict( cacheDir, 2, 30 ) );
+            assertTrue( entry.isDirectory() );
+        }
+        finally
+        {
+            lock.release();
+        }
+
+        new File( cacheDir, ".last-eviction" ).delete();
+
+        assertEquals( 1, CacheEviction.evict( cacheDir, 2, 30 ) );
+        assertFalse( entry.exists() );
+        assertFalse( "lock file left behind", new File( entry.getPath() + ".lock" ).exists() );
+    }
+
+    @Test
+    public void testLockIsHeldUntilTheLastRelease()
+        throws Exception
+    {
+        File entry = createEntry( "a/locked", OLD );
+        CacheEviction.EntryLock first = CacheEviction.lock( entry );
+        CacheEviction.EntryLock second = CacheEviction.lock( entry );
+
+        first.release();
+
+        try
+        {
+            assertEquals( 0, CacheEviction.evict( cacheDir, 2, 30 ) );
+        }
+        finally
+        {
+            second.release();
+        }
+    }
+
+    private File createEntry( String path, long lastModified )
+    {
+        File entry = new File( cacheDir, path );
+        entry.mkdirs();
+        entry.setLastModified( lastModified );
+        return entry;
+    }
+}
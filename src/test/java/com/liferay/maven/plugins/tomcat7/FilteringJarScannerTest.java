@@ -0,0 +1,70 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.net.JarURLConnection;
+
+import org.apache.tomcat.JarScannerCallback;
+import org.junit.Test;
+
+public class FilteringJarScannerTest
+{
+
+    @Test
+    public void testTldConfigScanIsTld()
+        throws Exception
+    {
+        assertEquals( JarScanCache.TLD, getKind( "org.apache.catalina.startup.TldConfig$TldJarScannerCallback" ) );
+    }
+
+    @Test
+    public void testJasperTldScanIsTld()
+        throws Exception
+    {
+        // Jasper maps the taglib URIs with the scanner of the context, a jar with TLDs must not be skipped
+        assertEquals( JarScanCache.TLD,
+            getKind( "org.apache.jasper.compiler.TldLocationsCache$TldJarScannerCallback" ) );
+    }
+
+    @Test
+    public void testContextConfigScanIsFragment()
+        throws Exception
+    {
+        assertEquals( JarScanCache.FRAGMENT,
+            getKind( "org.apache.catalina.startup.ContextConfig$FragmentJarScannerCallback" ) );
+    }
+
+    @Test
+    public void testOtherScanBypassesTheCache()
+    {
+        JarScannerCallback callback = new JarScannerCallback()
+        {
+            public void scan( JarURLConnection urlConn )
+            {
+            }
+
+            public void scan( File file )
+            {
+            }
+        };
+
+        assertNull( FilteringJarScanner.getKind( callback.getClass().getName() ) );
+    }
+
+    /**
+     * Loads the callback class first, so a renamed Tomcat class fails the test instead of silently bypassing the
+     * cache.
+     */
+    private static String getKind( String callbackClass )
+        throws ClassNotFoundException
+    {
+        Class<?> type = Class.forName( callbackClass );
+
+        assertTrue( JarScannerCallback.class.isAssignableFrom( type ) );
+
+        return FilteringJarScanner.getKind( type.getName() );
+    }
+}
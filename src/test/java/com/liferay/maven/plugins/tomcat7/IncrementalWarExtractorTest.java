@@ -0,0 +1,321 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class IncrementalWarExtractorTest
+{
+
+    private static final long ENTRY_TIME = 1300000000000L;
+
+    private File tempDir;
+
+    private File war;
+
+    private File destDir;
+
+    private File manifestFile;
+
+    private final IncrementalWarExtractor extractor = new IncrementalWarExtractor();
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        tempDir = File.createTempFile( "war-extractor", "" );
+        tempDir.delete();
+        tempDir.mkdirs();
+
+        war = new File( tempDir, "test.war" );
+        destDir = new File( tempDir, "test" );
+        manifestFile = new File( tempDir, "test.war.manifest" );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        delete( tempDir );
+    }
+
+    @Test
+    public void testFirstExtractionWritesEverything()
+        throws Exception
+    {
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello", "css/main.css", "body {}" ) );
+
+        IncrementalWarExtractor.Result result = extractor.extract( war, destDir, manifestFile );
+
+        assertFalse( result.unchanged );
+        assertEquals( 3, result.written );
+        assertEquals( 0, result.skipped );
+        assertEquals( "hello", read( new File( destDir, "index.jsp" ) ) );
+        assertEquals( "body {}", read( new File( destDir, "css/main.css" ) ) );
+        assertTrue( manifestFile.isFile() );
+    }
+
+    @Test
+    public void testUnchangedWarWritesNothing()
+        throws Exception
+    {
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello" ) );
+        extractor.extract( war, destDir, manifestFile );
+
+        File indexJsp = new File( destDir, "index.jsp" );
+        indexJsp.setLastModified( 1000000000000L );
+
+        IncrementalWarExtractor.Result result = extractor.extract( war, destDir, manifestFile );
+
+        assertTrue( result.unchanged );
+        assertEquals( 0, result.written );
+        assertEquals( 1000000000000L, indexJsp.lastModified() );
+    }
+
+    @Test
+    public void testTouchedWarWritesNothing()
+        throws Exception
+    {
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello" ) );
+        extractor.extract( war, destDir, manifestFile );
+
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello" ) );
+        war.setLastModified( war.lastModified() + 60000 );
+
+        IncrementalWarExtractor.Result result = extractor.extract( war, destDir, manifestFile );
+
+        assertTrue( result.unchanged );
+        assertEquals( 0, result.written );
+    }
+
+    @Test
+    public void testChangedEntryIsTheOnlyOneRewritten()
+        throws Exception
+    {
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello", "css/main.css", "body {}" ) );
+        extractor.extract( war, destDir, manifestFile );
+
+        File webXml = new File( destDir, "WEB-INF/web.xml" );
+        File mainCss = new File( destDir, "css/main.css" );
+        webXml.setLastModified( 1000000000000L );
+        mainCss.setLastModified( 1000000000000L );
+
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello world", "css/main.css", "body {}" ) );
+        war.setLastModified( war.lastModified() + 60000 );
+
+        IncrementalWarExtractor.Result result = extractor.extract( war, destDir, manifestFile );
+
+        assertFalse( result.unchanged );
+        assertEquals( 1, result.written );
+        assertEquals( 2, result.skipped );
+        assertEquals( 0, result.deleted );
+        assertEquals( "hello world", read( new File( destDir, "index.jsp" ) ) );
+        assertEquals( 1000000000000L, webXml.lastModified() );
+        assertEquals( 1000000000000L, mainCss.lastModified() );
+    }
+
+    @Test
+    public void testRemovedEntryIsDeleted()
+        throws Exception
+    {
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello", "css/main.css", "body {}" ) );
+        extractor.extract( war, destDir, manifestFile );
+
+        writeWar( entries( "WEB-INF/web.xml", "<web-app/>", "index.jsp", "hello" ) );
+        war.setLastModified( war.lastModified() + 60000 );
+
+        IncrementalWarExtractor.Result result = extractor.extract( war, destDir, manifestFile );
+
+        assertEquals( 0, result.written );
+        assertEquals( 2, result.skipped );
+        assertEquals( 1, result.deleted );
+        assertFalse( new File( destDir, "css/main.css" ).exists() );
+        assertFalse( "empty parent directory left behind", new File( destDir, "css" ).exists() );
+        assertTrue( new File( destDir, "index.jsp" ).isFile() );
+    }
+
+    @Test
+    public void testEntryOutsideOfDestDirIsRejected()
+        throws Exception
+    {
+        writeWar( entries( "index.jsp", "hello", "../evil.jsp", "gotcha" ) );
+
+        try
+        {
+            extractor.extract( war, destDir, manifestFile );
+            fail( "extracted an entry outside of " + destDir );
+        }
+        catch( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "../evil.jsp" ) );
+        }
+
+        assertFalse( new File( tempDir, "evil.jsp" ).exists() );
+    }
+
+    @Test
+    public void testConcurrentExtraction()
+        throws Exception
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+
+        for( int i = 0; i < 200; i++ )
+        {
+            entries.put( "dir" + i % 7 + "/sub" + i % 3 + "/file" + i + ".jsp", "content " + i );
+        }
+
+        writeWar( entries );
+
+        ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+        try
+        {
+            IncrementalWarExtractor concurrentExtractor = new IncrementalWarExtractor( executor );
+            IncrementalWarExtractor.Result result = concurrentExtractor.extract( war, destDir, manifestFile );
+
+            assertEquals( 200, result.written );
+
+            for( Map.Entry<String, String> entry : entries.entrySet() )
+            {
+                File file = new File( destDir, entry.getKey() );
+
+                assertEquals( entry.getValue(), read( file ) );
+                assertEquals( ENTRY_TIME, file.lastModified() );
+            }
+
+            entries.put( "dir0/sub0/file0.jsp", "changed" );
+            writeWar( entries );
+            war.setLastModified( war.lastModified() + 60000 );
+
+            result = concurrentExtractor.extract( war, destDir, manifestFile );
+
+            assertEquals( 1, result.written );
+            assertEquals( 199, result.skipped );
+            assertEquals( "changed", read( new File( destDir, "dir0/sub0/file0.jsp" ) ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentWriteFailureIsThrown()
+        throws Exception
+    {
+        writeWar( entries( "index.jsp", "hello", "blocked.jsp", "world" ) );
+
+        // a directory where the entry goes can't be written
+        new File( destDir, "blocked.jsp" ).mkdirs();
+
+        ExecutorService executor = Executors.newFixedThreadPool( 2 );
+
+        try
+        {
+            new IncrementalWarExtractor( executor ).extract( war, destDir, manifestFile );
+            fail( "extracted over a directory" );
+        }
+        catch( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "blocked.jsp" ) );
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        assertFalse( "manifest written for a failed extraction", manifestFile.exists() );
+    }
+
+    private static Map<String, String> entries( String... namesAndContents )
+    {
+        Map<String, String> entries = new LinkedHashMap<String, String>();
+
+        for( int i = 0; i < namesAndContents.length; i += 2 )
+        {
+            entries.put( namesAndContents[i], namesAndContents[i + 1] );
+        }
+
+        return entries;
+    }
+
+    private void writeWar( Map<String, String> entries )
+        throws IOException
+    {
+        ZipOutputStream out = new ZipOutputStream( new FileOutputStream( war ) );
+
+        try
+        {
+            for( Map.Entry<String, String> entry : entries.entrySet() )
+            {
+                ZipEntry zipEntry = new ZipEntry( entry.getKey() );
+
+                // a fixed time, so writing the same entries again gives the same archive
+                zipEntry.setTime( ENTRY_TIME );
+
+                out.putNextEntry( zipEntry );
+                out.write( entry.getValue().getBytes( "UTF-8" ) );
+                out.closeEntry();
+            }
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    private static String read( File file )
+        throws IOException
+    {
+        InputStream in = new FileInputStream( file );
+
+        try
+        {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+
+            while( read < bytes.length )
+            {
+                read += in.read( bytes, read, bytes.length - read );
+            }
+
+            return new String( bytes, "UTF-8" );
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    private static void delete( File file )
+    {
+        File[] children = file.listFiles();
+
+        if( children != null )
+        {
+            for( File child : children )
+            {
+                delete( child );
+            }
+        }
+
+        file.delete();
+    }
+}
@@ -0,0 +1,137 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest
+{
+
+    private static final long LAST_UPPER_BOUND = ( 1L << 37 ) - 1;
+
+    @Test
+    public void testBucketBoundaries()
+    {
+        assertBucket( 0, 0, 0 );
+        assertBucket( 15, 15, 15 );
+        assertBucket( 16, 16, 16 );
+        assertBucket( 31, 31, 31 );
+        assertBucket( 32, 32, 33 );
+        assertBucket( 33, 32, 33 );
+        assertBucket( 34, 33, 35 );
+        assertBucket( 1L << 36, 33 * 16, ( 1L << 36 ) + ( 1L << 32 ) - 1 );
+        assertBucket( LAST_UPPER_BOUND, 34 * 16 - 1, LAST_UPPER_BOUND );
+        assertBucket( 1L << 37, 34 * 16 - 1, LAST_UPPER_BOUND );
+        assertBucket( Long.MAX_VALUE, 34 * 16 - 1, LAST_UPPER_BOUND );
+    }
+
+    @Test
+    public void testBucketsAreContiguous()
+    {
+        for( int bucket = 1; bucket < 34 * 16; bucket++ )
+        {
+            long lowerBound = LatencyHistogram.upperBoundOf( bucket - 1 ) + 1;
+
+            assertEquals( "bucket of " + lowerBound, bucket, LatencyHistogram.bucketOf( lowerBound ) );
+            assertEquals( "bucket of " + ( lowerBound - 1 ), bucket - 1, LatencyHistogram.bucketOf( lowerBound - 1 ) );
+            assertEquals( bucket, LatencyHistogram.bucketOf( LatencyHistogram.upperBoundOf( bucket ) ) );
+        }
+    }
+
+    @Test
+    public void testRelativeError()
+    {
+        for( long value = 16; value < ( 1L << 37 ); value = value * 3 / 2 + 1 )
+        {
+            long upperBound = LatencyHistogram.upperBoundOf( LatencyHistogram.bucketOf( value ) );
+
+            assertTrue( value + " reported as " + upperBound, upperBound >= value );
+            assertTrue( value + " reported as " + upperBound, upperBound - value < value / 16 + 1 );
+        }
+    }
+
+    @Test
+    public void testPercentilesOfUniformDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for( long value = 1; value <= 1000; value++ )
+        {
+            histogram.record( value );
+        }
+
+        assertEquals( 1000, histogram.getCount() );
+        assertEquals( 1000, histogram.getMax() );
+        assertEquals( 500.5, histogram.getMean(), 0.001 );
+
+        // the upper bound of the bucket of the exact percentile: [1], [496, 511], [896, 927], [960, 991]
+        assertEquals( 1, histogram.getPercentile( 0 ) );
+        assertEquals( 511, histogram.getPercentile( 50 ) );
+        assertEquals( 927, histogram.getPercentile( 90 ) );
+        assertEquals( 991, histogram.getPercentile( 99 ) );
+
+        // bounded by the maximum rather than the bucket's 1023
+        assertEquals( 1000, histogram.getPercentile( 100 ) );
+    }
+
+    @Test
+    public void testPercentilesOfSkewedDistribution()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        for( int i = 0; i < 990; i++ )
+        {
+            histogram.record( 10 );
+        }
+
+        for( int i = 0; i < 10; i++ )
+        {
+            histogram.record( 5000000 );
+        }
+
+        assertEquals( 10, histogram.getPercentile( 50 ) );
+        assertEquals( 10, histogram.getPercentile( 99 ) );
+        assertEquals( 5000000, histogram.getPercentile( 99.9 ) );
+    }
+
+    @Test
+    public void testEmptyAndReset()
+    {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals( 0, histogram.getPercentile( 99 ) );
+
+        histogram.record( 42 );
+        histogram.record( -1 );
+        histogram.reset();
+
+        assertEquals( 0, histogram.getCount() );
+        assertEquals( 0, histogram.getMax() );
+        assertEquals( 0, histogram.getPercentile( 50 ) );
+    }
+
+    @Test
+    public void testAddTo()
+    {
+        LatencyHistogram source = new LatencyHistogram();
+        LatencyHistogram target = new LatencyHistogram();
+
+        source.record( 100 );
+        source.record( 300 );
+        target.record( 200 );
+
+        source.addTo( target );
+
+        assertEquals( 3, target.getCount() );
+        assertEquals( 300, target.getMax() );
+        assertEquals( 200.0, target.getMean(), 0.001 );
+        assertEquals( 207, target.getPercentile( 50 ) );
+    }
+
+    private static void assertBucket( long value, int bucket, long upperBound )
+    {
+        assertEquals( "bucket of " + value, bucket, LatencyHistogram.bucketOf( value ) );
+        assertEquals( "upper bound of bucket " + bucket, upperBound, LatencyHistogram.upperBoundOf( bucket ) );
+    }
+}
@@ -0,0 +1,192 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class RingBufferTest
+{
+
+    @Test
+    public void testCapacityIsRoundedUpToAPowerOfTwo()
+    {
+        assertEquals( 2, new RingBuffer<String>( 0 ).capacity() );
+        assertEquals( 2, new RingBuffer<String>( 2 ).capacity() );
+        assertEquals( 4, new RingBuffer<String>( 3 ).capacity() );
+        assertEquals( 8192, new RingBuffer<String>( 8192 ).capacity() );
+        assertEquals( 16384, new RingBuffer<String>( 8193 ).capacity() );
+    }
+
+    @Test
+    public void testEmpty()
+    {
+        RingBuffer<String> buffer = new RingBuffer<String>( 4 );
+        List<String> batch = new ArrayList<String>();
+
+        assertEquals( 0, buffer.drainTo( batch, 10 ) );
+        assertTrue( batch.isEmpty() );
+
+        assertTrue( buffer.offer( "a" ) );
+        assertEquals( 1, buffer.drainTo( batch, 10 ) );
+        assertEquals( 0, buffer.drainTo( batch, 10 ) );
+        assertEquals( Arrays.asList( "a" ), batch );
+    }
+
+    @Test
+    public void testFull()
+    {
+        RingBuffer<String> buffer = new RingBuffer<String>( 4 );
+
+        for( int i = 0; i < 4; i++ )
+        {
+            assertTrue( buffer.offer( "e" + i ) );
+        }
+
+        assertFalse( buffer.offer( "e4" ) );
+
+        List<String> batch = new ArrayList<String>();
+
+        assertEquals( 1, buffer.drainTo( batch, 1 ) );
+        assertTrue( buffer.offer( "e4" ) );
+        assertFalse( buffer.offer( "e5" ) );
+
+        assertEquals( 4, buffer.drainTo( batch, 10 ) );
+        assertEquals( Arrays.asList( "e0", "e1", "e2", "e3", "e4" ), batch );
+    }
+
+    @Test
+    public void testWrapAround()
+    {
+        RingBuffer<Integer> buffer = new RingBuffer<Integer>( 4 );
+        List<Integer> batch = new ArrayList<Integer>();
+        int next = 0;
+        int expected = 0;
+
+        // many rounds of uneven offers and drains, so the positions wrap at every slot
+        for( int round = 0; round < 1000; round++ )
+        {
+            for( int i = 0; i < round % 5; i++ )
+            {
+                if( buffer.offer( next ) )
+                {
+                    next++;
+                }
+            }
+
+            batch.clear();
+            buffer.drainTo( batch, round % 3 + 1 );
+
+            for( Integer element : batch )
+            {
+                assertEquals( expected++, element.intValue() );
+            }
+        }
+
+        batch.clear();
+        buffer.drainTo( batch, 10 );
+
+        for( Integer element : batch )
+        {
+            assertEquals( expected++, element.intValue() );
+        }
+
+        assertEquals( next, expected );
+        assertTrue( next > 1000 );
+    }
+
+    @Test( timeout = 60000 )
+    public void testManyProducers()
+        throws Exception
+    {
+        final int producers = 8;
+        final int perProducer = 100000;
+        final RingBuffer<Integer> buffer = new RingBuffer<Integer>( 64 );
+        final CountDownLatch start = new CountDownLatch( 1 );
+        final AtomicInteger running = new AtomicInteger( producers );
+
+        Thread[] threads = new Thread[producers];
+
+        for( int p = 0; p < producers; p++ )
+        {
+            final int first = p * perProducer;
+
+            threads[p] = new Thread( new Runnable()
+            {
+                public void run()
+                {
+                    try
+                    {
+                        start.await();
+
+                        for( int i = first; i < first + perProducer; i++ )
+                        {
+                            while( !buffer.offer( i ) )
+                            {
+                                Thread.yield();
+                            }
+                        }
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    finally
+                    {
+                        running.decrementAndGet();
+                    }
+                }
+            } );
+
+            threads[p].start();
+        }
+
+        BitSet seen = new BitSet( producers * perProducer );
+        int[] lastOfProducer = new int[producers];
+        Arrays.fill( lastOfProducer, -1 );
+        List<Integer> batch = new ArrayList<Integer>();
+        int received = 0;
+
+        start.countDown();
+
+        while( running.get() > 0 || received < producers * perProducer )
+        {
+            batch.clear();
+
+            if( buffer.drainTo( batch, 32 ) == 0 )
+            {
+                Thread.yield();
+                continue;
+            }
+
+            for( Integer element : batch )
+            {
+                assertFalse( "duplicate " + element, seen.get( element ) );
+                seen.set( element );
+
+                // each producer's elements come out in the order it offered them
+                int producer = element / perProducer;
+                assertTrue( element > lastOfProducer[producer] );
+                lastOfProducer[producer] = element;
+            }
+
+            received += batch.size();
+        }
+
+        for( Thread thread : threads )
+        {
+            thread.join();
+        }
+
+        assertEquals( producers * perProducer, received );
+        assertEquals( producers * perProducer, seen.cardinality() );
+    }
+}
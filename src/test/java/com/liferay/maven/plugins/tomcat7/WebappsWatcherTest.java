@@ -0,0 +1,79 @@
+package com.liferay.maven.plugins.tomcat7;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Paths;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WebappsWatcherTest
+{
+
+    private File webapp;
+
+    @Before
+    public void setUp()
+        throws Exception
+    {
+        webapp = File.createTempFile( "webapp", "" );
+        webapp.delete();
+        new File( webapp, "css" ).mkdirs();
+        FileUtils.fileWrite( new File( webapp, "css/main.css" ).getPath(), "a {}" );
+    }
+
+    @After
+    public void tearDown()
+        throws Exception
+    {
+        FileUtils.deleteDirectory( webapp );
+    }
+
+    @Test
+    public void testRuntimeWritesAreIgnored()
+    {
+        assertTrue( WebappsWatcher.isIgnored( Paths.get( "portlet", "css", ".sass-cache", "main.scssc" ), false ) );
+        assertTrue( WebappsWatcher.isIgnored( Paths.get( "portlet", "css", ".sass-cache" ), true ) );
+        assertTrue( WebappsWatcher.isIgnored( Paths.get( "portlet", "WEB-INF", "web.xml~" ), false ) );
+        assertTrue( WebappsWatcher.isIgnored( Paths.get( "portlet", "upload.tmp" ), false ) );
+    }
+
+    @Test
+    public void testChangesAreNotIgnored()
+    {
+        assertFalse( WebappsWatcher.isIgnored( Paths.get( "portlet" ), true ) );
+        assertFalse( WebappsWatcher.isIgnored( Paths.get( ".portlet" ), true ) );
+        assertFalse( WebappsWatcher.isIgnored( Paths.get( "portlet", "WEB-INF", "classes", "A.class" ), false ) );
+        assertFalse( WebappsWatcher.isIgnored( Paths.get( "portlet", "css", "main.css" ), false ) );
+        // such as a hot deploy marker file
+        assertFalse( WebappsWatcher.isIgnored( Paths.get( "portlet", ".complete" ), false ) );
+    }
+
+    @Test
+    public void testFingerprintIgnoresRuntimeWrites()
+        throws Exception
+    {
+        long fingerprint = WebappsWatcher.fingerprint( webapp );
+
+        new File( webapp, "css/.sass-cache" ).mkdirs();
+        write( "css/.sass-cache/main.scssc" );
+
+        assertEquals( fingerprint, WebappsWatcher.fingerprint( webapp ) );
+
+        write( "css/portlet.css" );
+
+        assertFalse( fingerprint == WebappsWatcher.fingerprint( webapp ) );
+    }
+
+    private void write( String path )
+        throws IOException
+    {
+        FileUtils.fileWrite( new File( webapp, path ).getPath(), "" );
+    }
+}